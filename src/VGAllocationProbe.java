@@ -0,0 +1,190 @@
+package com.github.isle_shimakura.videogame;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <code>VGHeadlessRunner</code>で実行したフレームごとのメモリ割り当て量を計測するクラスです。<br>
+ * <br>
+ * <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes</code>を使って、
+ * ゲームスレッドが1フレームの更新と描画の間に割り当てたバイト数を計測します。
+ * フレームの処理でゴミが発生していないことを確認する回帰テストに使用します。
+ * 
+ * @see VGHeadlessRunner
+ */
+public final class VGAllocationProbe
+{
+	/**
+	 * 計測する<code>VGHeadlessRunner</code>
+	 */
+	private VGHeadlessRunner m_runner;
+	/**
+	 * 割り当て量を取得する<code>ThreadMXBean</code>
+	 */
+	private com.sun.management.ThreadMXBean m_mxbean;
+
+	/**
+	 * 計測したフレーム数
+	 */
+	private int m_frames;
+	/**
+	 * 割り当てたバイト数の合計
+	 */
+	private long m_total;
+	/**
+	 * 1フレームで割り当てたバイト数の最大値
+	 */
+	private long m_max;
+	/**
+	 * 割り当てたバイト数が最大だったフレームの番号
+	 */
+	private int m_max_frame = -1;
+
+	/**
+	 * 新しい<code>VGAllocationProbe</code>オブジェクトを構築します。
+	 * 
+	 * @param runner
+	 *            - 計測する<code>VGHeadlessRunner</code>
+	 * @throws UnsupportedOperationException
+	 *            - 実行環境がスレッドごとの割り当て量の計測に対応していない場合
+	 */
+	public VGAllocationProbe(VGHeadlessRunner runner)
+	{
+		ThreadMXBean mxbean = ManagementFactory.getThreadMXBean();
+		if (!(mxbean instanceof com.sun.management.ThreadMXBean)) {
+			throw new UnsupportedOperationException("ThreadMXBean.getThreadAllocatedBytes");
+		}
+		m_mxbean = (com.sun.management.ThreadMXBean)mxbean;
+		if (!m_mxbean.isThreadAllocatedMemorySupported()) {
+			throw new UnsupportedOperationException("ThreadMXBean.getThreadAllocatedBytes");
+		}
+		if (!m_mxbean.isThreadAllocatedMemoryEnabled()) {
+			m_mxbean.setThreadAllocatedMemoryEnabled(true);
+		}
+		m_runner = runner;
+	}
+
+	//----------------------------------------------------------
+	//  計測
+	//----------------------------------------------------------
+
+	/**
+	 * フレームを実行して割り当て量を計測します。<br>
+	 * JITコンパイルや遅延初期化の影響を除くため、計測の前に指定されたフレーム数だけ実行します。
+	 * 
+	 * @param warmup
+	 *            - 計測の前に実行するフレーム数
+	 * @param frames
+	 *            - 計測するフレーム数
+	 */
+	public void measure(int warmup, int frames)
+	{
+		m_runner.runUnthrottled(warmup);
+
+		long id = Thread.currentThread().getId();
+		// 割り当て量の取得そのものにかかる割り当てを差し引く
+		long overhead = Long.MAX_VALUE;
+		for (int i=0; i < 16; ++i) {
+			long before = m_mxbean.getThreadAllocatedBytes(id);
+			long after = m_mxbean.getThreadAllocatedBytes(id);
+			overhead = Math.min(overhead, after - before);
+		}
+
+		m_frames = 0;
+		m_total = 0;
+		m_max = 0;
+		m_max_frame = -1;
+		for (int i=0; i < frames; ++i) {
+			long before = m_mxbean.getThreadAllocatedBytes(id);
+			m_runner.runUnthrottled(1);
+			long bytes = m_mxbean.getThreadAllocatedBytes(id) - before - overhead;
+			if (bytes < 0) bytes = 0;
+			m_total += bytes;
+			if (bytes > m_max) {
+				m_max = bytes;
+				m_max_frame = i;
+			}
+			m_frames ++;
+		}
+	}
+
+	/**
+	 * 1フレームで割り当てたバイト数が許容量を超えていないことを確認します。
+	 * 
+	 * @param allowance
+	 *            - 1フレームで割り当てを許容するバイト数
+	 * @throws AssertionError
+	 *            - 許容量を超えて割り当てたフレームがあった場合
+	 */
+	public void assertAllocationFree(long allowance)
+	{
+		if (m_max > allowance) {
+			throw new AssertionError("frame " + m_max_frame + " allocated " + m_max + " bytes (allowance " + allowance + ")");
+		}
+	}
+
+	/**
+	 * 1フレームも割り当てを行っていないことを確認します。
+	 * 
+	 * @throws AssertionError
+	 *            - 割り当てを行ったフレームがあった場合
+	 */
+	public void assertAllocationFree()
+	{
+		assertAllocationFree(0);
+	}
+
+	//----------------------------------------------------------
+	//  結果
+	//----------------------------------------------------------
+
+	/**
+	 * 計測したフレーム数を返します。
+	 * 
+	 * @return 計測したフレーム数
+	 */
+	public int getFrameCount()
+	{
+		return m_frames;
+	}
+
+	/**
+	 * 計測したフレームで割り当てたバイト数の合計を返します。
+	 * 
+	 * @return 割り当てたバイト数の合計
+	 */
+	public long getTotalBytes()
+	{
+		return m_total;
+	}
+
+	/**
+	 * 1フレームあたりの平均の割り当てバイト数を返します。
+	 * 
+	 * @return 平均の割り当てバイト数
+	 */
+	public double getAverageBytes()
+	{
+		return m_frames == 0 ? 0 : (double)m_total / m_frames;
+	}
+
+	/**
+	 * 1フレームで割り当てたバイト数の最大値を返します。
+	 * 
+	 * @return 割り当てたバイト数の最大値
+	 */
+	public long getMaxBytes()
+	{
+		return m_max;
+	}
+
+	/**
+	 * 割り当てたバイト数が最大だったフレームの番号を返します。
+	 * 
+	 * @return フレームの番号。割り当てがなかったときは-1
+	 */
+	public int getMaxFrame()
+	{
+		return m_max_frame;
+	}
+}
@@ -0,0 +1,653 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * 読み込んだ画像と音声をリソースの名前ごとに共有するキャッシュです。<br>
+ * <br>
+ * 同じ名前で何度読み込んでも、キャッシュに残っている間は同じイメージや音声データが返されます。
+ * イメージはリソースの名前に加えて、読み込んだ<code>VGAssetLoader</code>のクラスローダーと変換先の
+ * <code>GraphicsConfiguration</code>ごとに区別されるため、別の画面に表示するコンポーネントには
+ * その画面と互換性のあるイメージが返されます。<br>
+ * 資源ごとの使用メモリを見積もり、合計が上限を超えると最も長く使われていないものから破棄します。
+ * 固定(pin)した資源は破棄されません。<br>
+ * 返されたイメージは共有されるため、描画先として書き換えないでください。
+ *
+ * @see VGCanvas#getResourceImage(String)
+ * @see VGAudioClip
+ */
+public final class VGAssetCache
+{
+	/**
+	 * 使用メモリの上限の初期値(64MB)
+	 */
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/**
+	 * 共有のキャッシュ
+	 */
+	private static final VGAssetCache s_shared = new VGAssetCache(DEFAULT_BUDGET);
+
+	/**
+	 * 資源を区別するキー
+	 */
+	private static final class Key
+	{
+		/**
+		 * リソースの名前
+		 */
+		final String name;
+		/**
+		 * リソースを検索したクラスローダー
+		 */
+		final ClassLoader loader;
+		/**
+		 * イメージの変換先(音声や変換しないイメージでは<code>null</code>)
+		 */
+		final GraphicsConfiguration config;
+
+		Key(String name, ClassLoader loader, GraphicsConfiguration config)
+		{
+			this.name   = name;
+			this.loader = loader;
+			this.config = config;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key)) return false;
+			Key key = (Key)obj;
+			return name.equals(key.name) && loader == key.loader
+					&& (config == null ? key.config == null : config.equals(key.config));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = name.hashCode() * 31 + System.identityHashCode(loader);
+			return config == null ? hash : hash * 31 + config.hashCode();
+		}
+	}
+
+	/**
+	 * キャッシュした資源
+	 */
+	private static final class Entry
+	{
+		/**
+		 * 資源(<code>Image</code>か<code>Sample</code>)
+		 */
+		final Object asset;
+		/**
+		 * 使用メモリの見積もり(バイト)
+		 */
+		final long size;
+		/**
+		 * 固定された回数
+		 */
+		int pins;
+
+		Entry(Object asset, long size)
+		{
+			this.asset = asset;
+			this.size  = size;
+		}
+	}
+
+	/**
+	 * デコードした音声データです。
+	 */
+	static final class Sample
+	{
+		/**
+		 * 音声データの形式
+		 */
+		final AudioFormat format;
+		/**
+		 * 音声データ
+		 */
+		final byte[] data;
+
+		Sample(AudioFormat format, byte[] data)
+		{
+			this.format = format;
+			this.data   = data;
+		}
+	}
+
+	/**
+	 * キーから資源への表(最も長く使われていないものが先頭)
+	 */
+	private final LinkedHashMap<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	/**
+	 * 使用メモリの上限(バイト)
+	 */
+	private long m_budget;
+	/**
+	 * 使用メモリの合計(バイト)
+	 */
+	private long m_used;
+	/**
+	 * キャッシュに見付かった回数
+	 */
+	private long m_hits;
+	/**
+	 * キャッシュに見付からずに読み込んだ回数
+	 */
+	private long m_misses;
+	/**
+	 * 上限を超えて破棄した回数
+	 */
+	private long m_evictions;
+	/**
+	 * 画像の読み込みを指定されなかったときに使う<code>VGAssetLoader</code>
+	 */
+	private VGAssetLoader m_loader;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGAssetCache</code>オブジェクトを構築します。
+	 *
+	 * @param budget
+	 *            - 使用メモリの上限(バイト)
+	 */
+	public VGAssetCache(long budget)
+	{
+		setBudget(budget);
+	}
+
+	/**
+	 * 共有のキャッシュを返します。<br>
+	 * <code>VGCanvas.getResourceImage</code>と<code>VGAudioClip</code>はこのキャッシュを使います。
+	 *
+	 * @return 共有のキャッシュ
+	 */
+	public static VGAssetCache getShared()
+	{
+		return s_shared;
+	}
+
+	//----------------------------------------------------------
+	//  設定
+	//----------------------------------------------------------
+
+	/**
+	 * 使用メモリの上限を設定します。<br>
+	 * 上限を超えているときは固定されていない資源を破棄します。
+	 *
+	 * @param budget
+	 *            - 使用メモリの上限(バイト)
+	 */
+	public synchronized void setBudget(long budget)
+	{
+		if (budget < 0) {
+			throw new IllegalArgumentException("budget: " + budget);
+		}
+		m_budget = budget;
+		evict();
+	}
+
+	/**
+	 * 使用メモリの上限を返します。
+	 *
+	 * @return 使用メモリの上限(バイト)
+	 */
+	public synchronized long getBudget()
+	{
+		return m_budget;
+	}
+
+	//----------------------------------------------------------
+	//  読み込み
+	//----------------------------------------------------------
+
+	/**
+	 * 画像リソースのイメージを返します。<br>
+	 * キャッシュにないときはこのクラスのクラスローダーでリソースを検索し、既定の画面の形式に変換して読み込みます。
+	 * <code>VGCanvas.getResourceImage</code>とはクラスローダーや変換先が異なることがあるため、
+	 * 同じ名前でも別のイメージとしてキャッシュされます。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @return イメージ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 */
+	public Image getImage(String name) throws IOException
+	{
+		VGAssetLoader loader;
+		synchronized (this) {
+			if (m_loader == null) {
+				m_loader = new VGAssetLoader(VGAssetCache.class.getClassLoader());
+			}
+			loader = m_loader;
+		}
+		return getImage(name, loader);
+	}
+
+	/**
+	 * 画像リソースのイメージを返します。<br>
+	 * キャッシュにないときは指定された<code>VGAssetLoader</code>で読み込みます。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @param loader
+	 *            - 読み込みに使う<code>VGAssetLoader</code>
+	 * @return イメージ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 */
+	public Image getImage(String name, VGAssetLoader loader) throws IOException
+	{
+		return getImage(name, loader, false);
+	}
+
+	/**
+	 * 画像リソースのイメージを返し、そのイメージを固定します。<br>
+	 * 読み込みと固定を同時に行うため、読み込んでから固定するまでの間に破棄されることはありません。
+	 * 固定を解除するときは<code>unpinImage</code>を呼び出します。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @param loader
+	 *            - 読み込みに使う<code>VGAssetLoader</code>
+	 * @return イメージ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 */
+	public Image pinImage(String name, VGAssetLoader loader) throws IOException
+	{
+		return getImage(name, loader, true);
+	}
+
+	/**
+	 * 画像リソースのイメージを返します。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @param loader
+	 *            - 読み込みに使う<code>VGAssetLoader</code>
+	 * @param pin
+	 *            - 返すイメージを固定するときはtrue
+	 * @return イメージ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 */
+	private Image getImage(String name, VGAssetLoader loader, boolean pin) throws IOException
+	{
+		Key key = new Key(name, loader.getClassLoader(), loader.getGraphicsConfiguration());
+		Object asset = lookup(key, pin);
+		if (asset == null) {
+			BufferedImage image = loader.loadImage(name);
+			asset = store(key, image, getImageSize(image), pin);
+		}
+		return (Image)asset;
+	}
+
+	/**
+	 * 音声リソースをデコードした音声データを返します。<br>
+	 * キャッシュにないときはこのクラスのクラスローダーでリソースを検索して読み込みます。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 * @return 音声データ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 * @throws UnsupportedAudioFileException
+	 *            - 対応していない形式のとき
+	 */
+	Sample getSample(String name) throws IOException, UnsupportedAudioFileException
+	{
+		return getSample(name, false);
+	}
+
+	/**
+	 * 音声リソースを読み込んでキャッシュに追加し、固定します。<br>
+	 * 読み込みと固定を同時に行うため、読み込んでから固定するまでの間に破棄されることはありません。
+	 * 固定を解除するときは<code>unpinAudio</code>を呼び出します。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 * @throws UnsupportedAudioFileException
+	 *            - 対応していない形式のとき
+	 */
+	public void pinAudio(String name) throws IOException, UnsupportedAudioFileException
+	{
+		getSample(name, true);
+	}
+
+	/**
+	 * 音声リソースをデコードした音声データを返します。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 * @param pin
+	 *            - 返す音声データを固定するときはtrue
+	 * @return 音声データ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 * @throws UnsupportedAudioFileException
+	 *            - 対応していない形式のとき
+	 */
+	private Sample getSample(String name, boolean pin) throws IOException, UnsupportedAudioFileException
+	{
+		Key key = getSampleKey(name);
+		Object asset = lookup(key, pin);
+		if (asset == null) {
+			Sample sample = loadSample(name);
+			asset = store(key, sample, sample.data.length, pin);
+		}
+		return (Sample)asset;
+	}
+
+	/**
+	 * 音声データのキーを返します。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 * @return キー
+	 */
+	private static Key getSampleKey(String name)
+	{
+		return new Key(name, VGAssetCache.class.getClassLoader(), null);
+	}
+
+	/**
+	 * 音声リソースを読み込んでデコードします。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 * @return 音声データ
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 * @throws UnsupportedAudioFileException
+	 *            - 対応していない形式のとき
+	 */
+	private static Sample loadSample(String name) throws IOException, UnsupportedAudioFileException
+	{
+		URL url = VGAssetCache.class.getClassLoader().getResource(name);
+		if (url == null) {
+			throw new IOException(name + ": resource not found");
+		}
+		InputStream in = url.openStream();
+		try {
+			AudioInputStream ais = AudioSystem.getAudioInputStream(new BufferedInputStream(in));
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = ais.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+				return new Sample(ais.getFormat(), out.toByteArray());
+			}
+			finally {
+				ais.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * キャッシュから資源を探します。
+	 *
+	 * @param key
+	 *            - 資源のキー
+	 * @param pin
+	 *            - 見付かった資源を固定するときはtrue
+	 * @return 資源(見付からなかったときは<code>null</code>)
+	 */
+	private synchronized Object lookup(Key key, boolean pin)
+	{
+		Entry entry = m_entries.get(key);
+		if (entry == null) {
+			++m_misses;
+			return null;
+		}
+		++m_hits;
+		if (pin) ++entry.pins;
+		return entry.asset;
+	}
+
+	/**
+	 * 読み込んだ資源をキャッシュに追加します。<br>
+	 * 読み込んでいる間に別のスレッドが同じ名前の資源を追加していたときは、そちらを返します。
+	 *
+	 * @param key
+	 *            - 資源のキー
+	 * @param asset
+	 *            - 資源
+	 * @param size
+	 *            - 使用メモリの見積もり(バイト)
+	 * @param pin
+	 *            - 資源を固定するときはtrue(破棄する前に固定する)
+	 * @return キャッシュにある資源
+	 */
+	private synchronized Object store(Key key, Object asset, long size, boolean pin)
+	{
+		Entry entry = m_entries.get(key);
+		if (entry == null) {
+			entry = new Entry(asset, size);
+			m_entries.put(key, entry);
+			m_used += size;
+		}
+		if (pin) ++entry.pins;
+		evict();
+		return entry.asset;
+	}
+
+	/**
+	 * 使用メモリが上限以下になるまで、最も長く使われていない固定されていない資源を破棄します。
+	 */
+	private void evict()
+	{
+		Iterator<Map.Entry<Key, Entry>> it = m_entries.entrySet().iterator();
+		while (m_used > m_budget && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (entry.pins > 0) continue;
+			it.remove();
+			m_used -= entry.size;
+			++m_evictions;
+		}
+	}
+
+	/**
+	 * イメージの使用メモリを見積もります。
+	 *
+	 * @param image
+	 *            - イメージ
+	 * @return 画素データのバイト数
+	 */
+	private static long getImageSize(BufferedImage image)
+	{
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	//----------------------------------------------------------
+	//  固定
+	//----------------------------------------------------------
+
+	/**
+	 * キャッシュにある資源を固定し、上限を超えても破棄されないようにします。<br>
+	 * 同じ名前で別の<code>GraphicsConfiguration</code>などに読み込んだ資源があるときは、そのすべてを固定します。
+	 * 固定した回数だけ<code>unpin</code>を呼ぶと固定が解除されます。
+	 * キャッシュにない資源は固定できないため、読み込みと同時に固定するときは
+	 * <code>pinImage</code>か<code>pinAudio</code>を使います。
+	 *
+	 * @param name
+	 *            - リソースの名前
+	 * @return 資源がキャッシュにあって固定したときは<code>true</code>
+	 */
+	public synchronized boolean pin(String name)
+	{
+		boolean found = false;
+		for (Map.Entry<Key, Entry> e : m_entries.entrySet()) {
+			if (e.getKey().name.equals(name)) {
+				++e.getValue().pins;
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 資源の固定を1回分解除します。<br>
+	 * 同じ名前で固定されている資源があるときは、そのすべての固定を1回分解除します。
+	 * 固定がすべて解除されて上限を超えているときは破棄されることがあります。
+	 *
+	 * @param name
+	 *            - リソースの名前
+	 */
+	public synchronized void unpin(String name)
+	{
+		for (Map.Entry<Key, Entry> e : m_entries.entrySet()) {
+			Entry entry = e.getValue();
+			if (e.getKey().name.equals(name) && entry.pins > 0) {
+				--entry.pins;
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * <code>pinImage</code>で固定したイメージの固定を1回分解除します。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @param loader
+	 *            - 固定したときに使った<code>VGAssetLoader</code>
+	 */
+	public void unpinImage(String name, VGAssetLoader loader)
+	{
+		unpin(new Key(name, loader.getClassLoader(), loader.getGraphicsConfiguration()));
+	}
+
+	/**
+	 * <code>pinAudio</code>で固定した音声データの固定を1回分解除します。
+	 *
+	 * @param name
+	 *            - 音声リソースの名前
+	 */
+	public void unpinAudio(String name)
+	{
+		unpin(getSampleKey(name));
+	}
+
+	/**
+	 * 資源の固定を1回分解除します。
+	 *
+	 * @param key
+	 *            - 資源のキー
+	 */
+	private synchronized void unpin(Key key)
+	{
+		Entry entry = m_entries.get(key);
+		if (entry == null || entry.pins == 0) return;
+		if (--entry.pins == 0) {
+			evict();
+		}
+	}
+
+	/**
+	 * 固定されていない資源をすべて破棄します。
+	 */
+	public synchronized void clear()
+	{
+		Iterator<Entry> it = m_entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.pins > 0) continue;
+			it.remove();
+			m_used -= entry.size;
+		}
+	}
+
+	//----------------------------------------------------------
+	//  統計
+	//----------------------------------------------------------
+
+	/**
+	 * 使用メモリの合計を返します。
+	 *
+	 * @return 使用メモリの見積もり(バイト)
+	 */
+	public synchronized long getMemoryUsage()
+	{
+		return m_used;
+	}
+
+	/**
+	 * キャッシュにある資源の数を返します。
+	 *
+	 * @return 資源の数
+	 */
+	public synchronized int getAssetCount()
+	{
+		return m_entries.size();
+	}
+
+	/**
+	 * キャッシュに見付かった回数を返します。
+	 *
+	 * @return ヒット数
+	 */
+	public synchronized long getHitCount()
+	{
+		return m_hits;
+	}
+
+	/**
+	 * キャッシュに見付からずに読み込んだ回数を返します。
+	 *
+	 * @return ミス数
+	 */
+	public synchronized long getMissCount()
+	{
+		return m_misses;
+	}
+
+	/**
+	 * 上限を超えて破棄した回数を返します。
+	 *
+	 * @return 破棄した数
+	 */
+	public synchronized long getEvictionCount()
+	{
+		return m_evictions;
+	}
+
+	/**
+	 * ヒット数、ミス数、破棄した数を0に戻します。
+	 */
+	public synchronized void resetStatistics()
+	{
+		m_hits = 0;
+		m_misses = 0;
+		m_evictions = 0;
+	}
+}
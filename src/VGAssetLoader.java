@@ -0,0 +1,342 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * 画像リソースを読み込み、表示先と互換性のある形式に変換します。<br>
+ * <br>
+ * <code>Toolkit.getImage</code>と異なり、返されたイメージはすべての画素が読み込まれています。
+ * 複数のリソースはスレッドプールで並列に読み込むことができます。
+ * 読み込んだ画像は<code>GraphicsConfiguration.createCompatibleImage</code>で作成したイメージに変換され、
+ * 透明度は画素のアルファ値から<code>OPAQUE</code>、<code>BITMASK</code>、<code>TRANSLUCENT</code>のいずれかが選ばれます。
+ * 画面のない環境では変換せずに読み込んだままのイメージを返します。
+ *
+ * @see VGCanvas#getResourceImage(String)
+ */
+public class VGAssetLoader
+{
+	/**
+	 * <code>ImageIO</code>に画像の形式を読み込めるリーダーがないことを示す例外です。<br>
+	 * リソースが見付からないときや、データが壊れているときには投げられません。
+	 */
+	@SuppressWarnings("serial")
+	public static class UnsupportedFormatException extends IOException
+	{
+		/**
+		 * 新しい<code>UnsupportedFormatException</code>オブジェクトを構築します。
+		 * 
+		 * @param message
+		 *            - 詳細メッセージ
+		 */
+		public UnsupportedFormatException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * リソースを検索するクラスローダー
+	 */
+	private ClassLoader m_class_loader;
+	/**
+	 * 読み込みに使うスレッドプール
+	 */
+	private ExecutorService m_executor;
+	/**
+	 * 変換先の<code>GraphicsConfiguration</code>(変換しないときは<code>null</code>)
+	 */
+	private GraphicsConfiguration m_config;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGAssetLoader</code>オブジェクトを構築します。<br>
+	 * プロセッサの数だけのデーモンスレッドで読み込み、既定の画面の形式に変換します。
+	 *
+	 * @param loader
+	 *            - リソースを検索するクラスローダー
+	 */
+	public VGAssetLoader(ClassLoader loader)
+	{
+		this(loader, createDefaultExecutor(), getDefaultConfiguration());
+	}
+
+	/**
+	 * 新しい<code>VGAssetLoader</code>オブジェクトを構築します。<br>
+	 * プロセッサの数だけのデーモンスレッドで読み込みます。
+	 *
+	 * @param loader
+	 *            - リソースを検索するクラスローダー
+	 * @param config
+	 *            - 変換先の<code>GraphicsConfiguration</code>。<code>null</code>のときは変換しない
+	 */
+	public VGAssetLoader(ClassLoader loader, GraphicsConfiguration config)
+	{
+		this(loader, createDefaultExecutor(), config);
+	}
+
+	/**
+	 * 新しい<code>VGAssetLoader</code>オブジェクトを構築します。
+	 *
+	 * @param loader
+	 *            - リソースを検索するクラスローダー
+	 * @param executor
+	 *            - 読み込みに使うスレッドプール
+	 * @param config
+	 *            - 変換先の<code>GraphicsConfiguration</code>。<code>null</code>のときは変換しない
+	 */
+	public VGAssetLoader(ClassLoader loader, ExecutorService executor, GraphicsConfiguration config)
+	{
+		m_class_loader = loader;
+		m_executor = executor;
+		m_config = config;
+	}
+
+	/**
+	 * 既定のスレッドプールを作成します。
+	 *
+	 * @return プロセッサの数だけのデーモンスレッドを持つスレッドプール
+	 */
+	private static ExecutorService createDefaultExecutor()
+	{
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "VGAssetLoader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 既定の画面の<code>GraphicsConfiguration</code>を返します。
+	 *
+	 * @return 既定の画面の<code>GraphicsConfiguration</code>。画面のない環境では<code>null</code>
+	 */
+	static GraphicsConfiguration getDefaultConfiguration()
+	{
+		if (GraphicsEnvironment.isHeadless()) return null;
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	}
+
+	/**
+	 * リソースを検索するクラスローダーを返します。
+	 * 
+	 * @return クラスローダー
+	 */
+	public ClassLoader getClassLoader()
+	{
+		return m_class_loader;
+	}
+
+	/**
+	 * 変換先の<code>GraphicsConfiguration</code>を返します。
+	 * 
+	 * @return 変換先の<code>GraphicsConfiguration</code>。変換しないときは<code>null</code>
+	 */
+	public GraphicsConfiguration getGraphicsConfiguration()
+	{
+		return m_config;
+	}
+
+	//----------------------------------------------------------
+	//  読み込み
+	//----------------------------------------------------------
+
+	/**
+	 * 画像リソースを呼び出したスレッドで読み込みます。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @return 読み込んで変換したイメージ
+	 * @throws UnsupportedFormatException
+	 *            - 画像の形式を読み込めるリーダーがないとき
+	 * @throws IOException
+	 *            - リソースが見付からないとき、または読み込みに失敗したとき
+	 */
+	public BufferedImage loadImage(String name) throws IOException
+	{
+		URL url = m_class_loader.getResource(name);
+		if (url == null) {
+			throw new IOException(name + ": resource not found");
+		}
+		BufferedImage image;
+		InputStream in = url.openStream();
+		try {
+			image = ImageIO.read(new MemoryCacheImageInputStream(new BufferedInputStream(in)));
+		}
+		finally {
+			in.close();
+		}
+		if (image == null) {
+			throw new UnsupportedFormatException(name + ": unsupported image format");
+		}
+		return toCompatibleImage(image, m_config);
+	}
+
+	/**
+	 * 画像リソースをスレッドプールで読み込み始めます。
+	 *
+	 * @param name
+	 *            - 画像リソースの名前
+	 * @return 読み込みが終わると完了する<code>Future</code>
+	 */
+	public Future<BufferedImage> loadImageAsync(final String name)
+	{
+		return m_executor.submit(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws IOException
+			{
+				return loadImage(name);
+			}
+		});
+	}
+
+	/**
+	 * 複数の画像リソースをスレッドプールで並列に読み込み、すべて読み込み終わるまで待ちます。
+	 *
+	 * @param names
+	 *            - 画像リソースの名前
+	 * @return 読み込んで変換したイメージの配列(<code>names</code>と同じ順)
+	 * @throws IOException
+	 *            - いずれかの読み込みに失敗したとき、または待っている間に割り込まれたとき
+	 */
+	public BufferedImage[] loadAll(String... names) throws IOException
+	{
+		List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(names.length);
+		for (String name : names) {
+			futures.add(loadImageAsync(name));
+		}
+		BufferedImage[] images = new BufferedImage[names.length];
+		try {
+			for (int i=0; i < names.length; ++i) {
+				images[i] = futures.get(i).get();
+			}
+		}
+		catch (InterruptedException e) {
+			cancelAll(futures);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while loading images");
+		}
+		catch (ExecutionException e) {
+			cancelAll(futures);
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error) throw (Error)cause;
+			throw new IOException(cause);
+		}
+		return images;
+	}
+
+	/**
+	 * 読み込み中の処理をすべて取り消します。
+	 *
+	 * @param futures
+	 *            - 読み込みの<code>Future</code>
+	 */
+	private static void cancelAll(List<? extends Future<?>> futures)
+	{
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * スレッドプールを終了します。<br>
+	 * 以後は<code>loadImage</code>だけが使えます。
+	 */
+	public void shutdown()
+	{
+		m_executor.shutdown();
+	}
+
+	//----------------------------------------------------------
+	//  変換
+	//----------------------------------------------------------
+
+	/**
+	 * イメージを表示先と互換性のある形式に変換します。<br>
+	 * すでに互換性のある形式のときや<code>config</code>が<code>null</code>のときはそのまま返します。
+	 *
+	 * @param image
+	 *            - 変換するイメージ
+	 * @param config
+	 *            - 変換先の<code>GraphicsConfiguration</code>
+	 * @return 変換したイメージ
+	 */
+	public static BufferedImage toCompatibleImage(BufferedImage image, GraphicsConfiguration config)
+	{
+		if (config == null) return image;
+		int transparency = getTransparency(image);
+		if (image.getColorModel().equals(config.getColorModel(transparency))) return image;
+
+		BufferedImage compatible = config.createCompatibleImage(image.getWidth(), image.getHeight(), transparency);
+		Graphics2D g = compatible.createGraphics();
+		try {
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(image, 0, 0, null);
+		}
+		finally {
+			g.dispose();
+		}
+		return compatible;
+	}
+
+	/**
+	 * 画素のアルファ値からイメージの透明度を調べます。<br>
+	 * アルファ値が0か255だけのときは<code>BITMASK</code>になります。
+	 *
+	 * @param image
+	 *            - 調べるイメージ
+	 * @return <code>OPAQUE</code>、<code>BITMASK</code>、<code>TRANSLUCENT</code>のいずれか
+	 */
+	private static int getTransparency(BufferedImage image)
+	{
+		int transparency = image.getColorModel().getTransparency();
+		if (transparency != Transparency.TRANSLUCENT) return transparency;
+
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] row = new int[w];
+		boolean transparent = false;
+		for (int y=0; y < h; ++y) {
+			image.getRGB(0, y, w, 1, row, 0, w);
+			for (int x=0; x < w; ++x) {
+				int a = row[x] >>> 24;
+				if (a == 0) {
+					transparent = true;
+				}
+				else if (a != 0xff) {
+					return Transparency.TRANSLUCENT;
+				}
+			}
+		}
+		return transparent ? Transparency.BITMASK : Transparency.OPAQUE;
+	}
+}
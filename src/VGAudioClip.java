@@ -1,11 +1,7 @@
 package com.github.isle_shimakura.videogame;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.DataLine;
@@ -23,19 +19,20 @@ public class VGAudioClip
 	 */
 	private Clip clip;
 	
+	/**
+	 * 音声リソースを再生するクリップを作成します。<br>
+	 * デコードした音声データは<code>VGAssetCache.getShared()</code>で共有されます。
+	 * 
+	 * @param name
+	 *            - 音声リソースの名前
+	 */
 	public VGAudioClip(String name)
 	{
-		InputStream is = null;
-		BufferedInputStream bis = null;
-		AudioInputStream ais = null;
 		try {
-			is = getClass().getClassLoader().getResource(name).openStream();
-			bis = new BufferedInputStream(is);
-			ais = AudioSystem.getAudioInputStream(bis);
-			AudioFormat fmt = ais.getFormat();
-			DataLine.Info info = new DataLine.Info(Clip.class, fmt);
+			VGAssetCache.Sample sample = VGAssetCache.getShared().getSample(name);
+			DataLine.Info info = new DataLine.Info(Clip.class, sample.format);
 			clip = (Clip)AudioSystem.getLine(info);
-			clip.open(ais);
+			clip.open(sample.format, sample.data, 0, sample.data.length);
 		} catch (UnsupportedAudioFileException e) {
 		    e.printStackTrace();
 		} catch (LineUnavailableException e) {
@@ -43,27 +40,6 @@ public class VGAudioClip
 		} catch (IOException e) {
 		    e.printStackTrace();
 		}
-		if (ais != null) {
-			try {
-				ais.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		if (bis != null) {
-			try {
-				bis.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		if (is != null) {
-			try {
-				is.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
 	}
 	
 	public void play()
@@ -1,13 +1,20 @@
 package com.github.isle_shimakura.videogame;
 
 import java.awt.Canvas;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.image.BufferStrategy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 
 /**
  * ビデオゲームに必要な機能をまとめたコンポーネントです。
@@ -28,6 +35,10 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	 * 描画に使用する<code>BufferStrategy</code>
 	 */
 	private BufferStrategy m_bufferStrategy;
+	/**
+	 * <code>BufferStrategy</code>のバッファ数
+	 */
+	private int m_buffers;
 
 	/**
 	 * ビデオゲームフレームの更新のために呼び出されます。
@@ -45,6 +56,39 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	 */
 	protected abstract void frameRender(Graphics g);
 
+	/**
+	 * 補間係数を指定してビデオゲームフレームの描画のために呼び出されます。<br>
+	 * <br>
+	 * 補間係数は直前の更新から次の更新までの経過割合(0.0以上1.0未満)です。<br>
+	 * <code>LOOP_VSYNC</code>では常に1.0が渡されます。<br>
+	 * デフォルトの実装は<code>frameRender(Graphics)</code>を呼び出します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param alpha
+	 *            - 補間係数
+	 * @see #setLoopMode
+	 */
+	protected void frameRender(Graphics g, float alpha)
+	{
+		frameRender(g);
+	}
+
+	/**
+	 * 更新した状態を描画に引き渡すために呼び出されます。<br>
+	 * <br>
+	 * すべてのループモードで<code>frameUpdate</code>の後、次の<code>frameRender</code>の前に呼び出されます。<br>
+	 * <code>LOOP_PIPELINED</code>では更新スレッドと描画スレッドの両方が停止している間に呼び出されるため、
+	 * <code>VGDoubleBuffer.swap</code>などで状態を安全に交換することができます。<br>
+	 * デフォルトの実装は何もしません。
+	 * 
+	 * @see #setLoopMode
+	 * @see VGDoubleBuffer
+	 */
+	protected void framePublish()
+	{
+	}
+
 	//-----------------------------------------------------------
 	//  フレームレートの制御
 	//-----------------------------------------------------------
@@ -65,8 +109,9 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	void start()
 	{
 		if (m_bufferStrategy == null) {
-			createBufferStrategy(2);
+			createBufferStrategy(m_buffers);
 			m_bufferStrategy = getBufferStrategy();
+			buffersRestored();
 		}
 		if (m_thread == null) {
 			m_thread = new Thread(this);
@@ -91,6 +136,69 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 		}
 	}
 
+	//-----------------------------------------------------------
+	//  ループモード
+	//-----------------------------------------------------------
+
+	/**
+	 * 更新と描画を1対1で交互に行い、VSYNCをシミュレートするループモード
+	 * @see #setLoopMode
+	 */
+	public static final int LOOP_VSYNC = 0;
+	/**
+	 * 固定間隔で更新し、描画は画面のリフレッシュレートを上限に補間係数付きで行うループモード
+	 * @see #setLoopMode
+	 * @see #frameRender(Graphics, float)
+	 */
+	public static final int LOOP_FIXED_STEP = 1;
+	/**
+	 * 更新と描画を別々のスレッドで並行して行うループモード<br>
+	 * フレームN+1の<code>frameUpdate</code>とフレームNの<code>frameRender</code>が同時に呼び出されます。
+	 * @see #setLoopMode
+	 * @see #framePublish
+	 */
+	public static final int LOOP_PIPELINED = 2;
+
+	/**
+	 * 処理が追いつかないときに連続してスキップするフレーム数の上限
+	 */
+	private static final int MAX_SKIP_FRAMES = 8;
+
+	/**
+	 * ループモード
+	 */
+	private volatile int m_loop_mode = LOOP_VSYNC;
+
+	/**
+	 * ループモードを設定します。<br>
+	 * 設定は次にコールバックを開始したときから有効になります。
+	 * 
+	 * @param mode
+	 *            - <code>LOOP_VSYNC</code>、<code>LOOP_FIXED_STEP</code>または<code>LOOP_PIPELINED</code>
+	 */
+	public final void setLoopMode(int mode)
+	{
+		switch (mode) {
+		case LOOP_VSYNC:
+		case LOOP_FIXED_STEP:
+		case LOOP_PIPELINED:
+			m_loop_mode = mode;
+			break;
+		default:
+			throw new IllegalArgumentException("mode: " + mode);
+		}
+	}
+
+	/**
+	 * ループモードを返します。
+	 * 
+	 * @return ループモード
+	 */
+	public final int getLoopMode()
+	{
+		return m_loop_mode;
+	}
+
 	//-----------------------------------------------------------
 	//  VSYNCのシミュレート
 	//-----------------------------------------------------------
@@ -107,6 +215,212 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	 * VSYNCタイミングをリセットするフラグ
 	 */
 	private boolean vsync_reset;
+	/**
+	 * 単位時間内で次に待機するフレームの番号
+	 */
+	private int vsync_frame_count;
+	/**
+	 * 単位時間の開始から直前のフレームまでの時間(ナノ秒)
+	 */
+	private long vsync_ticktime;
+	/**
+	 * 直前のフレームの完了時刻
+	 */
+	private long vsync_lasttime;
+	/**
+	 * スキップした描画フレーム数
+	 */
+	private int vsync_skipped;
+
+	/**
+	 * <code>BufferStrategy</code>のバッファ数を返します。
+	 * 
+	 * @return バッファ数
+	 */
+	public final int getBufferCount()
+	{
+		return m_buffers;
+	}
+
+	/**
+	 * 単位時間あたりのフレーム数を返します。
+	 * 
+	 * @return 単位時間あたりのフレーム数
+	 */
+	final int getVsyncFrames()
+	{
+		return vsync_frames;
+	}
+
+	/**
+	 * 単位時間(ミリ秒)を返します。
+	 * 
+	 * @return 単位時間(ミリ秒)
+	 */
+	final int getVsyncUnitms()
+	{
+		return vsync_unitms;
+	}
+
+	/**
+	 * フレームの完了タイミングまで待機する<code>VGFramePacer</code>
+	 */
+	private volatile VGFramePacer m_pacer = new VGSleepFramePacer();
+
+	/**
+	 * フレームの完了タイミングまで待機する方法を設定します。<br>
+	 * デフォルトは<code>VGSleepFramePacer</code>です。
+	 * 
+	 * @param pacer
+	 *            - 使用する<code>VGFramePacer</code>
+	 * @see VGHybridFramePacer
+	 */
+	public final void setFramePacer(VGFramePacer pacer)
+	{
+		if (pacer == null) {
+			throw new NullPointerException("pacer");
+		}
+		m_pacer = pacer;
+	}
+
+	/**
+	 * フレームの完了タイミングまで待機する<code>VGFramePacer</code>を返します。<br>
+	 * 返されたオブジェクトからペーシング誤差の統計を読み出すことができます。
+	 * 
+	 * @return 使用中の<code>VGFramePacer</code>
+	 */
+	public final VGFramePacer getFramePacer()
+	{
+		return m_pacer;
+	}
+
+	//-----------------------------------------------------------
+	//  計測
+	//-----------------------------------------------------------
+
+	/**
+	 * フレームごとの処理時間を記録する<code>VGFrameMetrics</code>
+	 */
+	private volatile VGFrameMetrics m_metrics;
+	/**
+	 * 統計のオーバーレイを描画するフラグ
+	 */
+	private volatile boolean m_metrics_overlay;
+
+	/**
+	 * フレームごとの処理時間を記録する<code>VGFrameMetrics</code>を設定します。
+	 * 
+	 * @param metrics
+	 *            - 記録する<code>VGFrameMetrics</code>。記録しないときは<code>null</code>
+	 */
+	public final void setFrameMetrics(VGFrameMetrics metrics)
+	{
+		m_metrics = metrics;
+	}
+
+	/**
+	 * フレームごとの処理時間を記録する<code>VGFrameMetrics</code>を返します。
+	 * 
+	 * @return 設定された<code>VGFrameMetrics</code>
+	 */
+	public final VGFrameMetrics getFrameMetrics()
+	{
+		return m_metrics;
+	}
+
+	/**
+	 * <code>frameRender</code>の後に統計のオーバーレイを描画するかどうかを設定します。<br>
+	 * <code>VGFrameMetrics</code>が設定されていないときは描画されません。
+	 * 
+	 * @param b
+	 *            - 描画するときはtrue
+	 */
+	public final void setMetricsOverlay(boolean b)
+	{
+		m_metrics_overlay = b;
+	}
+
+	/**
+	 * 入力をラッチしてフレームを更新します。
+	 * 
+	 * @param skipped
+	 *            - スキップした描画フレーム数
+	 */
+	void updateFrame(int skipped)
+	{
+		latchInput();
+		frameUpdate(skipped);
+	}
+
+	/**
+	 * フレームを描画し、必要であれば統計のオーバーレイを描画します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param metrics
+	 *            - 記録する<code>VGFrameMetrics</code>
+	 * @param alpha
+	 *            - 補間係数
+	 * @return 描画にかかった時間(ナノ秒)
+	 */
+	long renderFrame(Graphics g, VGFrameMetrics metrics, float alpha)
+	{
+		long t0 = System.nanoTime();
+		frameRender(g, alpha);
+		if (metrics != null && m_metrics_overlay) {
+			metrics.paintOverlay(g, 0, 0);
+		}
+		long elapsed = System.nanoTime() - t0;
+		if (metrics != null) metrics.add(VGFrameMetrics.PHASE_RENDER, elapsed);
+		return elapsed;
+	}
+
+	/**
+	 * <code>BufferStrategy</code>にフレームを描画します。
+	 * 
+	 * @param metrics
+	 *            - 記録する<code>VGFrameMetrics</code>
+	 * @param alpha
+	 *            - 補間係数
+	 * @return 描画にかかった時間(ナノ秒)
+	 */
+	private long renderFrame(VGFrameMetrics metrics, float alpha)
+	{
+		long elapsed = 0;
+		for (;;) {
+			Graphics g = m_bufferStrategy.getDrawGraphics();
+			elapsed += renderFrame(g, metrics, alpha);
+			g.dispose();
+			if (!m_bufferStrategy.contentsRestored()) break;
+			// 描画中に復元されたバッファは描き直す
+			buffersRestored();
+		}
+		return elapsed;
+	}
+
+	/**
+	 * <code>BufferStrategy</code>のバッファが作成されたとき、または内容が失われて復元されたときに呼び出されます。<br>
+	 * バッファに残した内容を再利用するサブクラスは、ここで描き直しを予約します。
+	 */
+	void buffersRestored()
+	{
+	}
+
+	/**
+	 * 描画したフレームを表示します。
+	 * 
+	 * @param metrics
+	 *            - 記録する<code>VGFrameMetrics</code>
+	 */
+	private void showFrame(VGFrameMetrics metrics)
+	{
+		long t0 = System.nanoTime();
+		if (!m_bufferStrategy.contentsLost()) {
+			toolkit.sync();
+			m_bufferStrategy.show();
+		}
+		if (metrics != null) metrics.add(VGFrameMetrics.PHASE_SHOW, System.nanoTime() - t0);
+	}
 
 	/**
 	 * 設定されたフレームレートで更新と描画をコールバックします。<br>
@@ -118,73 +432,503 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	@Override
 	public void run()
 	{
-		int frame_count = 1;
+		switch (m_loop_mode) {
+		case LOOP_FIXED_STEP:
+			runFixedStep();
+			break;
+		case LOOP_PIPELINED:
+			runPipelined();
+			break;
+		default:
+			runVsync();
+			break;
+		}
+	}
+
+	/**
+	 * VSYNCタイミングをリセットします。
+	 */
+	private void vsyncRestart()
+	{
+		vsync_frame_count = 1;
+		vsync_skipped = 0;
+		vsync_ticktime = 0;
+		vsync_lasttime = System.nanoTime();
+		vsync_reset = false;
+	}
+
+	/**
+	 * 垂直帰線期間まで待機し、描画したフレームを表示します。<br>
+	 * 間に合わなかったフレームは<code>vsync_skipped</code>に加算されます。
+	 * 
+	 * @param metrics
+	 *            - 記録する<code>VGFrameMetrics</code>
+	 * @param show
+	 *            - フレームを描画したときはtrue
+	 * @return 停止を要求されたときはfalse
+	 */
+	private boolean vsyncWait(VGFrameMetrics metrics, boolean show)
+	{
+		for (;;) {
+			if (m_stop) return false;
+
+			long disttime = (vsync_frame_count * vsync_unitms * 1000000L / vsync_frames) - vsync_ticktime;
+			vsync_frame_count = vsync_frame_count % vsync_frames;
+			vsync_ticktime = vsync_frame_count == 0 ? 0 : vsync_ticktime + disttime;
+			vsync_frame_count ++;
+
+			long passtime = System.nanoTime() - vsync_lasttime;
+			if (passtime < 0 || vsync_skipped >= MAX_SKIP_FRAMES) {
+				vsync_lasttime += passtime - disttime;
+				passtime = disttime;
+			}
+			if (passtime <= disttime) {
+				// 垂直帰線期間"突入の瞬間"を待つ
+				long t0 = System.nanoTime();
+				while (passtime < disttime) {
+					try {
+						m_pacer.pace(vsync_lasttime + disttime);
+					} catch (InterruptedException e) {
+					}
+					if (m_stop) return false;
+					passtime = System.nanoTime() - vsync_lasttime;
+					if (passtime < 0) {
+						vsync_lasttime += passtime - disttime;
+						passtime = disttime;
+					}
+				}
+				if (metrics != null) metrics.add(VGFrameMetrics.PHASE_WAIT, System.nanoTime() - t0);
+				vsync_lasttime += disttime;
+				if (m_stop) return false;
+
+				if (show) showFrame(metrics);
+				return true;
+			}
+			else {
+				// 垂直帰線期間を過ぎてしまった分を追いかける
+				vsync_skipped ++;
+				vsync_lasttime += disttime;
+			}
+		}
+	}
+
+	/**
+	 * 更新と描画を交互に行い、描画の完了を垂直帰線期間に合わせます。
+	 */
+	private void runVsync()
+	{
+		vsync_reset = true;
+
+		for (;;) {
+			if (m_stop) return;
+
+			VGFrameMetrics metrics = m_metrics;
+			if (vsync_reset) {
+				vsyncRestart();
+				if (metrics != null) metrics.restart();
+			}
+
+			long t0 = System.nanoTime();
+			updateFrame(vsync_skipped);
+			vsync_skipped = 0;
+			framePublish();
+			long update_time = System.nanoTime() - t0;
+			if (metrics != null) metrics.add(VGFrameMetrics.PHASE_UPDATE, update_time);
+
+			boolean render = isRenderFrame();
+			long render_time = render ? renderFrame(metrics, 1.0f) : 0;
+
+			if (!vsyncWait(metrics, render)) return;
+			if (metrics != null) metrics.commit(vsync_skipped);
+			adaptQuality(update_time + renderCost(render, render_time), vsync_skipped);
+		}
+	}
+
+	/**
+	 * 固定間隔で更新を行い、その間は補間係数付きで描画します。<br>
+	 * 描画が遅れても更新の間隔は変わらないため、シミュレーションの結果は描画速度に依存しません。
+	 * 描画の間隔は画面のリフレッシュレートを上限とし、描画しなかった回も次の描画の時刻まで待機します。
+	 */
+	private void runFixedStep()
+	{
+		// 端数の誤差が出ないよう時間はフレーム数倍して扱う
+		long steptime = vsync_unitms * 1000000L;
+		long maxlag = steptime * (MAX_SKIP_FRAMES + 1);
+		long lag = 0;
 		int skipped_count = 0;
-		long frame_ticktime = 0;
 		long lasttime = System.nanoTime();
+		long renderperiod = getRefreshPeriod();
+		long nextrender = lasttime;
 
 		vsync_reset = true;
 
 		for (;;) {
 			if (m_stop) return;
 
+			VGFrameMetrics metrics = m_metrics;
 			if (vsync_reset) {
-				frame_count = 1;
+				lag = 0;
 				skipped_count = 0;
-				frame_ticktime = 0;
 				lasttime = System.nanoTime();
+				renderperiod = getRefreshPeriod();
+				nextrender = lasttime;
 				vsync_reset = false;
+				if (metrics != null) metrics.restart();
 			}
 
-			frameUpdate(skipped_count);
-			skipped_count = 0;
+			long now = System.nanoTime();
+			long passtime = now - lasttime;
+			lasttime = now;
+			if (passtime > 0) {
+				lag += passtime * vsync_frames;
+			}
 
-			Graphics g = m_bufferStrategy.getDrawGraphics();
-			frameRender(g);
-			g.dispose();
+			// 追いつけない分の更新は切り捨ててスキップ数として通知する
+			int dropped = 0;
+			if (lag >= maxlag) {
+				dropped = (int)(lag / steptime) - MAX_SKIP_FRAMES;
+				skipped_count += dropped;
+				lag -= dropped * steptime;
+			}
 
-			for (;;) {
-				if (m_stop) return;
+			long t0 = System.nanoTime();
+			if (lag >= steptime) {
+				while (lag >= steptime) {
+					updateFrame(skipped_count);
+					skipped_count = 0;
+					lag -= steptime;
+					if (m_stop) return;
+				}
+				framePublish();
+			}
+			long update_time = System.nanoTime() - t0;
+			if (metrics != null) metrics.add(VGFrameMetrics.PHASE_UPDATE, update_time);
 
-				long disttime = (frame_count * vsync_unitms * 1000000L / vsync_frames) - frame_ticktime;
-				frame_count = frame_count % vsync_frames;
-				frame_ticktime = frame_count == 0 ? 0 : frame_ticktime + disttime;
-				frame_count ++;
+			long render_time = 0;
+			boolean render = isRenderFrame();
+			if (render) {
+				render_time = renderFrame(metrics, (float)lag / steptime);
+				if (m_stop) return;
+				showFrame(metrics);
+			}
 
-				long passtime = System.nanoTime() - lasttime;
-				if (passtime < 0 || skipped_count >= 8) {
-					lasttime += passtime - disttime;
-					passtime = disttime;
-				}
-				if (passtime <= disttime) {
-					// 垂直帰線期間"突入の瞬間"を待つ
-					while (passtime < disttime) {
-						try {
-							Thread.sleep((disttime - passtime) / 1000000L, 0);
-						} catch (InterruptedException e) {
-						}
-						if (m_stop) return;
-						passtime = System.nanoTime() - lasttime;
-						if (passtime < 0) {
-							lasttime += passtime - disttime;
-							passtime = disttime;
-						}
+			// 次の描画の時刻まで待つ(遅れた分の描画は取り戻さない)
+			nextrender += renderperiod;
+			long t1 = System.nanoTime();
+			if (nextrender - t1 <= 0) {
+				nextrender = t1;
+			}
+			else {
+				while (System.nanoTime() - nextrender < 0) {
+					try {
+						m_pacer.pace(nextrender);
+					} catch (InterruptedException e) {
 					}
-					lasttime += disttime;
 					if (m_stop) return;
+				}
+				if (metrics != null) metrics.add(VGFrameMetrics.PHASE_WAIT, System.nanoTime() - t1);
+			}
+			if (metrics != null) metrics.commit(dropped);
+			adaptQuality(update_time + renderCost(render, render_time), dropped);
+		}
+	}
+
+	/**
+	 * <code>LOOP_FIXED_STEP</code>で描画する間隔の下限を返します。<br>
+	 * 表示先の画面のリフレッシュレートがわからないときは、更新の間隔を返します。
+	 * 
+	 * @return 描画する間隔(ナノ秒)
+	 */
+	private long getRefreshPeriod()
+	{
+		GraphicsConfiguration gc = GraphicsEnvironment.isHeadless() ? null : getGraphicsConfiguration();
+		if (gc != null) {
+			int rate = gc.getDevice().getDisplayMode().getRefreshRate();
+			if (rate != DisplayMode.REFRESH_RATE_UNKNOWN) {
+				return 1000000000L / rate;
+			}
+		}
+		return vsync_unitms * 1000000L / vsync_frames;
+	}
+
+	//-----------------------------------------------------------
+	//  パイプライン実行
+	//-----------------------------------------------------------
+
+	/**
+	 * 更新スレッドに引き渡すスキップした描画フレーム数
+	 */
+	private int pipe_skipped;
+	/**
+	 * 更新スレッドが計測した<code>frameUpdate</code>の処理時間
+	 */
+	private long pipe_update_time;
+	/**
+	 * 更新スレッドで発生した例外
+	 */
+	private volatile Throwable pipe_error;
 
-					if (!m_bufferStrategy.contentsLost()) {
-						toolkit.sync();
-						m_bufferStrategy.show();
+	/**
+	 * 更新と描画を別々のスレッドで並行して行い、描画の完了を垂直帰線期間に合わせます。<br>
+	 * <br>
+	 * 更新スレッドがフレームN+1を更新している間に、このスレッドがフレームNを描画します。
+	 * 両方のスレッドが揃ったところで<code>framePublish</code>を呼び出して状態を引き渡します。
+	 */
+	private void runPipelined()
+	{
+		vsyncRestart();
+		VGFrameMetrics metrics = m_metrics;
+		if (metrics != null) metrics.restart();
+
+		// 最初に描画する状態を用意する
+		updateFrame(0);
+		framePublish();
+
+		pipe_skipped = 0;
+		pipe_update_time = 0;
+		pipe_error = null;
+		final Thread looper = Thread.currentThread();
+		final CyclicBarrier barrier = new CyclicBarrier(2, new Runnable() {
+			@Override
+			public void run()
+			{
+				framePublish();
+				pipe_skipped = vsync_skipped;
+			}
+		});
+		Thread updater = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				try {
+					for (;;) {
+						long t0 = System.nanoTime();
+						updateFrame(pipe_skipped);
+						pipe_update_time = System.nanoTime() - t0;
+						barrier.await();
 					}
-					break;
+				} catch (InterruptedException e) {
+				} catch (BrokenBarrierException e) {
+				} catch (RuntimeException e) {
+					pipeFailed(looper, barrier, e);
+				} catch (Error e) {
+					pipeFailed(looper, barrier, e);
+				}
+			}
+		}, getName() + "-update");
+		updater.start();
+
+		try {
+			for (;;) {
+				if (m_stop) return;
+
+				metrics = m_metrics;
+				boolean render = isRenderFrame();
+				long render_time = render ? renderFrame(metrics, 1.0f) : 0;
+				if (!vsyncWait(metrics, render)) return;
+				// 更新スレッドが先に終了していると待ち合わせる相手がいない
+				rethrowPipeError();
+				try {
+					barrier.await();
+				} catch (InterruptedException e) {
+					rethrowPipeError();
+					return;
+				} catch (BrokenBarrierException e) {
+					rethrowPipeError();
+					return;
+				}
+				if (metrics != null) {
+					metrics.add(VGFrameMetrics.PHASE_UPDATE, pipe_update_time);
+					metrics.commit(pipe_skipped);
 				}
-				else {
-					// 垂直帰線期間を過ぎてしまった分を追いかける
-					skipped_count ++;
-					lasttime += disttime;
+				adaptQuality(Math.max(pipe_update_time, renderCost(render, render_time)), pipe_skipped);
+				vsync_skipped = 0;
+			}
+		} finally {
+			updater.interrupt();
+			barrier.reset();
+			boolean interrupted = false;
+			while (updater.isAlive()) {
+				try {
+					updater.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
 			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 更新スレッドで発生した例外を記録し、待ち合わせ中または待ち合わせ前の描画スレッドを起こします。<br>
+	 * 描画スレッドがまだ待ち合わせていないときは<code>reset</code>では起こせないため、割り込みも行います。
+	 * 
+	 * @param looper
+	 *            - 描画スレッド
+	 * @param barrier
+	 *            - 待ち合わせに使う<code>CyclicBarrier</code>
+	 * @param e
+	 *            - 発生した例外
+	 */
+	private void pipeFailed(Thread looper, CyclicBarrier barrier, Throwable e)
+	{
+		pipe_error = e;
+		looper.interrupt();
+		barrier.reset();
+	}
+
+	/**
+	 * 更新スレッドで例外が発生していたときは、描画スレッドで投げ直します。
+	 */
+	private void rethrowPipeError()
+	{
+		Throwable e = pipe_error;
+		if (e == null) return;
+		// pipeFailedによる割り込みを取り消す
+		Thread.interrupted();
+		if (e instanceof RuntimeException) throw (RuntimeException)e;
+		throw (Error)e;
+	}
+
+	//-----------------------------------------------------------
+	//  描画品質の調整
+	//-----------------------------------------------------------
+
+	/**
+	 * 描画を行うフレームの間隔
+	 */
+	private volatile int m_render_interval = 1;
+	/**
+	 * 前回描画してから経過したフレーム数
+	 */
+	private int render_phase;
+	/**
+	 * 描画品質を調整する<code>VGQualityController</code>
+	 */
+	private volatile VGQualityController m_quality;
+	/**
+	 * 最後に描画したフレームの描画時間(ナノ秒)
+	 */
+	private long quality_render_time;
+
+	/**
+	 * 描画を行うフレームの間隔を設定します。<br>
+	 * 2を設定すると1フレームおきに描画し、描画しないフレームでは更新だけを行います。
+	 * 
+	 * @param interval
+	 *            - 描画を行うフレームの間隔(1以上)
+	 */
+	public final void setRenderInterval(int interval)
+	{
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval: " + interval);
+		}
+		m_render_interval = interval;
+	}
+
+	/**
+	 * 描画を行うフレームの間隔を返します。
+	 * 
+	 * @return 描画を行うフレームの間隔
+	 */
+	public final int getRenderInterval()
+	{
+		return m_render_interval;
+	}
+
+	/**
+	 * 現在のフレームを描画するかどうかを判定します。
+	 * 
+	 * @return 描画するときはtrue
+	 */
+	private boolean isRenderFrame()
+	{
+		if (++render_phase >= m_render_interval) {
+			render_phase = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 描画品質を調整する<code>VGQualityController</code>を設定します。
+	 * 
+	 * @param controller
+	 *            - 使用する<code>VGQualityController</code>。調整しないときは<code>null</code>
+	 */
+	public final void setQualityController(VGQualityController controller)
+	{
+		m_quality = controller;
+	}
+
+	/**
+	 * 描画品質を調整する<code>VGQualityController</code>を返します。
+	 * 
+	 * @return 設定された<code>VGQualityController</code>
+	 */
+	public final VGQualityController getQualityController()
+	{
+		return m_quality;
+	}
+
+	/**
+	 * 1フレームおきに描画する<code>VGQualityStep</code>を作成します。
+	 * 
+	 * @return 描画を間引く<code>VGQualityStep</code>
+	 */
+	public final VGQualityStep createRenderSkipStep()
+	{
+		return new VGQualityStep() {
+			/**
+			 * 品質を下げる前の間隔
+			 */
+			private int m_saved;
+			@Override
+			public void degrade()
+			{
+				m_saved = getRenderInterval();
+				setRenderInterval(Math.max(m_saved, 2));
+			}
+			@Override
+			public void restore()
+			{
+				setRenderInterval(m_saved);
+			}
+		};
+	}
+
+	/**
+	 * 品質の調整に使う描画時間を返します。<br>
+	 * 描画を間引いたフレームでは最後に描画したフレームの描画時間を使い、
+	 * 間引いたことで処理時間に余裕ができたと判断して品質を戻さないようにします。
+	 * 
+	 * @param render
+	 *            - フレームを描画したときはtrue
+	 * @param render_time
+	 *            - 描画にかかった時間(ナノ秒)
+	 * @return 描画1回分の時間(ナノ秒)
+	 */
+	private long renderCost(boolean render, long render_time)
+	{
+		if (render) {
+			quality_render_time = render_time;
+		}
+		return quality_render_time;
+	}
+
+	/**
+	 * フレームの処理時間を<code>VGQualityController</code>に通知します。
+	 * 
+	 * @param cost
+	 *            - 更新と描画にかかった時間(ナノ秒)
+	 * @param skipped
+	 *            - スキップしたフレーム数
+	 */
+	private void adaptQuality(long cost, int skipped)
+	{
+		VGQualityController quality = m_quality;
+		if (quality != null) {
+			quality.frame(cost, vsync_unitms * 1000000L / vsync_frames, skipped);
 		}
 	}
 
@@ -199,16 +943,35 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	 *            - 単位時間あたりのフレーム数
 	 * @param unitms
 	 *            - 単位時間(ミリ秒)
+	 * @param buffers
+	 *            - <code>BufferStrategy</code>のバッファ数(2でダブルバッファ、3でトリプルバッファ)
 	 */
-	public VGCanvas(int frames, int unitms)
+	public VGCanvas(int frames, int unitms, int buffers)
 	{
+		if (buffers < 1) {
+			throw new IllegalArgumentException("buffers: " + buffers);
+		}
 		vsync_frames = frames;
 		vsync_unitms = unitms;
+		m_buffers = buffers;
 
 		setIgnoreRepaint(true);
 		addKeyListener(this);
 	}
 
+	/**
+	 * 新しい<code>VGCanvas</code>オブジェクトをダブルバッファで構築します。
+	 * 
+	 * @param frames
+	 *            - 単位時間あたりのフレーム数
+	 * @param unitms
+	 *            - 単位時間(ミリ秒)
+	 */
+	public VGCanvas(int frames, int unitms)
+	{
+		this(frames, unitms, 2);
+	}
+
 	/**
 	 * 新しい<code>VGCanvas</code>オブジェクトを構築します。<br>
 	 * 
@@ -261,6 +1024,11 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	//  便利なメソッド
 	//-----------------------------------------------------------
 
+	/**
+	 * 画像リソースの読み込みに使う<code>VGAssetLoader</code>(作成する前は<code>null</code>)
+	 */
+	private VGAssetLoader m_asset_loader;
+
 	/**
 	 * 指定された名前を持つリソースを検索します。
 	 * 
@@ -274,16 +1042,50 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	}
 	
 	/**
-	 * 指定された名前を持つ画像リソースを検索しイメージを返します。
+	 * 指定された名前を持つ画像リソースを検索しイメージを返します。<br>
+	 * 画像は<code>getAssetLoader()</code>で読み込み終わってから返されます。
+	 * 読み込んだイメージは<code>VGAssetCache.getShared()</code>で共有され、同じ名前では同じイメージが返されます。
+	 * キャッシュはクラスローダーと<code>GraphicsConfiguration</code>ごとに区別されるため、
+	 * 別の画面に表示するコンポーネントにはその画面と互換性のあるイメージが返されます。
+	 * <code>ImageIO</code>に読み込めるリーダーがない形式のときだけは<code>Toolkit</code>で読み込みます。
 	 * 
 	 * @param name
 	 *            - 画像リソースの名前
 	 * @return 見付かったリソースから作成した<code>Image</code>
+	 * @throws UncheckedIOException
+	 *            - リソースが見付からないとき、またはデータが壊れているなどで読み込みに失敗したとき
 	 */
 	public final Image getResourceImage(String name)
 	{
-		Image img = Toolkit.getDefaultToolkit().getImage(getResourceURL(name));
-		return img;
+		try {
+			return VGAssetCache.getShared().getImage(name, getAssetLoader());
+		}
+		catch (VGAssetLoader.UnsupportedFormatException e) {
+			// ImageIOで読み込めない形式はこれまでどおりToolkitで読み込む
+			return Toolkit.getDefaultToolkit().getImage(getResourceURL(name));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 画像リソースの読み込みに使う<code>VGAssetLoader</code>を返します。<br>
+	 * 最初に呼ばれたときに、このコンポーネントの<code>GraphicsConfiguration</code>に変換する
+	 * <code>VGAssetLoader</code>を作成します。複数の画像をまとめて並列に読み込むときに使います。
+	 * 
+	 * @return 画像リソースの読み込みに使う<code>VGAssetLoader</code>
+	 */
+	public final synchronized VGAssetLoader getAssetLoader()
+	{
+		if (m_asset_loader == null) {
+			GraphicsConfiguration gc = GraphicsEnvironment.isHeadless() ? null : getGraphicsConfiguration();
+			if (gc == null) {
+				gc = VGAssetLoader.getDefaultConfiguration();
+			}
+			m_asset_loader = new VGAssetLoader(getClass().getClassLoader(), gc);
+		}
+		return m_asset_loader;
 	}
 
 	//-----------------------------------------------------------
@@ -360,9 +1162,20 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 	 * @see #getPadStates
 	 */
 	private int m_padstates = 0;
+	/**
+	 * 現在のフレームで押されたボタン
+	 * @see #getPadPressed
+	 */
+	private int m_padpressed = 0;
+	/**
+	 * 現在のフレームで離されたボタン
+	 * @see #getPadReleased
+	 */
+	private int m_padreleased = 0;
 
 	/**
-	 * ゲームパッドのボタンの押下状態を返します。
+	 * ゲームパッドのボタンの押下状態を返します。<br>
+	 * 状態はフレームの更新の直前に確定し、<code>frameUpdate</code>の間は変化しません。
 	 * 
 	 * @return ゲームパッドのボタンの押下状態
 	 */
@@ -371,7 +1184,41 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 		return m_padstates;
 	}
 
-	private int[] vkeymap = {
+	/**
+	 * 現在のフレームで押されたボタンを返します。<br>
+	 * 1フレームより短い間だけ押されたボタンも含まれます。
+	 * 
+	 * @return 前のフレームの更新から押されたボタン
+	 */
+	public final int getPadPressed()
+	{
+		return m_padpressed;
+	}
+
+	/**
+	 * 現在のフレームで離されたボタンを返します。<br>
+	 * 1フレームより短い間だけ押されたボタンは、押されたボタンと離されたボタンの両方に含まれます。
+	 * 
+	 * @return 前のフレームの更新から離されたボタン
+	 */
+	public final int getPadReleased()
+	{
+		return m_padreleased;
+	}
+
+	//-----------------------------------------------------------
+	//  キー割り当て
+	//-----------------------------------------------------------
+
+	/**
+	 * ゲームパッドのボタンの数
+	 */
+	public static final int PAD_BUTTON_COUNT = 13;
+
+	/**
+	 * ボタンに割り当てるキーコードのデフォルト値
+	 */
+	private static final int[] DEFAULT_KEYMAP = {
 		KeyEvent.VK_LEFT,
 		KeyEvent.VK_RIGHT,
 		KeyEvent.VK_UP,
@@ -387,27 +1234,276 @@ public abstract class VGCanvas extends Canvas implements Runnable, KeyListener
 		KeyEvent.VK_E,
 	};
 
-	@Override
-	public void keyPressed(KeyEvent e)
+	/**
+	 * 表を直接引くキーコードの上限<br>
+	 * 拡張キーコード(<code>0x01000000</code>以上)のような大きな値は表の外で線形に探します。
+	 */
+	private static final int KEY_TABLE_LIMIT = 0x10000;
+
+	/**
+	 * キーコードからボタンのビットマスクを引く表
+	 */
+	private static final class KeyTable
+	{
+		/**
+		 * <code>KEY_TABLE_LIMIT</code>未満のキーコードをインデックスとするビットマスクの配列
+		 */
+		final int[] direct;
+		/**
+		 * <code>KEY_TABLE_LIMIT</code>以上のキーコード
+		 */
+		final int[] far_keys;
+		/**
+		 * <code>far_keys</code>に対応するビットマスク
+		 */
+		final int[] far_masks;
+
+		KeyTable(int[] direct, int[] far_keys, int[] far_masks)
+		{
+			this.direct    = direct;
+			this.far_keys  = far_keys;
+			this.far_masks = far_masks;
+		}
+	}
+
+	/**
+	 * ボタンに割り当てたキーコード
+	 */
+	private int[] vkeymap = DEFAULT_KEYMAP.clone();
+	/**
+	 * キーコードからボタンのビットマスクを引く表
+	 */
+	private volatile KeyTable vkeytable = createKeyTable(vkeymap);
+	/**
+	 * キー割り当ての変更を排他制御するオブジェクト
+	 */
+	private final Object vkeymap_lock = new Object();
+
+	/**
+	 * ボタンにキーを割り当てます。<br>
+	 * 変更前のキーが押されていた場合、そのボタンは新しいキーが離されるまで押されたままになります。
+	 * 
+	 * @param button
+	 *            - ボタンのビット位置(<code>PAD_LEFT</code>～<code>PAD_BUTTON9</code>)
+	 * @param vkey
+	 *            - キーコード。割り当てを解除するときは<code>KeyEvent.VK_UNDEFINED</code>
+	 */
+	public final void setKeyMap(int button, int vkey)
+	{
+		if (button < 0 || button >= PAD_BUTTON_COUNT) {
+			throw new IllegalArgumentException("button: " + button);
+		}
+		if (vkey < 0) {
+			throw new IllegalArgumentException("vkey: " + vkey);
+		}
+		synchronized (vkeymap_lock) {
+			vkeymap[button] = vkey;
+			vkeytable = createKeyTable(vkeymap);
+		}
+	}
+
+	/**
+	 * すべてのボタンにキーを割り当てます。
+	 * 
+	 * @param vkeys
+	 *            - ボタンのビット位置の順に並べたキーコードの配列
+	 */
+	public final void setKeyMap(int[] vkeys)
+	{
+		if (vkeys.length != PAD_BUTTON_COUNT) {
+			throw new IllegalArgumentException("vkeys.length: " + vkeys.length);
+		}
+		for (int vkey : vkeys) {
+			if (vkey < 0) {
+				throw new IllegalArgumentException("vkey: " + vkey);
+			}
+		}
+		synchronized (vkeymap_lock) {
+			vkeymap = vkeys.clone();
+			vkeytable = createKeyTable(vkeymap);
+		}
+	}
+
+	/**
+	 * ボタンに割り当てたキーコードを返します。
+	 * 
+	 * @return ボタンのビット位置の順に並べたキーコードの配列
+	 */
+	public final int[] getKeyMap()
+	{
+		synchronized (vkeymap_lock) {
+			return vkeymap.clone();
+		}
+	}
+
+	/**
+	 * キーコードからボタンのビットマスクを引く表を作成します。<br>
+	 * 表の大きさは<code>KEY_TABLE_LIMIT</code>までに抑え、それ以上のキーコードは別に保持します。
+	 * 
+	 * @param vkeys
+	 *            - ボタンのビット位置の順に並べたキーコードの配列
+	 * @return キーコードからビットマスクを引く表
+	 */
+	private static KeyTable createKeyTable(int[] vkeys)
 	{
+		int length = 0;
+		int far_count = 0;
+		for (int vkey : vkeys) {
+			if (vkey < KEY_TABLE_LIMIT) {
+				length = Math.max(length, vkey + 1);
+			}
+			else {
+				far_count ++;
+			}
+		}
+		int[] direct = new int[length];
+		int[] far_keys = new int[far_count];
+		int[] far_masks = new int[far_count];
+		far_count = 0;
 		int mask = 1;
-		for (int vkey : vkeymap) {
-			if (e.getKeyCode() == vkey) {
-				m_padstates |= mask;
+		for (int vkey : vkeys) {
+			if (vkey >= KEY_TABLE_LIMIT) {
+				far_keys[far_count] = vkey;
+				far_masks[far_count] = mask;
+				far_count ++;
+			}
+			else if (vkey != KeyEvent.VK_UNDEFINED) {
+				direct[vkey] |= mask;
 			}
 			mask <<= 1;
 		}
+		return new KeyTable(direct, far_keys, far_masks);
+	}
+
+	//-----------------------------------------------------------
+	//  入力のラッチ
+	//-----------------------------------------------------------
+
+	/**
+	 * キーイベントのキューの大きさ(2のべき乗)
+	 */
+	private static final int KEY_QUEUE_SIZE = 64;
+
+	/**
+	 * キーイベントのキュー<br>
+	 * 押されたときはボタンのビットマスク、離されたときはその補数を格納します。
+	 */
+	private final int[] key_queue = new int[KEY_QUEUE_SIZE];
+	/**
+	 * キューの読み出し位置(ゲームスレッドだけが書き込む)
+	 */
+	private volatile int key_queue_head;
+	/**
+	 * キューの書き込み位置(イベントディスパッチスレッドだけが書き込む)
+	 */
+	private volatile int key_queue_tail;
+	/**
+	 * キューがあふれたことを示すフラグ
+	 */
+	private volatile boolean key_queue_overflow;
+	/**
+	 * イベントディスパッチスレッドから見たボタンの押下状態
+	 */
+	private volatile int key_live_states;
+
+	/**
+	 * キーイベントをキューに追加します。
+	 * 
+	 * @param mask
+	 *            - ボタンのビットマスク
+	 * @param pressed
+	 *            - 押されたときはtrue
+	 */
+	private void postKeyEvent(int mask, boolean pressed)
+	{
+		key_live_states = pressed ? (key_live_states | mask) : (key_live_states & ~mask);
+		int tail = key_queue_tail;
+		if (tail - key_queue_head >= KEY_QUEUE_SIZE) {
+			// あふれた分は次のラッチで押下状態から復元する
+			key_queue_overflow = true;
+			return;
+		}
+		key_queue[tail & (KEY_QUEUE_SIZE - 1)] = pressed ? mask : ~mask;
+		key_queue_tail = tail + 1;
+	}
+
+	/**
+	 * キューに溜まったキーイベントを適用してボタンの状態を確定します。<br>
+	 * フレームの更新の直前に呼び出されます。
+	 */
+	void latchInput()
+	{
+		int states = m_padstates;
+		int pressed = 0;
+		int released = 0;
+
+		int head = key_queue_head;
+		int tail = key_queue_tail;
+		while (head != tail) {
+			int event = key_queue[head & (KEY_QUEUE_SIZE - 1)];
+			head ++;
+			if (event >= 0) {
+				pressed |= event & ~states;
+				states |= event;
+			}
+			else {
+				released |= ~event & states;
+				states &= event;
+			}
+		}
+		key_queue_head = head;
+
+		if (key_queue_overflow) {
+			key_queue_overflow = false;
+			int live = key_live_states;
+			pressed |= live & ~states;
+			released |= states & ~live;
+			states = live;
+		}
+
+		m_padstates = states;
+		m_padpressed = pressed;
+		m_padreleased = released;
+	}
+
+	/**
+	 * キーコードに割り当てられたボタンのビットマスクを返します。
+	 * 
+	 * @param vkey
+	 *            - キーコード
+	 * @return ボタンのビットマスク
+	 */
+	private int lookupKey(int vkey)
+	{
+		KeyTable table = vkeytable;
+		if (vkey >= 0 && vkey < table.direct.length) {
+			return table.direct[vkey];
+		}
+		// 同じキーを複数のボタンに割り当てたときはすべてのボタンを返す
+		int mask = 0;
+		for (int i=0; i < table.far_keys.length; ++i) {
+			if (table.far_keys[i] == vkey) {
+				mask |= table.far_masks[i];
+			}
+		}
+		return mask;
+	}
+
+	@Override
+	public void keyPressed(KeyEvent e)
+	{
+		int mask = lookupKey(e.getKeyCode());
+		if (mask != 0) {
+			postKeyEvent(mask, true);
+		}
 	}
 
 	@Override
 	public void keyReleased(KeyEvent e)
 	{
-		int mask = 1;
-		for (int vkey : vkeymap) {
-			if (e.getKeyCode() == vkey) {
-				m_padstates &= ~mask;
-			}
-			mask <<= 1;
+		int mask = lookupKey(e.getKeyCode());
+		if (mask != 0) {
+			postKeyEvent(mask, false);
 		}
 	}
 
@@ -0,0 +1,71 @@
+package com.github.isle_shimakura.videogame;
+
+/**
+ * 更新と描画の間で状態を引き渡すためのダブルバッファです。<br>
+ * <br>
+ * <code>frameUpdate</code>は裏側(<code>getBack</code>)の状態だけに書き込み、
+ * <code>frameRender</code>は表側(<code>getFront</code>)の状態だけを読み出します。
+ * <code>frameUpdate</code>から表側の状態を読み出すことはできますが、書き込んではいけません。<br>
+ * <code>framePublish</code>で<code>swap</code>を呼び出すと、更新した状態が次のフレームで描画されます。
+ * 
+ * @param <T> 状態を保持するクラス
+ * 
+ * @see VGCanvas#framePublish
+ * @see VGCanvas#LOOP_PIPELINED
+ */
+public final class VGDoubleBuffer<T>
+{
+	/**
+	 * 状態の配列
+	 */
+	private final Object[] m_states;
+	/**
+	 * 表側の状態のインデックス
+	 */
+	private int m_front;
+
+	/**
+	 * 新しい<code>VGDoubleBuffer</code>オブジェクトを構築します。
+	 * 
+	 * @param front 最初に表側になる状態
+	 * @param back  最初に裏側になる状態
+	 */
+	public VGDoubleBuffer(T front, T back)
+	{
+		if (front == null || back == null || front == back) {
+			throw new IllegalArgumentException();
+		}
+		m_states = new Object[] { front, back };
+	}
+
+	/**
+	 * 描画に使う表側の状態を返します。
+	 * 
+	 * @return 表側の状態
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFront()
+	{
+		return (T)m_states[m_front];
+	}
+
+	/**
+	 * 更新に使う裏側の状態を返します。
+	 * 
+	 * @return 裏側の状態
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack()
+	{
+		return (T)m_states[m_front ^ 1];
+	}
+
+	/**
+	 * 表側と裏側の状態を交換します。<br>
+	 * <code>framePublish</code>から呼び出してください。
+	 */
+	public void swap()
+	{
+		m_front ^= 1;
+	}
+}
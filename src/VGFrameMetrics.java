@@ -0,0 +1,433 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * フレームごとの処理時間を記録するクラスです。<br>
+ * <br>
+ * 更新・描画・表示・待機の各フェーズの処理時間(ナノ秒)とスキップしたフレーム数を
+ * 固定サイズのリングバッファに記録します。記録の際にオブジェクトを生成することはありません。<br>
+ * 記録はゲームスレッドだけが行い、統計の読み出しはロックを使わずに任意のスレッドから行うことができます。
+ * 
+ * @see VGCanvas#setFrameMetrics
+ */
+public final class VGFrameMetrics
+{
+	//----------------------------------------------------------
+	//  定数
+	//----------------------------------------------------------
+
+	/**
+	 * <code>frameUpdate</code>の処理時間を示す値
+	 */
+	public static final int PHASE_UPDATE = 0;
+	/**
+	 * <code>frameRender</code>の処理時間を示す値
+	 */
+	public static final int PHASE_RENDER = 1;
+	/**
+	 * <code>Toolkit.sync</code>と<code>BufferStrategy.show</code>の処理時間を示す値
+	 */
+	public static final int PHASE_SHOW   = 2;
+	/**
+	 * フレームの完了タイミングまで待機した時間を示す値
+	 */
+	public static final int PHASE_WAIT   = 3;
+	/**
+	 * 前のフレームの記録からの経過時間を示す値
+	 */
+	public static final int PHASE_FRAME  = 4;
+	/**
+	 * フェーズの数
+	 */
+	public static final int PHASE_COUNT  = 5;
+
+	/**
+	 * デフォルトの記録フレーム数
+	 */
+	public static final int DEFAULT_CAPACITY = 512;
+
+	/**
+	 * オーバーレイの統計を更新する間隔(フレーム数)
+	 */
+	private static final int OVERLAY_INTERVAL = 30;
+	/**
+	 * オーバーレイに表示するフェーズの名前
+	 */
+	private static final String[] PHASE_NAMES = { "upd ", "rnd ", "shw ", "wait", "frm " };
+
+	//----------------------------------------------------------
+	//  リングバッファ
+	//----------------------------------------------------------
+
+	/**
+	 * 記録できるフレーム数
+	 */
+	private final int m_capacity;
+	/**
+	 * フェーズごとの処理時間のリングバッファ
+	 */
+	private final long[][] m_times;
+	/**
+	 * スキップしたフレーム数のリングバッファ
+	 */
+	private final int[] m_skipped;
+	/**
+	 * 記録中のフレームのフェーズごとの処理時間
+	 */
+	private final long[] m_current = new long[PHASE_COUNT];
+	/**
+	 * 前のフレームを記録した時刻
+	 */
+	private long m_lasttime;
+	/**
+	 * 記録が完了したフレームの総数
+	 */
+	private volatile long m_frames;
+
+	//----------------------------------------------------------
+	//  オーバーレイ
+	//----------------------------------------------------------
+
+	/**
+	 * オーバーレイの統計の計算に使う作業領域
+	 */
+	private long[] m_overlay_work;
+	/**
+	 * オーバーレイに表示する文字列
+	 */
+	private char[][] m_overlay_lines;
+	/**
+	 * オーバーレイに表示する文字列の長さ
+	 */
+	private int[] m_overlay_length;
+	/**
+	 * オーバーレイの統計を最後に更新したときのフレーム総数
+	 */
+	private long m_overlay_frames = -OVERLAY_INTERVAL;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGFrameMetrics</code>オブジェクトを構築します。
+	 * 
+	 * @param capacity
+	 *            - 記録できるフレーム数
+	 */
+	public VGFrameMetrics(int capacity)
+	{
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		m_capacity = capacity;
+		m_times = new long[PHASE_COUNT][capacity];
+		m_skipped = new int[capacity];
+	}
+
+	/**
+	 * 新しい<code>VGFrameMetrics</code>オブジェクトをデフォルトの記録フレーム数で構築します。
+	 */
+	public VGFrameMetrics()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	//----------------------------------------------------------
+	//  記録(ゲームスレッド)
+	//----------------------------------------------------------
+
+	/**
+	 * 記録中のフレームに処理時間を加算します。
+	 * 
+	 * @param phase
+	 *            - フェーズ
+	 * @param nanos
+	 *            - 処理時間(ナノ秒)
+	 */
+	public void add(int phase, long nanos)
+	{
+		m_current[phase] += nanos;
+	}
+
+	/**
+	 * 記録中のフレームを確定します。
+	 * 
+	 * @param skipped
+	 *            - このフレームでスキップしたフレーム数
+	 */
+	public void commit(int skipped)
+	{
+		long now = System.nanoTime();
+		m_current[PHASE_FRAME] = m_lasttime == 0 ? 0 : now - m_lasttime;
+		m_lasttime = now;
+
+		long frames = m_frames;
+		int slot = (int)(frames % m_capacity);
+		// 前回公開したフレーム数より先にスロットの上書きが見えないようにする
+		VarHandle.storeStoreFence();
+		for (int phase=0; phase < PHASE_COUNT; ++phase) {
+			m_times[phase][slot] = m_current[phase];
+			m_current[phase] = 0;
+		}
+		m_skipped[slot] = skipped;
+		// 書き込みを公開する
+		m_frames = frames + 1;
+	}
+
+	/**
+	 * フレームの経過時間の基準をリセットします。<br>
+	 * ループを再開したときなど、前のフレームとの間隔を記録したくないときに呼び出します。
+	 */
+	public void restart()
+	{
+		m_lasttime = 0;
+		Arrays.fill(m_current, 0);
+	}
+
+	//----------------------------------------------------------
+	//  読み出し(任意のスレッド)
+	//----------------------------------------------------------
+
+	/**
+	 * 記録できるフレーム数を返します。
+	 * 
+	 * @return 記録できるフレーム数
+	 */
+	public int getCapacity()
+	{
+		return m_capacity;
+	}
+
+	/**
+	 * 記録が完了したフレームの総数を返します。
+	 * 
+	 * @return フレームの総数
+	 */
+	public long getFrameCount()
+	{
+		return m_frames;
+	}
+
+	/**
+	 * 直近のフレームの処理時間を配列にコピーします。<br>
+	 * コピー中にゲームスレッドが上書きしたフレームは取り除かれます。
+	 * 
+	 * @param phase
+	 *            - フェーズ
+	 * @param window
+	 *            - コピーするフレーム数の上限
+	 * @param dst
+	 *            - コピー先の配列
+	 * @return コピーしたフレーム数
+	 */
+	public int snapshot(int phase, int window, long[] dst)
+	{
+		long[] times = m_times[phase];
+		int n = Math.min(Math.min(window, m_capacity), dst.length);
+		long end = m_frames;
+		long begin = Math.max(0, end - n);
+		for (long i=begin; i < end; ++i) {
+			dst[(int)(i - begin)] = times[(int)(i % m_capacity)];
+		}
+		// 書き込み中のフレームと重なった古いフレームを取り除く
+		// (配列の読み出しがフレーム数の再読み込みより後に回らないようにする)
+		VarHandle.acquireFence();
+		long valid = m_frames + 1 - m_capacity;
+		if (valid > begin) {
+			int drop = (int)Math.min(valid - begin, end - begin);
+			System.arraycopy(dst, drop, dst, 0, (int)(end - begin) - drop);
+			begin += drop;
+		}
+		return (int)(end - begin);
+	}
+
+	/**
+	 * 直近のフレームの処理時間のパーセンタイル値を返します。
+	 * 
+	 * @param phase
+	 *            - フェーズ
+	 * @param percentile
+	 *            - パーセンタイル(0～100)
+	 * @param window
+	 *            - 対象にするフレーム数
+	 * @return 処理時間(ナノ秒)。記録がないときは0
+	 */
+	public long getPercentile(int phase, double percentile, int window)
+	{
+		long[] work = new long[Math.min(window, m_capacity)];
+		int n = snapshot(phase, window, work);
+		Arrays.sort(work, 0, n);
+		return percentile(work, n, percentile);
+	}
+
+	/**
+	 * 直近のフレームの処理時間の最大値を返します。
+	 * 
+	 * @param phase
+	 *            - フェーズ
+	 * @param window
+	 *            - 対象にするフレーム数
+	 * @return 処理時間(ナノ秒)。記録がないときは0
+	 */
+	public long getMax(int phase, int window)
+	{
+		return getPercentile(phase, 100.0, window);
+	}
+
+	/**
+	 * 直近のフレームでスキップしたフレーム数の合計を返します。<br>
+	 * 合計している間にゲームスレッドが上書きしたフレームは取り除かれます。
+	 * 
+	 * @param window
+	 *            - 対象にするフレーム数
+	 * @return スキップしたフレーム数の合計
+	 */
+	public int getSkippedFrames(int window)
+	{
+		int n = Math.min(window, m_capacity);
+		long end = m_frames;
+		// 書き込み中のフレームのスロットは最初から除く
+		long begin = Math.max(Math.max(0, end - n), end + 1 - m_capacity);
+		for (;;) {
+			int total = 0;
+			for (long i=begin; i < end; ++i) {
+				total += m_skipped[(int)(i % m_capacity)];
+			}
+			VarHandle.acquireFence();
+			long valid = m_frames + 1 - m_capacity;
+			if (valid <= begin || begin >= end) return total;
+			// 上書きされたフレームを除いて合計し直す
+			begin = Math.min(valid, end);
+		}
+	}
+
+	/**
+	 * ソート済みの配列からパーセンタイル値を求めます。
+	 * 
+	 * @param sorted
+	 *            - ソート済みの配列
+	 * @param n
+	 *            - 有効な要素数
+	 * @param percentile
+	 *            - パーセンタイル(0～100)
+	 * @return パーセンタイル値
+	 */
+	private static long percentile(long[] sorted, int n, double percentile)
+	{
+		if (n == 0) return 0;
+		int rank = (int)Math.ceil(percentile / 100.0 * n) - 1;
+		if (rank < 0) rank = 0;
+		if (rank >= n) rank = n - 1;
+		return sorted[rank];
+	}
+
+	//----------------------------------------------------------
+	//  オーバーレイ
+	//----------------------------------------------------------
+
+	/**
+	 * 統計をオーバーレイとして描画します。<br>
+	 * 記録を行うスレッドから呼び出してください。統計は一定フレームごとに更新され、
+	 * 描画の際にオブジェクトを生成することはありません。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param x
+	 *            - 左端のX座標
+	 * @param y
+	 *            - 上端のY座標
+	 */
+	public void paintOverlay(Graphics g, int x, int y)
+	{
+		if (m_overlay_lines == null) {
+			m_overlay_work = new long[m_capacity];
+			m_overlay_lines = new char[PHASE_COUNT + 1][96];
+			m_overlay_length = new int[PHASE_COUNT + 1];
+		}
+		long frames = m_frames;
+		if (frames - m_overlay_frames >= OVERLAY_INTERVAL) {
+			updateOverlay();
+			m_overlay_frames = frames;
+		}
+
+		int line_height = g.getFontMetrics().getHeight();
+		int width = 0;
+		for (int i=0; i < m_overlay_lines.length; ++i) {
+			width = Math.max(width, g.getFontMetrics().charsWidth(m_overlay_lines[i], 0, m_overlay_length[i]));
+		}
+		g.setColor(Color.BLACK);
+		g.fillRect(x, y, width + 4, line_height * m_overlay_lines.length + 4);
+		g.setColor(Color.GREEN);
+		int ascent = g.getFontMetrics().getAscent();
+		for (int i=0; i < m_overlay_lines.length; ++i) {
+			g.drawChars(m_overlay_lines[i], 0, m_overlay_length[i], x + 2, y + 2 + ascent + line_height * i);
+		}
+	}
+
+	/**
+	 * オーバーレイに表示する文字列を更新します。
+	 */
+	private void updateOverlay()
+	{
+		for (int phase=0; phase < PHASE_COUNT; ++phase) {
+			int n = snapshot(phase, m_capacity, m_overlay_work);
+			Arrays.sort(m_overlay_work, 0, n);
+			char[] line = m_overlay_lines[phase];
+			int len = appendString(line, 0, PHASE_NAMES[phase]);
+			len = appendString(line, len, " p50 ");
+			len = appendMillis(line, len, percentile(m_overlay_work, n, 50.0));
+			len = appendString(line, len, " p95 ");
+			len = appendMillis(line, len, percentile(m_overlay_work, n, 95.0));
+			len = appendString(line, len, " p99 ");
+			len = appendMillis(line, len, percentile(m_overlay_work, n, 99.0));
+			len = appendString(line, len, " max ");
+			len = appendMillis(line, len, percentile(m_overlay_work, n, 100.0));
+			m_overlay_length[phase] = len;
+		}
+		char[] line = m_overlay_lines[PHASE_COUNT];
+		int len = appendString(line, 0, "skipped ");
+		len = appendLong(line, len, getSkippedFrames(m_capacity));
+		len = appendString(line, len, " / ");
+		len = appendLong(line, len, Math.min(m_frames, m_capacity));
+		m_overlay_length[PHASE_COUNT] = len;
+	}
+
+	private static int appendString(char[] dst, int pos, String s)
+	{
+		s.getChars(0, s.length(), dst, pos);
+		return pos + s.length();
+	}
+
+	private static int appendLong(char[] dst, int pos, long value)
+	{
+		if (value == 0) {
+			dst[pos] = '0';
+			return pos + 1;
+		}
+		int digits = 0;
+		for (long v = value; v > 0; v /= 10) digits ++;
+		for (int i=digits - 1; i >= 0; --i) {
+			dst[pos + i] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+	/**
+	 * ナノ秒をミリ秒単位(小数点以下2桁)の文字列として追加します。
+	 */
+	private static int appendMillis(char[] dst, int pos, long nanos)
+	{
+		long centi = nanos / 10000L;
+		pos = appendLong(dst, pos, centi / 100);
+		dst[pos++] = '.';
+		dst[pos++] = (char)('0' + centi / 10 % 10);
+		dst[pos++] = (char)('0' + centi % 10);
+		return pos;
+	}
+}
@@ -0,0 +1,119 @@
+package com.github.isle_shimakura.videogame;
+
+/**
+ * フレームの完了タイミングまで待機する方法を提供する抽象クラスです。<br>
+ * <br>
+ * 実際に復帰した時刻と指定された時刻との差(ペーシング誤差)を記録します。<br>
+ * 誤差の統計はゲームスレッド以外から読み出すことができます。
+ * 
+ * @see VGCanvas#setFramePacer
+ */
+public abstract class VGFramePacer
+{
+	/**
+	 * 最後に記録したペーシング誤差(ナノ秒)
+	 */
+	private volatile long m_last_error;
+	/**
+	 * 記録したペーシング誤差の最大値(ナノ秒)
+	 */
+	private volatile long m_max_error;
+	/**
+	 * 記録したペーシング誤差の絶対値の合計(ナノ秒)
+	 */
+	private volatile long m_total_error;
+	/**
+	 * 記録した回数
+	 */
+	private volatile long m_count;
+
+	/**
+	 * 指定された時刻まで待機します。<br>
+	 * 割り込まれた場合は指定された時刻より前に復帰してもかまいません。
+	 * 
+	 * @param deadline
+	 *            - <code>System.nanoTime()</code>を基準とする復帰時刻
+	 * @throws InterruptedException
+	 *            - 待機中に割り込まれた場合
+	 */
+	protected abstract void waitUntil(long deadline) throws InterruptedException;
+
+	/**
+	 * 指定された時刻まで待機し、ペーシング誤差を記録します。
+	 * 
+	 * @param deadline
+	 *            - <code>System.nanoTime()</code>を基準とする復帰時刻
+	 * @return ペーシング誤差(ナノ秒)。指定された時刻より遅れた場合は正の値
+	 * @throws InterruptedException
+	 *            - 待機中に割り込まれた場合
+	 */
+	public final long pace(long deadline) throws InterruptedException
+	{
+		waitUntil(deadline);
+		long error = System.nanoTime() - deadline;
+		m_last_error = error;
+		if (error > m_max_error) {
+			m_max_error = error;
+		}
+		m_total_error += error < 0 ? -error : error;
+		m_count ++;
+		return error;
+	}
+
+	//----------------------------------------------------------
+	//  統計
+	//----------------------------------------------------------
+
+	/**
+	 * 最後に記録したペーシング誤差を返します。
+	 * 
+	 * @return ペーシング誤差(ナノ秒)
+	 */
+	public long getLastError()
+	{
+		return m_last_error;
+	}
+
+	/**
+	 * 記録したペーシング誤差の最大値を返します。
+	 * 
+	 * @return ペーシング誤差の最大値(ナノ秒)
+	 */
+	public long getMaxError()
+	{
+		return m_max_error;
+	}
+
+	/**
+	 * 記録したペーシング誤差の絶対値の平均を返します。
+	 * 
+	 * @return ペーシング誤差の絶対値の平均(ナノ秒)
+	 */
+	public long getAverageError()
+	{
+		long count = m_count;
+		return count == 0 ? 0 : m_total_error / count;
+	}
+
+	/**
+	 * ペーシング誤差を記録した回数を返します。
+	 * 
+	 * @return 記録した回数
+	 */
+	public long getCount()
+	{
+		return m_count;
+	}
+
+	/**
+	 * 記録した統計をリセットします。<br>
+	 * ゲームスレッドの記録と同時に呼び出した場合、その回の記録は失われることがあります。
+	 */
+	public void resetStatistics()
+	{
+		m_count = 0;
+		m_total_error = 0;
+		m_max_error = 0;
+		m_last_error = 0;
+	}
+}
@@ -0,0 +1,108 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+
+/**
+ * 使い回す<code>Graphics2D</code>の描画属性を保存して復元するクラスです。<br>
+ * <br>
+ * フレームごとに<code>getGraphics</code>で新しいグラフィックスコンテキストを作成する代わりに、
+ * 作成直後の描画属性を保存しておき、フレームの描画の前に復元します。<br>
+ * クリップは描画対象全体に設定して保ち、変更されていたときだけ設定し直します。
+ * <code>setClip</code>はクリップを設定するたびに割り当てを行うため、
+ * 描画対象全体を覆うタイルマップなどがクリップを設定し直さずに済むようにします。<br>
+ * レンダリングヒントは復元しません。
+ */
+final class VGGraphicsState
+{
+	/**
+	 * 座標変換
+	 */
+	private final AffineTransform m_transform;
+	/**
+	 * 描画色
+	 */
+	private final Color m_color;
+	/**
+	 * ペイント
+	 */
+	private final Paint m_paint;
+	/**
+	 * 背景色
+	 */
+	private final Color m_background;
+	/**
+	 * フォント
+	 */
+	private final Font m_font;
+	/**
+	 * コンポジット
+	 */
+	private final Composite m_composite;
+	/**
+	 * ストローク
+	 */
+	private final Stroke m_stroke;
+	/**
+	 * 描画対象の幅
+	 */
+	private final int m_width;
+	/**
+	 * 描画対象の高さ
+	 */
+	private final int m_height;
+	/**
+	 * クリップ領域を取得する作業用の矩形
+	 */
+	private final Rectangle m_clip = new Rectangle();
+
+	/**
+	 * 新しい<code>VGGraphicsState</code>オブジェクトを構築し、描画属性を保存します。<br>
+	 * クリップは描画対象全体に設定します。
+	 * 
+	 * @param g      描画属性を保存する<code>Graphics2D</code>
+	 * @param width  描画対象の幅
+	 * @param height 描画対象の高さ
+	 */
+	VGGraphicsState(Graphics2D g, int width, int height)
+	{
+		m_transform  = g.getTransform();
+		m_color      = g.getColor();
+		m_paint      = g.getPaint();
+		m_background = g.getBackground();
+		m_font       = g.getFont();
+		m_composite  = g.getComposite();
+		m_stroke     = g.getStroke();
+		m_width      = width;
+		m_height     = height;
+		g.setClip(0, 0, width, height);
+	}
+
+	/**
+	 * 保存した描画属性を復元し、クリップを描画対象全体に戻します。
+	 * 
+	 * @param g 描画属性を復元する<code>Graphics2D</code>
+	 */
+	void restore(Graphics2D g)
+	{
+		g.setTransform(m_transform);
+		// クリップ領域がないときは作業用の矩形が変更されない
+		m_clip.setBounds(0, 0, -1, -1);
+		g.getClipBounds(m_clip);
+		if (m_clip.x != 0 || m_clip.y != 0 || m_clip.width != m_width || m_clip.height != m_height) {
+			g.setClip(0, 0, m_width, m_height);
+		}
+		g.setPaint(m_paint);
+		g.setColor(m_color);
+		g.setBackground(m_background);
+		g.setFont(m_font);
+		g.setComposite(m_composite);
+		g.setStroke(m_stroke);
+	}
+}
@@ -0,0 +1,250 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.Graphics2D;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * <code>VGCanvas</code>を画面なしで実行するドライバです。<br>
+ * <br>
+ * <code>init</code>・<code>frameUpdate</code>・<code>frameRender</code>を
+ * オフスクリーンの<code>BufferedImage</code>に対して呼び出し、フレームレートを計測します。<br>
+ * ディスプレイのない環境での長時間テストやベンチマークに使用します。
+ * 
+ * @see VGCanvas
+ */
+public final class VGHeadlessRunner
+{
+	/**
+	 * 実行する<code>VGCanvas</code>
+	 */
+	private VGCanvas m_canvas;
+	/**
+	 * 描画対象のイメージ
+	 */
+	private BufferedImage m_image;
+	/**
+	 * 描画対象のイメージの<code>Graphics</code>
+	 */
+	private Graphics2D m_graphics;
+	/**
+	 * <code>m_graphics</code>の作成直後の描画属性
+	 */
+	private VGGraphicsState m_graphics_state;
+
+	/**
+	 * 仮想時刻で実行した描画フレーム数の累計
+	 */
+	private long m_virtual_renders;
+	/**
+	 * 仮想時刻で実行した更新フレーム数の累計
+	 */
+	private long m_virtual_ticks;
+
+	/**
+	 * 直前の実行で描画したフレーム数
+	 */
+	private long m_renders;
+	/**
+	 * 直前の実行で更新したフレーム数
+	 */
+	private long m_updates;
+	/**
+	 * 直前の実行にかかった時間(ナノ秒)
+	 */
+	private long m_elapsed;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGHeadlessRunner</code>オブジェクトを構築し、<code>VGCanvas</code>を初期化します。
+	 * 
+	 * @param canvas
+	 *            - 実行する<code>VGCanvas</code>
+	 * @param width
+	 *            - 描画対象の幅
+	 * @param height
+	 *            - 描画対象の高さ
+	 */
+	public VGHeadlessRunner(VGCanvas canvas, int width, int height)
+	{
+		m_canvas = canvas;
+		m_image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		m_graphics = m_image.createGraphics();
+		m_graphics_state = new VGGraphicsState(m_graphics, width, height);
+
+		m_canvas.setSize(width, height);
+		m_canvas.dispatchEvent(new ComponentEvent(m_canvas, ComponentEvent.COMPONENT_RESIZED));
+		m_canvas.init();
+	}
+
+	/**
+	 * <code>VGCanvas</code>の終了処理を行います。
+	 */
+	public void dispose()
+	{
+		m_canvas.destroy();
+		m_graphics.dispose();
+	}
+
+	//----------------------------------------------------------
+	//  実行
+	//----------------------------------------------------------
+
+	/**
+	 * 待機せずにできるだけ速く、更新と描画を交互に実行します。
+	 * 
+	 * @param frames
+	 *            - 実行するフレーム数
+	 * @return 1秒あたりの描画フレーム数
+	 */
+	public double runUnthrottled(int frames)
+	{
+		VGFrameMetrics metrics = m_canvas.getFrameMetrics();
+		if (metrics != null) metrics.restart();
+
+		m_renders = 0;
+		m_updates = 0;
+		long start = System.nanoTime();
+		for (int i=0; i < frames; ++i) {
+			update(metrics, 0);
+			m_canvas.framePublish();
+			render(metrics, 1.0f);
+			if (metrics != null) metrics.commit(0);
+		}
+		m_elapsed = System.nanoTime() - start;
+		return getFramesPerSecond();
+	}
+
+	/**
+	 * 仮想時刻に従って更新と描画を実行します。<br>
+	 * <br>
+	 * 描画は指定されたフレームレートの仮想時刻ごとに行い、その間に
+	 * <code>VGCanvas</code>のフレームレートで進んだ分の更新を行います。
+	 * 実際の時間は待機しないため、実行速度にかかわらず毎回同じ順序でコールバックされます。<br>
+	 * <code>LOOP_FIXED_STEP</code>では進んだ分だけ<code>frameUpdate</code>を呼び出し、補間係数付きで描画します。
+	 * それ以外のループモードでは1回の<code>frameUpdate</code>で進んだ分をスキップ数として通知し、
+	 * 更新がなかった描画フレームは描画しません。
+	 * 
+	 * @param renders
+	 *            - 仮想時刻を進める描画フレーム数
+	 * @param render_fps
+	 *            - 仮想時刻における1秒間あたりの描画フレーム数
+	 * @return 実際の時間における1秒あたりの描画フレーム数
+	 */
+	public double runVirtual(int renders, int render_fps)
+	{
+		VGFrameMetrics metrics = m_canvas.getFrameMetrics();
+		if (metrics != null) metrics.restart();
+
+		boolean fixed_step = m_canvas.getLoopMode() == VGCanvas.LOOP_FIXED_STEP;
+		long frames = m_canvas.getVsyncFrames();
+		long steptime = m_canvas.getVsyncUnitms() * 1000000L;
+
+		m_renders = 0;
+		m_updates = 0;
+		long start = System.nanoTime();
+		for (int i=0; i < renders; ++i) {
+			// 時間はフレーム数倍して扱う
+			long rendertime = ++m_virtual_renders * 1000000000L / render_fps * frames;
+			long ticks = rendertime / steptime;
+			int advanced = (int)(ticks - m_virtual_ticks);
+			m_virtual_ticks = ticks;
+
+			if (fixed_step) {
+				for (int j=0; j < advanced; ++j) {
+					update(metrics, 0);
+				}
+				if (advanced > 0) m_canvas.framePublish();
+				render(metrics, (float)(rendertime - ticks * steptime) / steptime);
+			}
+			else {
+				if (advanced == 0) continue;
+				update(metrics, advanced - 1);
+				m_canvas.framePublish();
+				render(metrics, 1.0f);
+			}
+			if (metrics != null) metrics.commit(0);
+		}
+		m_elapsed = System.nanoTime() - start;
+		return getFramesPerSecond();
+	}
+
+	/**
+	 * フレームを更新します。
+	 */
+	private void update(VGFrameMetrics metrics, int skipped)
+	{
+		long t0 = System.nanoTime();
+		m_canvas.updateFrame(skipped);
+		if (metrics != null) metrics.add(VGFrameMetrics.PHASE_UPDATE, System.nanoTime() - t0);
+		m_updates ++;
+	}
+
+	/**
+	 * フレームを描画します。
+	 */
+	private void render(VGFrameMetrics metrics, float alpha)
+	{
+		// フレームごとにGraphicsを作成しないよう使い回す
+		m_graphics_state.restore(m_graphics);
+		m_canvas.renderFrame(m_graphics, metrics, alpha);
+		m_renders ++;
+	}
+
+	//----------------------------------------------------------
+	//  結果
+	//----------------------------------------------------------
+
+	/**
+	 * 描画対象のイメージを返します。
+	 * 
+	 * @return 最後に描画したフレームを含む<code>BufferedImage</code>
+	 */
+	public BufferedImage getImage()
+	{
+		return m_image;
+	}
+
+	/**
+	 * 直前の実行の1秒あたりの描画フレーム数を返します。
+	 * 
+	 * @return 1秒あたりの描画フレーム数
+	 */
+	public double getFramesPerSecond()
+	{
+		return m_elapsed <= 0 ? 0 : m_renders * 1000000000.0 / m_elapsed;
+	}
+
+	/**
+	 * 直前の実行で描画したフレーム数を返します。
+	 * 
+	 * @return 描画したフレーム数
+	 */
+	public long getRenderCount()
+	{
+		return m_renders;
+	}
+
+	/**
+	 * 直前の実行で更新したフレーム数を返します。
+	 * 
+	 * @return 更新したフレーム数
+	 */
+	public long getUpdateCount()
+	{
+		return m_updates;
+	}
+
+	/**
+	 * 直前の実行にかかった実際の時間を返します。
+	 * 
+	 * @return 経過時間(ナノ秒)
+	 */
+	public long getElapsedTime()
+	{
+		return m_elapsed;
+	}
+}
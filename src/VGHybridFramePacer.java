@@ -0,0 +1,84 @@
+package com.github.isle_shimakura.videogame;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <code>LockSupport.parkNanos</code>で大まかに待機した後、
+ * 残りの時間をスピンウェイトで待機する<code>VGFramePacer</code>です。<br>
+ * <br>
+ * スピンウェイトする時間(スピンバジェット)を大きくするほど誤差は小さくなりますが、
+ * その分CPUを消費します。
+ * 
+ * @see VGSleepFramePacer
+ */
+public class VGHybridFramePacer extends VGFramePacer
+{
+	/**
+	 * デフォルトのスピンバジェット(ナノ秒)
+	 */
+	public static final long DEFAULT_SPIN_BUDGET = 1000000L;
+
+	/**
+	 * スピンバジェット(ナノ秒)
+	 */
+	private volatile long m_spin_budget;
+
+	/**
+	 * 新しい<code>VGHybridFramePacer</code>オブジェクトを構築します。
+	 * 
+	 * @param spin_budget
+	 *            - スピンバジェット(ナノ秒)
+	 */
+	public VGHybridFramePacer(long spin_budget)
+	{
+		setSpinBudget(spin_budget);
+	}
+
+	/**
+	 * 新しい<code>VGHybridFramePacer</code>オブジェクトをデフォルトのスピンバジェットで構築します。
+	 */
+	public VGHybridFramePacer()
+	{
+		this(DEFAULT_SPIN_BUDGET);
+	}
+
+	/**
+	 * スピンバジェットを設定します。
+	 * 
+	 * @param spin_budget
+	 *            - スピンバジェット(ナノ秒)
+	 */
+	public void setSpinBudget(long spin_budget)
+	{
+		if (spin_budget < 0) {
+			throw new IllegalArgumentException("spin_budget: " + spin_budget);
+		}
+		m_spin_budget = spin_budget;
+	}
+
+	/**
+	 * スピンバジェットを返します。
+	 * 
+	 * @return スピンバジェット(ナノ秒)
+	 */
+	public long getSpinBudget()
+	{
+		return m_spin_budget;
+	}
+
+	@Override
+	protected void waitUntil(long deadline) throws InterruptedException
+	{
+		long spin_budget = m_spin_budget;
+		long remain;
+		while ((remain = deadline - System.nanoTime()) > spin_budget) {
+			LockSupport.parkNanos(remain - spin_budget);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		while (deadline - System.nanoTime() > 0) {
+			// スピンウェイト
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package com.github.isle_shimakura.videogame;
+
+import java.util.ArrayList;
+
+/**
+ * フレームの処理時間に応じて描画品質を調整するクラスです。<br>
+ * <br>
+ * 更新と描画にかかった時間の移動平均がフレームの時間の上限の割合を超えるか、
+ * フレームをスキップすると、登録された<code>VGQualityStep</code>を登録順に1段階ずつ適用します。
+ * 移動平均が下限の割合を下回った状態が続くと、逆の順に1段階ずつ元に戻します。
+ * 
+ * @see VGCanvas#setQualityController
+ */
+public class VGQualityController
+{
+	/**
+	 * 段階を変更した後、次に変更できるようになるまでのフレーム数
+	 */
+	private static final int COOLDOWN_FRAMES = 30;
+
+	/**
+	 * 登録された<code>VGQualityStep</code>
+	 */
+	private final ArrayList<VGQualityStep> m_steps = new ArrayList<VGQualityStep>();
+	/**
+	 * 適用中の段階の数
+	 */
+	private volatile int m_level;
+
+	/**
+	 * 品質を下げる処理時間の割合
+	 */
+	private double m_degrade_ratio = 0.9;
+	/**
+	 * 品質を戻す処理時間の割合
+	 */
+	private double m_restore_ratio = 0.6;
+	/**
+	 * 品質を戻すまでに余裕のある状態が続く必要があるフレーム数
+	 */
+	private int m_restore_frames = 120;
+
+	/**
+	 * 処理時間の移動平均(ナノ秒)
+	 */
+	private long m_average;
+	/**
+	 * 次に段階を変更できるようになるまでのフレーム数
+	 */
+	private int m_cooldown;
+	/**
+	 * 余裕のある状態が続いているフレーム数
+	 */
+	private int m_calm;
+
+	//----------------------------------------------------------
+	//  設定
+	//----------------------------------------------------------
+
+	/**
+	 * 描画品質の調整段階を追加します。<br>
+	 * コールバックを開始する前に呼び出してください。
+	 * 
+	 * @param step
+	 *            - 追加する<code>VGQualityStep</code>
+	 */
+	public void addStep(VGQualityStep step)
+	{
+		if (step == null) {
+			throw new NullPointerException("step");
+		}
+		m_steps.add(step);
+	}
+
+	/**
+	 * 品質を変更する処理時間の割合を設定します。
+	 * 
+	 * @param degrade_ratio
+	 *            - 品質を下げるフレームの時間に対する割合
+	 * @param restore_ratio
+	 *            - 品質を戻すフレームの時間に対する割合
+	 */
+	public void setThresholds(double degrade_ratio, double restore_ratio)
+	{
+		if (restore_ratio <= 0 || restore_ratio >= degrade_ratio) {
+			throw new IllegalArgumentException("restore_ratio: " + restore_ratio);
+		}
+		m_degrade_ratio = degrade_ratio;
+		m_restore_ratio = restore_ratio;
+	}
+
+	/**
+	 * 品質を戻すまでに余裕のある状態が続く必要があるフレーム数を設定します。
+	 * 
+	 * @param frames
+	 *            - フレーム数
+	 */
+	public void setRestoreDelay(int frames)
+	{
+		if (frames < 1) {
+			throw new IllegalArgumentException("frames: " + frames);
+		}
+		m_restore_frames = frames;
+	}
+
+	/**
+	 * 適用中の段階の数を返します。
+	 * 
+	 * @return 適用中の段階の数。0のとき最高品質
+	 */
+	public int getLevel()
+	{
+		return m_level;
+	}
+
+	//----------------------------------------------------------
+	//  調整
+	//----------------------------------------------------------
+
+	/**
+	 * フレームの処理時間を通知します。<br>
+	 * 描画を行うスレッドからフレームごとに呼び出されます。
+	 * 
+	 * @param cost
+	 *            - 更新と描画にかかった時間(ナノ秒)
+	 * @param budget
+	 *            - フレームの時間(ナノ秒)
+	 * @param skipped
+	 *            - スキップしたフレーム数
+	 */
+	public void frame(long cost, long budget, int skipped)
+	{
+		m_average += (cost - m_average) / 8;
+		if (m_cooldown > 0) {
+			m_cooldown --;
+			return;
+		}
+
+		int level = m_level;
+		if (skipped > 0 || m_average > budget * m_degrade_ratio) {
+			m_calm = 0;
+			if (level < m_steps.size()) {
+				m_steps.get(level).degrade();
+				m_level = level + 1;
+				m_cooldown = COOLDOWN_FRAMES;
+			}
+		}
+		else if (m_average < budget * m_restore_ratio) {
+			if (++m_calm >= m_restore_frames && level > 0) {
+				m_steps.get(level - 1).restore();
+				m_level = level - 1;
+				m_cooldown = COOLDOWN_FRAMES;
+				m_calm = 0;
+			}
+		}
+		else {
+			m_calm = 0;
+		}
+	}
+
+	/**
+	 * 適用中のすべての段階を元に戻します。<br>
+	 * 描画を行うスレッドから呼び出してください。
+	 */
+	public void reset()
+	{
+		while (m_level > 0) {
+			m_level --;
+			m_steps.get(m_level).restore();
+		}
+		m_average = 0;
+		m_cooldown = 0;
+		m_calm = 0;
+	}
+}
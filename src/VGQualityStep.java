@@ -0,0 +1,21 @@
+package com.github.isle_shimakura.videogame;
+
+/**
+ * <code>VGQualityController</code>が適用する描画品質の調整段階のインターフェースです。
+ * 
+ * @see VGQualityController#addStep
+ */
+public interface VGQualityStep
+{
+	/**
+	 * 描画品質を下げて処理を軽くします。<br>
+	 * 描画を行うスレッドから呼び出されます。
+	 */
+	public void degrade();
+
+	/**
+	 * <code>degrade</code>で下げた描画品質を元に戻します。<br>
+	 * 描画を行うスレッドから呼び出されます。
+	 */
+	public void restore();
+}
@@ -0,0 +1,21 @@
+package com.github.isle_shimakura.videogame;
+
+/**
+ * <code>Thread.sleep</code>だけで待機する<code>VGFramePacer</code>です。<br>
+ * <br>
+ * CPUをほとんど消費しませんが、待機時間はミリ秒単位に切り捨てられ、
+ * OSのタイマー精度によっては1～2ミリ秒程度の誤差が生じます。
+ * 
+ * @see VGHybridFramePacer
+ */
+public class VGSleepFramePacer extends VGFramePacer
+{
+	@Override
+	protected void waitUntil(long deadline) throws InterruptedException
+	{
+		long remain;
+		while ((remain = deadline - System.nanoTime()) > 0) {
+			Thread.sleep(remain / 1000000L, 0);
+		}
+	}
+}
@@ -1,9 +1,14 @@
 package com.github.isle_shimakura.videogame;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
 import java.awt.Image;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 
 /**
  * 固定サイズのオフスクリーンを描画対象に指定できる<code>VGCanvas</code>のサブクラスです。<br>
@@ -16,10 +21,76 @@ import java.awt.event.ComponentListener;
 @SuppressWarnings("serial")
 public abstract class VGStretchCanvas extends VGCanvas implements ComponentListener
 {
+	/**
+	 * <code>Component.createImage</code>で作成したイメージをオフスクリーンに使うことを示す値
+	 */
+	public static final int OFFSCREEN_IMAGE    = 0;
+	/**
+	 * <code>VolatileImage</code>をオフスクリーンに使うことを示す値<br>
+	 * 拡大描画までアクセラレーションされたまま行うことができます。
+	 */
+	public static final int OFFSCREEN_VOLATILE = 1;
+
 	/**
 	 * オフスクリーン用<code>Image</code>
 	 */
 	private Image offscreen;
+	/**
+	 * オフスクリーン用<code>VolatileImage</code>
+	 */
+	private VolatileImage volatile_offscreen;
+	/**
+	 * オフスクリーンの種類
+	 */
+	private int offscreen_type;
+	/**
+	 * 使い回すオフスクリーンの<code>Graphics</code>
+	 */
+	private Graphics2D offscreen_graphics;
+	/**
+	 * <code>offscreen_graphics</code>の描画先のオフスクリーン
+	 */
+	private Image offscreen_graphics_image;
+	/**
+	 * <code>offscreen_graphics</code>の作成直後の描画属性
+	 */
+	private VGGraphicsState offscreen_state;
+	/**
+	 * 直前に描画したオフスクリーンの範囲
+	 */
+	private int width_source, height_source;
+
+	/**
+	 * 比率を維持してできるだけ大きく拡大することを示す値
+	 * @see #setScaleMode
+	 */
+	public static final int SCALE_ASPECT  = 0;
+	/**
+	 * 比率を維持して整数倍に拡大し、最近傍補間で描画することを示す値
+	 * @see #setScaleMode
+	 */
+	public static final int SCALE_INTEGER = 1;
+
+	/**
+	 * 拡大方法
+	 */
+	private volatile int scale_mode = SCALE_ASPECT;
+	/**
+	 * 描画位置を計算し直すフラグ
+	 */
+	private volatile boolean layout_dirty = true;
+	/**
+	 * 描画位置を計算したときのコンポーネントのサイズ
+	 */
+	private int layout_width, layout_height;
+	/**
+	 * 描画位置を計算したときの拡大方法
+	 */
+	private int layout_mode;
+	/**
+	 * 余白を消去する必要のあるバッファの数
+	 */
+	private int clear_count;
 	/**
 	 * オフスクリーンのサイズ
 	 */
@@ -34,6 +105,11 @@ public abstract class VGStretchCanvas extends VGCanvas implements ComponentListe
 	 */
 	private int width_render, height_render;
 
+	/**
+	 * オフスクリーンに描画する解像度の倍率
+	 */
+	private volatile float render_scale = 1.0f;
+
 	/**
 	 * ビデオゲームフレームの描画のために呼び出されます。
 	 * 
@@ -42,21 +118,377 @@ public abstract class VGStretchCanvas extends VGCanvas implements ComponentListe
 	 */
 	protected abstract void frameStretchRender(Graphics g);
 
+	/**
+	 * 補間係数を指定してビデオゲームフレームの描画のために呼び出されます。<br>
+	 * デフォルトの実装は<code>frameStretchRender(Graphics)</code>を呼び出します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param alpha
+	 *            - 補間係数
+	 * @see VGCanvas#frameRender(Graphics, float)
+	 */
+	protected void frameStretchRender(Graphics g, float alpha)
+	{
+		frameStretchRender(g);
+	}
+
+	/**
+	 * <code>frameStretchRender</code>が1.0未満の解像度の倍率に対応しているかを返します。<br>
+	 * 対応するサブクラスは、<code>getRenderWidth</code>×<code>getRenderHeight</code>の範囲に
+	 * フレーム全体を縮小して描画するようにしたうえで、このメソッドをオーバーライドして<code>true</code>を返します。
+	 * デフォルトの実装は<code>false</code>を返します。
+	 * 
+	 * @return 対応しているときはtrue
+	 * @see #setRenderScale
+	 * @see #createResolutionStep
+	 */
+	protected boolean supportsRenderScale()
+	{
+		return false;
+	}
+
 	@Override
 	protected final void frameRender(Graphics g)
 	{
+		frameRender(g, 1.0f);
+	}
+
+	@Override
+	protected final void frameRender(Graphics g, float alpha)
+	{
+		if (offscreen_type == OFFSCREEN_VOLATILE) {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			if (gc != null) {
+				renderVolatile(g, gc, alpha);
+				return;
+			}
+		}
 		if (offscreen == null) {
 			offscreen = createImage(offscreen_width, offscreen_height);
+			if (offscreen == null) {
+				// 表示されていないコンポーネントではイメージを作成できない
+				offscreen = new BufferedImage(offscreen_width, offscreen_height, BufferedImage.TYPE_INT_RGB);
+			}
+		}
+		renderOffscreen(offscreen, alpha);
+		blitOffscreen(g, offscreen);
+	}
+
+	/**
+	 * <code>VolatileImage</code>のオフスクリーンに描画して拡大表示します。<br>
+	 * オフスクリーンの内容が失われたときは描き直します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param gc
+	 *            - 表示先の<code>GraphicsConfiguration</code>
+	 * @param alpha
+	 *            - 補間係数
+	 */
+	private void renderVolatile(Graphics g, GraphicsConfiguration gc, float alpha)
+	{
+		do {
+			int valid = volatile_offscreen == null ? VolatileImage.IMAGE_INCOMPATIBLE : volatile_offscreen.validate(gc);
+			if (valid != VolatileImage.IMAGE_OK) {
+				releaseOffscreenGraphics();
+			}
+			if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (volatile_offscreen != null) {
+					volatile_offscreen.flush();
+				}
+				volatile_offscreen = gc.createCompatibleVolatileImage(offscreen_width, offscreen_height);
+			}
+			// 毎フレーム全体を描き直すので、復元された場合もそのまま描画する
+			renderOffscreen(volatile_offscreen, alpha);
+			if (volatile_offscreen.contentsLost()) continue;
+			blitOffscreen(g, volatile_offscreen);
+		} while (volatile_offscreen.contentsLost());
+	}
+
+	/**
+	 * オフスクリーンにビデオゲームフレームを描画します。
+	 * 
+	 * @param image
+	 *            - オフスクリーン
+	 * @param alpha
+	 *            - 補間係数
+	 */
+	private void renderOffscreen(Image image, float alpha)
+	{
+		width_source = offscreen_width;
+		height_source = offscreen_height;
+		Graphics2D og = getOffscreenGraphics(image);
+		float scale = render_scale;
+		if (scale < 1.0f && supportsRenderScale()) {
+			// オフスクリーンの左上の一部だけを描画させる。
+			// 座標変換で縮小するとイメージの描画が変換付きの遅い処理になるため、縮小はサブクラスに任せる
+			width_source = Math.max(1, Math.round(offscreen_width * scale));
+			height_source = Math.max(1, Math.round(offscreen_height * scale));
+			og.clipRect(0, 0, width_source, height_source);
+		}
+		frameStretchRender(og, alpha);
+	}
+
+	/**
+	 * オフスクリーンの<code>Graphics</code>を返します。<br>
+	 * フレームごとに作成せずに使い回し、描画属性だけを作成直後の状態に戻します。
+	 * 
+	 * @param image
+	 *            - オフスクリーン
+	 * @return オフスクリーンに描画する<code>Graphics2D</code>
+	 */
+	private Graphics2D getOffscreenGraphics(Image image)
+	{
+		if (offscreen_graphics == null || offscreen_graphics_image != image) {
+			releaseOffscreenGraphics();
+			offscreen_graphics = (Graphics2D)image.getGraphics();
+			offscreen_graphics_image = image;
+			offscreen_state = new VGGraphicsState(offscreen_graphics, offscreen_width, offscreen_height);
+		}
+		else {
+			offscreen_state.restore(offscreen_graphics);
+		}
+		return offscreen_graphics;
+	}
+
+	/**
+	 * 使い回しているオフスクリーンの<code>Graphics</code>を破棄します。
+	 */
+	private void releaseOffscreenGraphics()
+	{
+		if (offscreen_graphics != null) {
+			offscreen_graphics.dispose();
+			offscreen_graphics = null;
+			offscreen_graphics_image = null;
+			offscreen_state = null;
+		}
+	}
+
+	/**
+	 * オフスクリーンを拡大して描画します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param image
+	 *            - オフスクリーン
+	 */
+	private void blitOffscreen(Graphics g, Image image)
+	{
+		int w = getWidth();
+		int h = getHeight();
+		int mode = scale_mode;
+		if (layout_dirty || w != layout_width || h != layout_height || mode != layout_mode) {
+			layout_dirty = false;
+			updateLayout(w, h, mode);
+		}
+		if (clear_count > 0) {
+			// 余白は変化したときだけ各バッファで一度ずつ消去する
+			clear_count --;
+			clearMargins(g, w, h);
 		}
-		Graphics og = offscreen.getGraphics();
-		frameStretchRender(og);
-		og.dispose();
-		g.clearRect(0, 0, getWidth(), getHeight());
 		if (width_render > 0 && height_render > 0) {
-			g.drawImage(offscreen, x_offs, y_offs, width_render, height_render, null);
+			if (mode == SCALE_INTEGER) {
+				((Graphics2D)g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+			}
+			g.drawImage(image, x_offs, y_offs, x_offs + width_render, y_offs + height_render, 0, 0, width_source, height_source, null);
 		}
 	}
 
+	/**
+	 * コンポーネントのサイズに合わせて描画位置とサイズを計算します。
+	 * 
+	 * @param w
+	 *            - コンポーネントの幅
+	 * @param h
+	 *            - コンポーネントの高さ
+	 * @param mode
+	 *            - 拡大方法
+	 */
+	private void updateLayout(int w, int h, int mode)
+	{
+		layout_width = w;
+		layout_height = h;
+		layout_mode = mode;
+
+		int scale = Math.min(w / offscreen_width, h / offscreen_height);
+		if (mode == SCALE_INTEGER && scale >= 1) {
+			width_render = offscreen_width * scale;
+			height_render = offscreen_height * scale;
+		}
+		else {
+			width_render = offscreen_width;
+			height_render = offscreen_height;
+			double rw = (double)w / width_render;
+			double rh = (double)h / height_render;
+			if (rw > rh) {
+				width_render *= rh;
+				height_render = h;
+			}
+			else {
+				width_render = w;
+				height_render *= rw;
+			}
+		}
+		x_offs = (w - width_render) / 2;
+		y_offs = (h - height_render) / 2;
+		clear_count = getBufferCount();
+	}
+
+	/**
+	 * 描画範囲の外側の余白を消去します。
+	 * 
+	 * @param g
+	 *            - 描画対象となる<code>Graphics</code>
+	 * @param w
+	 *            - コンポーネントの幅
+	 * @param h
+	 *            - コンポーネントの高さ
+	 */
+	private void clearMargins(Graphics g, int w, int h)
+	{
+		int right = x_offs + width_render;
+		int bottom = y_offs + height_render;
+		if (y_offs > 0) {
+			g.clearRect(0, 0, w, y_offs);
+		}
+		if (bottom < h) {
+			g.clearRect(0, bottom, w, h - bottom);
+		}
+		if (x_offs > 0) {
+			g.clearRect(0, y_offs, x_offs, height_render);
+		}
+		if (right < w) {
+			g.clearRect(right, y_offs, w - right, height_render);
+		}
+	}
+
+	@Override
+	void buffersRestored()
+	{
+		layout_dirty = true;
+	}
+
+	/**
+	 * オフスクリーンを拡大する方法を設定します。
+	 * 
+	 * @param mode
+	 *            - <code>SCALE_ASPECT</code>または<code>SCALE_INTEGER</code>
+	 */
+	public final void setScaleMode(int mode)
+	{
+		if (mode != SCALE_ASPECT && mode != SCALE_INTEGER) {
+			throw new IllegalArgumentException("mode: " + mode);
+		}
+		scale_mode = mode;
+	}
+
+	/**
+	 * オフスクリーンを拡大する方法を返します。
+	 * 
+	 * @return 拡大方法
+	 */
+	public final int getScaleMode()
+	{
+		return scale_mode;
+	}
+
+	/**
+	 * オフスクリーンに描画する解像度の倍率を設定します。<br>
+	 * 1.0未満を設定すると、オフスクリーンの左上の<code>getRenderWidth</code>×<code>getRenderHeight</code>の範囲だけを
+	 * 表示範囲全体に拡大して表示します。<br>
+	 * <code>frameStretchRender</code>はこの範囲に収まるようにフレーム全体を縮小して描画する必要があります。
+	 * <code>Graphics2D.scale</code>で縮小すると半透明のイメージの描画が変換付きの処理になり、
+	 * かえって遅くなるため、縮小した素材を使うなどして座標変換なしで描画してください。
+	 * 1.0未満の倍率は<code>supportsRenderScale</code>が<code>true</code>を返すときだけ設定できます。
+	 * 
+	 * @param scale
+	 *            - 解像度の倍率(0.0より大きく1.0以下)
+	 * @throws UnsupportedOperationException
+	 *            - 1.0未満の倍率を指定し、<code>supportsRenderScale</code>が<code>false</code>を返すとき
+	 */
+	public final void setRenderScale(float scale)
+	{
+		if (!(scale > 0.0f && scale <= 1.0f)) {
+			throw new IllegalArgumentException("scale: " + scale);
+		}
+		if (scale < 1.0f && !supportsRenderScale()) {
+			throw new UnsupportedOperationException("render scale is not supported");
+		}
+		render_scale = scale;
+	}
+
+	/**
+	 * オフスクリーンに描画する解像度の倍率を返します。
+	 * 
+	 * @return 解像度の倍率
+	 */
+	public final float getRenderScale()
+	{
+		return render_scale;
+	}
+
+	/**
+	 * 現在のフレームで描画するオフスクリーンの範囲の幅を返します。<br>
+	 * <code>frameStretchRender</code>の中から呼び出してください。
+	 * 
+	 * @return 描画する範囲の幅
+	 * @see #setRenderScale
+	 */
+	public final int getRenderWidth()
+	{
+		return width_source;
+	}
+
+	/**
+	 * 現在のフレームで描画するオフスクリーンの範囲の高さを返します。<br>
+	 * <code>frameStretchRender</code>の中から呼び出してください。
+	 * 
+	 * @return 描画する範囲の高さ
+	 * @see #setRenderScale
+	 */
+	public final int getRenderHeight()
+	{
+		return height_source;
+	}
+
+	/**
+	 * オフスクリーンの解像度を下げる<code>VGQualityStep</code>を作成します。<br>
+	 * <code>supportsRenderScale</code>が<code>true</code>を返すサブクラスだけが作成できます。
+	 * 
+	 * @param scale
+	 *            - 品質を下げたときの解像度の倍率
+	 * @return 解像度を下げる<code>VGQualityStep</code>
+	 * @throws UnsupportedOperationException
+	 *            - <code>supportsRenderScale</code>が<code>false</code>を返すとき
+	 */
+	public final VGQualityStep createResolutionStep(final float scale)
+	{
+		if (!(scale > 0.0f && scale <= 1.0f)) {
+			throw new IllegalArgumentException("scale: " + scale);
+		}
+		if (!supportsRenderScale()) {
+			throw new UnsupportedOperationException("render scale is not supported");
+		}
+		return new VGQualityStep() {
+			/**
+			 * 品質を下げる前の倍率
+			 */
+			private float m_saved;
+			@Override
+			public void degrade()
+			{
+				m_saved = getRenderScale();
+				setRenderScale(Math.min(m_saved, scale));
+			}
+			@Override
+			public void restore()
+			{
+				setRenderScale(m_saved);
+			}
+		};
+	}
+
 	/**
 	 * 新しい<code>VGStretchCanvas</code>オブジェクトを構築します。
 	 * 
@@ -68,17 +500,42 @@ public abstract class VGStretchCanvas extends VGCanvas implements ComponentListe
 	 *            - 単位時間あたりのフレーム数
 	 * @param unitms
 	 *            - 単位時間(ミリ秒)
+	 * @param buffers
+	 *            - <code>BufferStrategy</code>のバッファ数(2でダブルバッファ、3でトリプルバッファ)
+	 * @param type
+	 *            - オフスクリーンの種類(<code>OFFSCREEN_IMAGE</code>または<code>OFFSCREEN_VOLATILE</code>)
 	 */
-	public VGStretchCanvas(int width, int height, int frames, int unitms)
+	public VGStretchCanvas(int width, int height, int frames, int unitms, int buffers, int type)
 	{
-		super(frames, unitms);
+		super(frames, unitms, buffers);
 
+		if (type != OFFSCREEN_IMAGE && type != OFFSCREEN_VOLATILE) {
+			throw new IllegalArgumentException("type: " + type);
+		}
 		offscreen_width = width;
 		offscreen_height = height;
+		offscreen_type = type;
 
 		addComponentListener(this);
 	}
 
+	/**
+	 * 新しい<code>VGStretchCanvas</code>オブジェクトを構築します。
+	 * 
+	 * @param width
+	 *            - オフスクリーンの幅
+	 * @param height
+	 *            - オフスクリーンの高さ
+	 * @param frames
+	 *            - 単位時間あたりのフレーム数
+	 * @param unitms
+	 *            - 単位時間(ミリ秒)
+	 */
+	public VGStretchCanvas(int width, int height, int frames, int unitms)
+	{
+		this(width, height, frames, unitms, 2, OFFSCREEN_IMAGE);
+	}
+
 	/**
 	 * 新しい<code>VGStretchCanvas</code>オブジェクトを構築します。
 	 * 
@@ -124,22 +581,8 @@ public abstract class VGStretchCanvas extends VGCanvas implements ComponentListe
 	@Override
 	public void componentResized(ComponentEvent e)
 	{
-		int w = e.getComponent().getWidth();
-		int h = e.getComponent().getHeight();
-		width_render = offscreen_width;
-		height_render = offscreen_height;
-		double rw = (double)w / width_render;
-		double rh = (double)h / height_render;
-		if (rw > rh) {
-			width_render *= rh;
-			height_render = h;
-		}
-		else {
-			width_render = w;
-			height_render *= rw;
-		}
-		x_offs = (w - width_render) / 2;
-		y_offs = (h - height_render) / 2;
+		// 描画位置は次のフレームの描画の際にゲームスレッドで計算する
+		layout_dirty = true;
 	}
 
 	@Override
@@ -0,0 +1,36 @@
+package com.github.isle_shimakura.videogame.image;
+
+/**
+ * <code>VGRaster</code>へ画素を直接書き込んで描画できるイメージのインターフェースです。
+ */
+public interface IVGRasterImage extends IVGImage
+{
+	//----------------------------------------------------------
+	//  描画メソッド
+	//----------------------------------------------------------
+
+	/**
+	 * イメージを画素へ直接描画します。
+	 *
+	 * @param dst  描画先
+	 * @param x    X座標
+	 * @param y    Y座標
+	 * @param attr 描画属性
+	 *
+	 * @see VGRaster
+	 */
+	public void paint(VGRaster dst, int x, int y, int attr);
+	/**
+	 * 指定されたサイズでイメージを画素へ直接描画します。
+	 *
+	 * @param dst  描画先
+	 * @param x    X座標
+	 * @param y    Y座標
+	 * @param w    幅
+	 * @param h    高さ
+	 * @param attr 描画属性
+	 *
+	 * @see VGRaster
+	 */
+	public void paint(VGRaster dst, int x, int y, int w, int h, int attr);
+}
@@ -0,0 +1,433 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 複数のイメージを少数の大きなイメージ(シート)に詰めて配置し、配置した部分矩形を指す<code>VGImage</code>を作成します。<br>
+ * <br>
+ * 別々のイメージを描画するたびに転送元が切り替わるのを避け、イメージごとのメモリの無駄を減らすために使います。
+ * 配置はスカイライン法で行い、高さの大きい順に左下から詰めていきます。
+ * 1枚のシートに入りきらないときは新しいシートを追加します。
+ * 追加するイメージはすべての画素が読み込まれている必要があります。
+ *
+ * @see VGImage
+ * @see VGImageArray
+ */
+public final class VGAtlasBuilder
+{
+	/**
+	 * 追加されたイメージの部分矩形と配置先
+	 */
+	private static final class Entry
+	{
+		/**
+		 * 元イメージ
+		 */
+		final Image image;
+		/**
+		 * 元イメージ上の左端
+		 */
+		final int src_x;
+		/**
+		 * 元イメージ上の上端
+		 */
+		final int src_y;
+		/**
+		 * 幅
+		 */
+		final int width;
+		/**
+		 * 高さ
+		 */
+		final int height;
+		/**
+		 * 配置先のシートの番号
+		 */
+		int sheet;
+		/**
+		 * 配置先のシート上の左端
+		 */
+		int x;
+		/**
+		 * 配置先のシート上の上端
+		 */
+		int y;
+
+		Entry(Image image, int src_x, int src_y, int width, int height)
+		{
+			this.image  = image;
+			this.src_x  = src_x;
+			this.src_y  = src_y;
+			this.width  = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * 1枚のシートのスカイライン(上辺の輪郭)です。<br>
+	 * 左から順に並んだ区間ごとに、配置済みの矩形の下端のY座標を保持します。
+	 */
+	private static final class Skyline
+	{
+		/**
+		 * 区間の左端のX座標
+		 */
+		int[] xs = new int[1];
+		/**
+		 * 区間の配置済みの下端のY座標
+		 */
+		int[] ys = new int[1];
+		/**
+		 * 区間の数
+		 */
+		int count;
+		/**
+		 * 配置に使った領域の右端
+		 */
+		int used_width;
+		/**
+		 * 配置に使った領域の下端
+		 */
+		int used_height;
+		/**
+		 * 配置を探した結果の区間の番号
+		 */
+		int found_index;
+		/**
+		 * 配置を探した結果のY座標
+		 */
+		int found_y;
+
+		Skyline()
+		{
+			count = 1;
+		}
+	}
+
+	/**
+	 * シートの幅
+	 */
+	private int m_sheet_width;
+	/**
+	 * シートの高さ
+	 */
+	private int m_sheet_height;
+	/**
+	 * イメージの間に空ける画素数
+	 */
+	private int m_padding;
+	/**
+	 * シートを作成する<code>GraphicsConfiguration</code>(<code>null</code>のときは<code>TYPE_INT_ARGB</code>)
+	 */
+	private GraphicsConfiguration m_config;
+	/**
+	 * 追加されたイメージ
+	 */
+	private List<Entry> m_entries = new ArrayList<Entry>();
+	/**
+	 * 最後に作成したシート
+	 */
+	private BufferedImage[] m_sheets = new BufferedImage[0];
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGAtlasBuilder</code>オブジェクトを構築します。
+	 *
+	 * @param sheet_width  シートの最大の幅
+	 * @param sheet_height シートの最大の高さ
+	 */
+	public VGAtlasBuilder(int sheet_width, int sheet_height)
+	{
+		if (sheet_width <= 0 || sheet_height <= 0) {
+			throw new IllegalArgumentException("sheet size: " + sheet_width + "x" + sheet_height);
+		}
+		m_sheet_width  = sheet_width;
+		m_sheet_height = sheet_height;
+	}
+
+	//----------------------------------------------------------
+	//  設定
+	//----------------------------------------------------------
+
+	/**
+	 * イメージの間に空ける画素数を設定します。<br>
+	 * 拡大縮小して描画するときに隣のイメージがにじむのを防ぎます。
+	 *
+	 * @param padding 画素数
+	 */
+	public void setPadding(int padding)
+	{
+		if (padding < 0) {
+			throw new IllegalArgumentException("padding: " + padding);
+		}
+		m_padding = padding;
+	}
+
+	/**
+	 * シートを作成する<code>GraphicsConfiguration</code>を設定します。<br>
+	 * 設定するとシートは表示先と互換性のあるイメージとして作成されます。
+	 *
+	 * @param config <code>GraphicsConfiguration</code>(<code>null</code>のときは<code>TYPE_INT_ARGB</code>で作成)
+	 */
+	public void setGraphicsConfiguration(GraphicsConfiguration config)
+	{
+		m_config = config;
+	}
+
+	//----------------------------------------------------------
+	//  追加
+	//----------------------------------------------------------
+
+	/**
+	 * イメージ全体を追加します。
+	 *
+	 * @param image イメージ
+	 * @return <code>build</code>が返す配列でのインデックス番号
+	 * @throws IllegalArgumentException イメージの大きさがわからないとき、またはシートに入らないとき
+	 */
+	public int add(Image image)
+	{
+		return add(image, 0, 0, image.getWidth(null), image.getHeight(null));
+	}
+
+	/**
+	 * イメージの部分矩形を追加します。
+	 *
+	 * @param image  イメージ
+	 * @param left   部分矩形の左端
+	 * @param top    部分矩形の上端
+	 * @param width  部分矩形の幅
+	 * @param height 部分矩形の高さ
+	 * @return <code>build</code>が返す配列でのインデックス番号
+	 * @throws IllegalArgumentException 大きさが正しくないとき、またはシートに入らないとき
+	 */
+	public int add(Image image, int left, int top, int width, int height)
+	{
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("image size: " + width + "x" + height);
+		}
+		if (width > m_sheet_width || height > m_sheet_height) {
+			throw new IllegalArgumentException("image " + width + "x" + height + " does not fit in sheet " + m_sheet_width + "x" + m_sheet_height);
+		}
+		m_entries.add(new Entry(image, left, top, width, height));
+		return m_entries.size() - 1;
+	}
+
+	/**
+	 * 追加されたイメージの数を返します。
+	 *
+	 * @return イメージの数
+	 */
+	public int getImageCount()
+	{
+		return m_entries.size();
+	}
+
+	//----------------------------------------------------------
+	//  作成
+	//----------------------------------------------------------
+
+	/**
+	 * 追加されたイメージをシートに配置して描画し、配置した部分矩形を指す<code>VGImage</code>を作成します。<br>
+	 * 呼び出すたびに新しいシートが作成されます。
+	 *
+	 * @return 追加した順に並んだ<code>VGImage</code>の配列
+	 * @throws IllegalStateException イメージの読み込みが終わっていないとき
+	 */
+	public VGImage[] build()
+	{
+		List<Entry> order = new ArrayList<Entry>(m_entries);
+		// 高さ、幅の大きい順に配置すると隙間が少なくなる
+		Collections.sort(order, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b)
+			{
+				if (a.height != b.height) return b.height - a.height;
+				return b.width - a.width;
+			}
+		});
+
+		List<Skyline> skylines = new ArrayList<Skyline>();
+		for (Entry entry : order) {
+			int w = entry.width  + m_padding;
+			int h = entry.height + m_padding;
+			int sheet = 0;
+			for (; sheet < skylines.size(); ++sheet) {
+				if (find(skylines.get(sheet), w, h)) break;
+			}
+			if (sheet == skylines.size()) {
+				Skyline skyline = new Skyline();
+				skylines.add(skyline);
+				find(skyline, w, h);
+			}
+			Skyline skyline = skylines.get(sheet);
+			entry.sheet = sheet;
+			entry.x = skyline.xs[skyline.found_index];
+			entry.y = skyline.found_y;
+			place(skyline, skyline.found_index, entry.x, entry.y + h, w);
+			skyline.used_width  = Math.max(skyline.used_width,  entry.x + entry.width);
+			skyline.used_height = Math.max(skyline.used_height, entry.y + entry.height);
+		}
+
+		int transparency = Transparency.BITMASK;
+		for (Entry entry : m_entries) {
+			int t = (entry.image instanceof Transparency) ? ((Transparency)entry.image).getTransparency() : Transparency.TRANSLUCENT;
+			transparency = Math.max(transparency, t);
+		}
+		BufferedImage[] sheets = new BufferedImage[skylines.size()];
+		Graphics2D[] graphics = new Graphics2D[sheets.length];
+		try {
+			for (int i=0; i < sheets.length; ++i) {
+				// 使わなかった右端と下端は切り詰める
+				int w = skylines.get(i).used_width;
+				int h = skylines.get(i).used_height;
+				sheets[i] = (m_config != null) ? m_config.createCompatibleImage(w, h, transparency)
+						: new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+				graphics[i] = sheets[i].createGraphics();
+				graphics[i].setComposite(AlphaComposite.Src);
+			}
+			VGImage[] images = new VGImage[m_entries.size()];
+			for (int i=0; i < images.length; ++i) {
+				Entry e = m_entries.get(i);
+				if (!graphics[e.sheet].drawImage(e.image, e.x, e.y, e.x + e.width, e.y + e.height,
+						e.src_x, e.src_y, e.src_x + e.width, e.src_y + e.height, null)) {
+					throw new IllegalStateException("image " + i + " is not loaded yet");
+				}
+				images[i] = new VGImage(sheets[e.sheet], e.x, e.y, e.width, e.height);
+			}
+			m_sheets = sheets;
+			return images;
+		}
+		finally {
+			for (Graphics2D g : graphics) {
+				if (g != null) g.dispose();
+			}
+		}
+	}
+
+	/**
+	 * 追加されたイメージをシートに配置して、<code>VGImageArray</code>を作成します。
+	 *
+	 * @return 追加した順にインデックス番号が付いた<code>VGImageArray</code>
+	 * @see #build()
+	 */
+	public VGImageArray buildArray()
+	{
+		return new VGImageArray(build());
+	}
+
+	/**
+	 * 最後に<code>build</code>で作成したシートを返します。
+	 *
+	 * @return シートの配列
+	 */
+	public BufferedImage[] getSheets()
+	{
+		return m_sheets.clone();
+	}
+
+	//----------------------------------------------------------
+	//  スカイライン
+	//----------------------------------------------------------
+
+	/**
+	 * 矩形を配置できる最も低い位置を探します。<br>
+	 * 下端が同じときは左にある位置を選びます。
+	 * 見付かったときは<code>found_index</code>と<code>found_y</code>に結果を設定します。
+	 *
+	 * @param skyline スカイライン
+	 * @param w       余白を含めた幅
+	 * @param h       余白を含めた高さ
+	 * @return 配置できるときは<code>true</code>
+	 */
+	private boolean find(Skyline skyline, int w, int h)
+	{
+		// 最後の余白はシートからはみ出してもよい
+		int limit_x = m_sheet_width  + m_padding;
+		int limit_y = m_sheet_height + m_padding;
+		int best_bottom = Integer.MAX_VALUE;
+		for (int i=0; i < skyline.count; ++i) {
+			int x = skyline.xs[i];
+			if (x + w > limit_x) break;
+			// 矩形の幅に掛かる区間のうち最も高い位置に載せる
+			int y = 0;
+			for (int j=i; j < skyline.count && skyline.xs[j] < x + w; ++j) {
+				y = Math.max(y, skyline.ys[j]);
+			}
+			if (y + h <= limit_y && y + h < best_bottom) {
+				best_bottom = y + h;
+				skyline.found_index = i;
+				skyline.found_y = y;
+			}
+		}
+		return best_bottom != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * 配置した矩形の分だけスカイラインを更新します。<br>
+	 * 区間<code>i</code>は<code>xs[i]</code>から次の区間の左端まで(最後の区間はシートの右端の外まで)です。
+	 *
+	 * @param skyline スカイライン
+	 * @param index   矩形の左端の区間の番号
+	 * @param x       矩形の左端
+	 * @param bottom  余白を含めた矩形の下端
+	 * @param w       余白を含めた幅
+	 */
+	private static void place(Skyline skyline, int index, int x, int bottom, int w)
+	{
+		int right = x + w;
+		int count = skyline.count;
+		// 矩形に完全に隠れる区間を飛ばす
+		int end = index;
+		while (end + 1 < count && skyline.xs[end + 1] <= right) {
+			++end;
+		}
+		int[] xs = new int[count + 2];
+		int[] ys = new int[count + 2];
+		int n = 0;
+		for (int i=0; i < index; ++i, ++n) {
+			xs[n] = skyline.xs[i];
+			ys[n] = skyline.ys[i];
+		}
+		xs[n] = x;
+		ys[n] = bottom;
+		++n;
+		// 右端をまたぐ区間は矩形の右端から始める
+		int rest = end + 1;
+		if (skyline.xs[end] < right) {
+			xs[n] = right;
+			ys[n] = skyline.ys[end];
+			++n;
+		}
+		else {
+			rest = end;
+		}
+		for (int i=rest; i < count; ++i, ++n) {
+			xs[n] = skyline.xs[i];
+			ys[n] = skyline.ys[i];
+		}
+		// 同じ高さで隣り合う区間はまとめる
+		int m = 1;
+		for (int i=1; i < n; ++i) {
+			if (ys[i] == ys[m - 1]) continue;
+			xs[m] = xs[i];
+			ys[m] = ys[i];
+			++m;
+		}
+		skyline.xs = xs;
+		skyline.ys = ys;
+		skyline.count = m;
+	}
+}
@@ -0,0 +1,179 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * イメージ全体を反転した複製を、反転の組み合わせごとに作成して保持します。<br>
+ * <br>
+ * 反転した描画を複製からの通常の転送に置き換えるために使います。
+ * 複製はイメージごとに共有され、イメージが参照されなくなると破棄されます。
+ * 表の値から元イメージを参照すると表のキーが解放されなくなるため、元イメージは描画するときに受け取ります。
+ * 作成済みの複製はロックを使わずに参照し、複製を作成するときだけイメージごとにロックします。
+ */
+final class VGFlippedImages
+{
+	/**
+	 * イメージから反転した複製への表
+	 */
+	private static final Map<Image, VGFlippedImages> s_cache = new WeakHashMap<Image, VGFlippedImages>();
+
+	/**
+	 * 反転属性ごとの複製(作成したときは配列ごと置き換える)
+	 */
+	private volatile Image[] m_variants = new Image[4];
+	/**
+	 * 破棄されたかどうか(破棄された複製を参照しているときは取得し直す)
+	 */
+	volatile boolean m_flushed;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGFlippedImages</code>オブジェクトを構築します。
+	 */
+	private VGFlippedImages()
+	{
+	}
+
+	/**
+	 * イメージの反転した複製を返します。<br>
+	 * 返されたオブジェクトを保持しておく場合は、<code>m_flushed</code>が<code>true</code>になったら取得し直します。
+	 *
+	 * @param image 元イメージ
+	 * @return 反転した複製を保持するオブジェクト
+	 */
+	static synchronized VGFlippedImages get(Image image)
+	{
+		VGFlippedImages flipped = s_cache.get(image);
+		if (flipped == null) {
+			flipped = new VGFlippedImages();
+			s_cache.put(image, flipped);
+		}
+		return flipped;
+	}
+
+	//----------------------------------------------------------
+	//  描画
+	//----------------------------------------------------------
+
+	/**
+	 * 反転した複製を使ってイメージの部分矩形を描画します。<br>
+	 * 部分矩形は反転する前の元イメージ上の位置で指定します。
+	 *
+	 * @param g     グラフィックコンテキスト
+	 * @param image 元イメージ(<code>get</code>に渡したもの)
+	 * @param dx    描画先の左上のX座標
+	 * @param dy    描画先の左上のY座標
+	 * @param dw    描画する幅
+	 * @param dh    描画する高さ
+	 * @param sx    部分矩形の左端
+	 * @param sy    部分矩形の上端
+	 * @param sw    部分矩形の幅
+	 * @param sh    部分矩形の高さ
+	 * @param attr  描画属性(反転属性が1つ以上含まれていること)
+	 * @return 複製を作成できずに描画しなかったときは<code>false</code>
+	 */
+	boolean paint(Graphics g, Image image, int dx, int dy, int dw, int dh, int sx, int sy, int sw, int sh, int attr)
+	{
+		int flip = attr & (IVGImage.FLIP_HORIZONTAL | IVGImage.FLIP_VERTICAL);
+		Image flipped = m_variants[flip];
+		if (flipped == null) {
+			flipped = create(g, flip, image);
+			if (flipped == null) return false;
+		}
+		if ((attr & IVGImage.FLIP_HORIZONTAL) != 0) {
+			sx = flipped.getWidth(null) - sx - sw;
+		}
+		if ((attr & IVGImage.FLIP_VERTICAL) != 0) {
+			sy = flipped.getHeight(null) - sy - sh;
+		}
+		g.drawImage(flipped, dx, dy, dx + dw, dy + dh, sx, sy, sx + sw, sy + sh, null);
+		return true;
+	}
+
+	/**
+	 * 反転した複製を作成します。<br>
+	 * 描画先と互換性のあるイメージに反転して描画し、以後の描画で使えるように保持します。
+	 *
+	 * @param g     描画先のグラフィックコンテキスト
+	 * @param flip  反転属性(1～3)
+	 * @param image 元イメージ
+	 * @return 反転した複製(元イメージの大きさがわからないときや読み込み中のときは<code>null</code>)
+	 */
+	private synchronized Image create(Graphics g, int flip, Image image)
+	{
+		// 待っている間に別のスレッドが作成していることがある
+		Image[] variants = m_variants;
+		if (variants[flip] != null) {
+			return variants[flip];
+		}
+		int w = image.getWidth(null);
+		int h = image.getHeight(null);
+		if (w <= 0 || h <= 0) return null;
+
+		int transparency = (image instanceof Transparency) ? ((Transparency)image).getTransparency() : Transparency.TRANSLUCENT;
+		BufferedImage flipped;
+		if (g instanceof Graphics2D) {
+			GraphicsConfiguration gc = ((Graphics2D)g).getDeviceConfiguration();
+			flipped = gc.createCompatibleImage(w, h, transparency);
+		}
+		else {
+			flipped = new BufferedImage(w, h, (transparency == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		}
+		int sx1 = 0, sy1 = 0, sx2 = w, sy2 = h;
+		if ((flip & IVGImage.FLIP_HORIZONTAL) != 0) {
+			sx1 = w;
+			sx2 = 0;
+		}
+		if ((flip & IVGImage.FLIP_VERTICAL) != 0) {
+			sy1 = h;
+			sy2 = 0;
+		}
+		Graphics2D fg = flipped.createGraphics();
+		boolean done;
+		try {
+			fg.setComposite(AlphaComposite.Src);
+			done = fg.drawImage(image, 0, 0, w, h, sx1, sy1, sx2, sy2, null);
+		}
+		finally {
+			fg.dispose();
+		}
+		// 読み込み中のイメージは途中までしか描画されないため保持しない
+		if (!done) return null;
+
+		variants = variants.clone();
+		variants[flip] = flipped;
+		m_variants = variants;
+		return flipped;
+	}
+
+	/**
+	 * 反転した複製を破棄します。<br>
+	 * 次に描画するときに作成し直されます。
+	 *
+	 * @param image 元イメージ
+	 */
+	static void flush(Image image)
+	{
+		VGFlippedImages flipped;
+		synchronized (VGFlippedImages.class) {
+			flipped = s_cache.remove(image);
+		}
+		if (flipped != null) {
+			flipped.m_flushed = true;
+			for (Image variant : flipped.m_variants) {
+				if (variant != null) variant.flush();
+			}
+		}
+	}
+}
@@ -5,7 +5,7 @@ import java.awt.Graphics;
 /**
  * 複数の<code>VGImage<code>をインデックス番号で管理します。
  */
-public class VGImageArray implements IVGImageArray
+public class VGImageArray implements IVGRasterImageArray
 {
 	/**
 	 * イメージの配列
@@ -72,4 +72,28 @@ public class VGImageArray implements IVGImageArray
 	{
 		paint(g, m_index, x, y, w, h, attr);
 	}
+
+	@Override
+	public void paint(VGRaster dst, int index, int x, int y, int attr)
+	{
+		m_images[index].paint(dst, x, y, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int index, int x, int y, int w, int h, int attr)
+	{
+		m_images[index].paint(dst, x, y, w, h, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int x, int y, int attr)
+	{
+		paint(dst, m_index, x, y, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int x, int y, int w, int h, int attr)
+	{
+		paint(dst, m_index, x, y, w, h, attr);
+	}
 }
@@ -0,0 +1,103 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.Image;
+import java.awt.image.ImageObserver;
+import java.awt.image.PixelGrabber;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * イメージ全体をARGB形式の画素として取り込んだものです。<br>
+ * <br>
+ * 取り込んだ画素はイメージごとに共有され、イメージが参照されなくなると破棄されます。
+ * 取り込んだ後でイメージの内容が変わっても画素には反映されません。
+ */
+final class VGImagePixels
+{
+	/**
+	 * イメージから取り込んだ画素への表
+	 */
+	private static final Map<Image, VGImagePixels> s_cache = new WeakHashMap<Image, VGImagePixels>();
+
+	/**
+	 * ARGB形式の画素
+	 */
+	final int[] m_pixels;
+	/**
+	 * イメージの幅(画素の行の間隔)
+	 */
+	final int m_width;
+	/**
+	 * イメージの高さ
+	 */
+	final int m_height;
+	/**
+	 * 破棄されたかどうか(破棄された画素を参照しているときは取り込み直す)
+	 */
+	boolean m_flushed;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGImagePixels</code>オブジェクトを構築します。
+	 *
+	 * @param pixels ARGB形式の画素
+	 * @param width  イメージの幅
+	 * @param height イメージの高さ
+	 */
+	private VGImagePixels(int[] pixels, int width, int height)
+	{
+		m_pixels = pixels;
+		m_width  = width;
+		m_height = height;
+	}
+
+	//----------------------------------------------------------
+	//  取り込み
+	//----------------------------------------------------------
+
+	/**
+	 * イメージの画素を返します。<br>
+	 * 最初に呼ばれたときにイメージの読み込みを待って取り込み、以後は同じオブジェクトを返します。
+	 * 返されたオブジェクトを保持しておく場合は、<code>m_flushed</code>が<code>true</code>になったら取得し直します。
+	 *
+	 * @param image イメージ
+	 * @return 取り込んだ画素
+	 * @throws IllegalStateException イメージを取り込めなかったとき
+	 */
+	static synchronized VGImagePixels get(Image image)
+	{
+		VGImagePixels pixels = s_cache.get(image);
+		if (pixels == null) {
+			PixelGrabber grabber = new PixelGrabber(image, 0, 0, -1, -1, true);
+			try {
+				if (!grabber.grabPixels() || (grabber.getStatus() & ImageObserver.ABORT) != 0) {
+					throw new IllegalStateException("could not grab image pixels");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while grabbing image pixels", e);
+			}
+			pixels = new VGImagePixels((int[])grabber.getPixels(), grabber.getWidth(), grabber.getHeight());
+			s_cache.put(image, pixels);
+		}
+		return pixels;
+	}
+
+	/**
+	 * 取り込んだ画素を破棄します。<br>
+	 * 次に<code>get</code>が呼ばれたときに取り込み直されます。
+	 *
+	 * @param image イメージ
+	 */
+	static synchronized void flush(Image image)
+	{
+		VGImagePixels pixels = s_cache.remove(image);
+		if (pixels != null) {
+			pixels.m_flushed = true;
+		}
+	}
+}
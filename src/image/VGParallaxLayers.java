@@ -0,0 +1,412 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * 複数の<code>VGTilemap</code>をレイヤーとして重ね、視差スクロールで描画します。<br>
+ * <br>
+ * レイヤーは追加した順に奥から描画され、各レイヤーの原点はカメラの座標にレイヤーごとの
+ * スクロール係数を掛けた位置になります。<br>
+ * オクルージョンカリングが有効なときは、手前のレイヤーの不透明なタイル
+ * (<code>VGTilemap.setTileOpaque</code>で指定したもの)で完全に隠れるタイルを描画しません。
+ * 描画を省くのは<code>RENDER_DIRECT</code>のレイヤーだけですが、どの描画モードのレイヤーも
+ * 奥のレイヤーを隠すことができます。
+ */
+public final class VGParallaxLayers implements IVGImage
+{
+	/**
+	 * レイヤーのタイルマップ
+	 */
+	private VGTilemap[] m_layers = new VGTilemap[4];
+	/**
+	 * レイヤーごとの横方向のスクロール係数
+	 */
+	private float[] m_factor_x = new float[4];
+	/**
+	 * レイヤーごとの縦方向のスクロール係数
+	 */
+	private float[] m_factor_y = new float[4];
+	/**
+	 * レイヤーごとの描画しないタイルのフラグ
+	 */
+	private boolean[][] m_hidden = new boolean[4][];
+	/**
+	 * レイヤーの数
+	 */
+	private int m_count = 0;
+
+	/**
+	 * オクルージョンカリングを行うかどうか
+	 */
+	private boolean m_culling = true;
+	/**
+	 * 画面を覆う不透明なタイルが置かれた区画のフラグ
+	 */
+	private boolean[] m_coverage = new boolean[0];
+	/**
+	 * 前回の描画で省いたタイルの数
+	 */
+	private int m_culled = 0;
+
+	/**
+	 * カメラの座標
+	 */
+	private Point ptOrigin = new Point();
+	/**
+	 * 描画する対象矩形領域
+	 */
+	private Rectangle rcBounds = new Rectangle();
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGParallaxLayers</code>オブジェクトを構築します。
+	 */
+	public VGParallaxLayers()
+	{
+	}
+
+	//----------------------------------------------------------
+	//
+	//----------------------------------------------------------
+
+	@Override
+	public int getWidth()
+	{
+		return rcBounds.width;
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return rcBounds.height;
+	}
+
+	//----------------------------------------------------------
+	//  レイヤー
+	//----------------------------------------------------------
+
+	/**
+	 * いちばん手前にレイヤーを追加します。
+	 *
+	 * @param tilemap  タイルマップ
+	 * @param factor_x 横方向のスクロール係数(1.0でカメラと同じ速さ)
+	 * @param factor_y 縦方向のスクロール係数(1.0でカメラと同じ速さ)
+	 * @return レイヤー番号
+	 */
+	public int addLayer(VGTilemap tilemap, float factor_x, float factor_y)
+	{
+		if (tilemap == null) {
+			throw new IllegalArgumentException("tilemap is null");
+		}
+		if (m_count == m_layers.length) {
+			int length = m_count * 2;
+			m_layers   = Arrays.copyOf(m_layers, length);
+			m_factor_x = Arrays.copyOf(m_factor_x, length);
+			m_factor_y = Arrays.copyOf(m_factor_y, length);
+			m_hidden   = Arrays.copyOf(m_hidden, length);
+		}
+		m_layers[m_count] = tilemap;
+		m_factor_x[m_count] = factor_x;
+		m_factor_y[m_count] = factor_y;
+		return m_count++;
+	}
+
+	/**
+	 * レイヤーのタイルマップを返します。
+	 *
+	 * @param layer レイヤー番号
+	 * @return タイルマップ
+	 */
+	public VGTilemap getLayer(int layer)
+	{
+		checkLayer(layer);
+		return m_layers[layer];
+	}
+
+	/**
+	 * レイヤーの数を返します。
+	 *
+	 * @return レイヤーの数
+	 */
+	public int getLayerCount()
+	{
+		return m_count;
+	}
+
+	/**
+	 * レイヤーのスクロール係数を設定します。
+	 *
+	 * @param layer    レイヤー番号
+	 * @param factor_x 横方向のスクロール係数
+	 * @param factor_y 縦方向のスクロール係数
+	 */
+	public void setScrollFactor(int layer, float factor_x, float factor_y)
+	{
+		checkLayer(layer);
+		m_factor_x[layer] = factor_x;
+		m_factor_y[layer] = factor_y;
+	}
+
+	/**
+	 * レイヤー番号が範囲内にあるかを調べます。
+	 *
+	 * @param layer レイヤー番号
+	 */
+	private void checkLayer(int layer)
+	{
+		if (layer < 0 || layer >= m_count) {
+			throw new IndexOutOfBoundsException("layer: " + layer);
+		}
+	}
+
+	//----------------------------------------------------------
+	//  オクルージョンカリング
+	//----------------------------------------------------------
+
+	/**
+	 * オクルージョンカリングを行うかどうかを設定します。
+	 *
+	 * @param culling 行うときは<code>true</code>(デフォルト)
+	 */
+	public void setOcclusionCulling(boolean culling)
+	{
+		m_culling = culling;
+	}
+
+	/**
+	 * 前回の描画で隠れているために省いたタイルの数を返します。
+	 *
+	 * @return 省いたタイルの数
+	 */
+	public int getCulledTiles()
+	{
+		return m_culled;
+	}
+
+	//----------------------------------------------------------
+	//
+	//----------------------------------------------------------
+
+	/**
+	 * カメラの座標を設定します。
+	 *
+	 * @param x X座標(ピクセル単位)
+	 * @param y Y座標(ピクセル単位)
+	 */
+	public void setOrigin(int x, int y)
+	{
+		ptOrigin.setLocation(x, y);
+	}
+
+	/**
+	 * 描画する位置とサイズを指定します。
+	 *
+	 * @param x 左上のX座標
+	 * @param y 左上のY座標
+	 * @param w 幅
+	 * @param h 高さ
+	 */
+	public void setBounds(int x, int y, int w, int h)
+	{
+		rcBounds.setBounds(x, y, w, h);
+	}
+
+	/**
+	 * 描画する位置を指定します。
+	 *
+	 * @param x 左上のX座標
+	 * @param y 左上のY座標
+	 */
+	public void setLocation(int x, int y)
+	{
+		rcBounds.setLocation(x, y);
+	}
+
+	/**
+	 * 描画するサイズを指定します。
+	 *
+	 * @param w 幅
+	 * @param h 高さ
+	 */
+	public void setSize(int w, int h)
+	{
+		rcBounds.setSize(w, h);
+	}
+
+	//----------------------------------------------------------
+	//  描画メソッド
+	//----------------------------------------------------------
+
+	@Override
+	public void paint(Graphics g, int x, int y, int w, int h, int attr)
+	{
+		m_culled = 0;
+		for (int i=0; i < m_count; ++i) {
+			m_layers[i].setOrigin((int)Math.floor(ptOrigin.x * m_factor_x[i]), (int)Math.floor(ptOrigin.y * m_factor_y[i]));
+		}
+		boolean culling = m_culling && w > 0 && h > 0 && cull(w, h);
+		for (int i=0; i < m_count; ++i) {
+			m_layers[i].paint(g, x, y, w, h, attr, culling ? m_hidden[i] : null);
+		}
+	}
+
+	@Override
+	public void paint(Graphics g, int x, int y, int attr)
+	{
+		paint(g, x, y, rcBounds.width, rcBounds.height, attr);
+	}
+
+	/**
+	 * イメージを描画します。<br>
+	 * あらかじめ設定された位置と大きさの領域に描画します。
+	 *
+	 * @param g グラフィックコンテキスト
+	 * @param attr 描画属性
+	 */
+	public void paint(Graphics g, int attr)
+	{
+		paint(g, rcBounds.x, rcBounds.y, rcBounds.width, rcBounds.height, attr);
+	}
+
+	/**
+	 * 手前のレイヤーから順に、不透明なタイルで覆われた区画を記録しながら隠れているタイルを調べます。<br>
+	 * 区画の大きさはいちばん小さいタイルの大きさです。反転属性はすべてのレイヤーに同じように
+	 * 掛かるため、反転前の配置で調べます。
+	 *
+	 * @param w 幅
+	 * @param h 高さ
+	 * @return 隠れているタイルがあれば<code>true</code>
+	 */
+	private boolean cull(int w, int h)
+	{
+		int cell_w = Integer.MAX_VALUE;
+		int cell_h = Integer.MAX_VALUE;
+		for (int i=0; i < m_count; ++i) {
+			cell_w = Math.min(cell_w, m_layers[i].getTileWidth());
+			cell_h = Math.min(cell_h, m_layers[i].getTileHeight());
+		}
+		int cols = (w + cell_w - 1) / cell_w;
+		int rows = (h + cell_h - 1) / cell_h;
+		if (m_coverage.length < cols * rows) {
+			m_coverage = new boolean[cols * rows];
+		}
+		else {
+			Arrays.fill(m_coverage, 0, cols * rows, false);
+		}
+
+		boolean covered_any = false;
+		for (int i=m_count - 1; i >= 0; --i) {
+			VGTilemap layer = m_layers[i];
+			int tw = layer.getTileWidth();
+			int th = layer.getTileHeight();
+			int map_width  = layer.getMapWidth();
+			int map_height = layer.getMapHeight();
+			int scrollx = Math.floorMod((int)Math.floor(ptOrigin.x * m_factor_x[i]), tw * map_width);
+			int scrolly = Math.floorMod((int)Math.floor(ptOrigin.y * m_factor_y[i]), th * map_height);
+			// VGTilemap.paintDirectと同じ並びでビューポートに見えているタイルを数える
+			int ix0 = scrollx / tw;
+			int dx0 = -(scrollx % tw);
+			int xx_num = (w - dx0 + tw - 1) / tw;
+			int iy0 = scrolly / th;
+			int dy0 = -(scrolly % th);
+			int yy_num = (h - dy0 + th - 1) / th;
+			boolean direct = layer.getRenderMode() == VGTilemap.RENDER_DIRECT;
+			boolean[] hidden = m_hidden[i];
+			if (hidden == null || hidden.length < xx_num * yy_num) {
+				hidden = new boolean[xx_num * yy_num];
+				m_hidden[i] = hidden;
+			}
+
+			// 先にこのレイヤーの隠れているタイルを調べてから、このレイヤーの不透明なタイルで覆う
+			for (int pass=0; pass < 2; ++pass) {
+				int index = 0;
+				int iy = iy0;
+				for (int yy=0; yy < yy_num; ++yy) {
+					int y1 = Math.max(0, dy0 + yy * th);
+					int y2 = Math.min(h, dy0 + yy * th + th);
+					int ix = ix0;
+					for (int xx=0; xx < xx_num; ++xx, ++index) {
+						int x1 = Math.max(0, dx0 + xx * tw);
+						int x2 = Math.min(w, dx0 + xx * tw + tw);
+						if (pass == 0) {
+							hidden[index] = covered_any && isCovered(x1, y1, x2, y2, cell_w, cell_h, cols);
+							if (hidden[index] && direct && layer.getCodeAttr(ix, iy) != -1) {
+								++m_culled;
+							}
+						}
+						else if (!hidden[index]) {
+							int codeattr = layer.getCodeAttr(ix, iy);
+							if (codeattr != -1 && layer.isTileOpaque(layer.resolveCode(codeattr & 0xffff))) {
+								cover(x1, y1, x2, y2, w, h, cell_w, cell_h, cols, rows);
+								covered_any = true;
+							}
+						}
+						if (++ix >= map_width) ix = 0;
+					}
+					if (++iy >= map_height) iy = 0;
+				}
+			}
+		}
+		return covered_any;
+	}
+
+	/**
+	 * 矩形と重なる区画がすべて覆われているかを返します。
+	 *
+	 * @param x1     矩形の左端
+	 * @param y1     矩形の上端
+	 * @param x2     矩形の右端
+	 * @param y2     矩形の下端
+	 * @param cell_w 区画の幅
+	 * @param cell_h 区画の高さ
+	 * @param cols   横方向の区画の数
+	 * @return すべて覆われているときは<code>true</code>
+	 */
+	private boolean isCovered(int x1, int y1, int x2, int y2, int cell_w, int cell_h, int cols)
+	{
+		if (x2 <= x1 || y2 <= y1) return true;
+		int cx2 = (x2 - 1) / cell_w;
+		int cy2 = (y2 - 1) / cell_h;
+		for (int cy=y1 / cell_h; cy <= cy2; ++cy) {
+			for (int cx=x1 / cell_w; cx <= cx2; ++cx) {
+				if (!m_coverage[cy * cols + cx]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 矩形に完全に含まれる区画を覆われたものとして記録します。<br>
+	 * ビューポートの右端と下端の区画はビューポートの内側の部分だけで判定します。
+	 *
+	 * @param x1     矩形の左端
+	 * @param y1     矩形の上端
+	 * @param x2     矩形の右端
+	 * @param y2     矩形の下端
+	 * @param w      ビューポートの幅
+	 * @param h      ビューポートの高さ
+	 * @param cell_w 区画の幅
+	 * @param cell_h 区画の高さ
+	 * @param cols   横方向の区画の数
+	 * @param rows   縦方向の区画の数
+	 */
+	private void cover(int x1, int y1, int x2, int y2, int w, int h, int cell_w, int cell_h, int cols, int rows)
+	{
+		if (x2 <= x1 || y2 <= y1) return;
+		int cx1 = (x1 + cell_w - 1) / cell_w;
+		int cy1 = (y1 + cell_h - 1) / cell_h;
+		int cx2 = (x2 == w) ? cols : x2 / cell_w;
+		int cy2 = (y2 == h) ? rows : y2 / cell_h;
+		for (int cy=cy1; cy < cy2; ++cy) {
+			for (int cx=cx1; cx < cx2; ++cx) {
+				m_coverage[cy * cols + cx] = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * <code>int</code>の配列の画素へJava2Dを使わずに描画するための描画先です。<br>
+ * <br>
+ * <code>IVGRasterImage</code>を実装したイメージは、元イメージから取り込んだ画素をこの描画先へ直接書き込みます。
+ * 小さなイメージを大量に描画するとき、<code>Graphics.drawImage</code>の呼び出しごとの処理を省くことができます。
+ * 描画先の画素はARGB形式(アルファ値を持たないときはRGB形式)で、行ごとに並んでいるものとします。<br>
+ * 取り込んだ画素は元イメージごとに共有されます。元イメージを書き換えたときは<code>VGImage.flushCaches</code>で破棄してください。
+ *
+ * @see VGImage#flushCaches(java.awt.Image)
+ */
+public final class VGRaster
+{
+	/**
+	 * 描画先の画素
+	 */
+	final int[] m_pixels;
+	/**
+	 * 原点(0, 0)の画素の位置
+	 */
+	final int m_base;
+	/**
+	 * 行の間隔
+	 */
+	final int m_scan;
+	/**
+	 * 描画先の幅
+	 */
+	final int m_width;
+	/**
+	 * 描画先の高さ
+	 */
+	final int m_height;
+	/**
+	 * 描画先がアルファ値を持つかどうか
+	 */
+	final boolean m_alpha;
+	/**
+	 * クリップ領域の左端のX座標
+	 */
+	int m_clip_x1;
+	/**
+	 * クリップ領域の上端のY座標
+	 */
+	int m_clip_y1;
+	/**
+	 * クリップ領域の右端のX座標(この列を含まない)
+	 */
+	int m_clip_x2;
+	/**
+	 * クリップ領域の下端のY座標(この行を含まない)
+	 */
+	int m_clip_y2;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * イメージの画素へ描画する<code>VGRaster</code>オブジェクトを構築します。<br>
+	 * イメージの画素の配列を直接参照するため、以後Java2Dによる高速化の対象から外れることがあります。
+	 *
+	 * @param image 描画先のイメージ(<code>TYPE_INT_RGB</code>か<code>TYPE_INT_ARGB</code>)
+	 * @throws IllegalArgumentException 描画先の形式に対応していないとき
+	 */
+	public VGRaster(BufferedImage image)
+	{
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+			throw new IllegalArgumentException("unsupported image type: " + type);
+		}
+		WritableRaster raster = image.getRaster();
+		DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+		m_scan = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride();
+		m_base = buffer.getOffset() - raster.getSampleModelTranslateY() * m_scan - raster.getSampleModelTranslateX();
+		m_pixels = buffer.getData();
+		m_width  = image.getWidth();
+		m_height = image.getHeight();
+		m_alpha  = (type == BufferedImage.TYPE_INT_ARGB);
+		resetClip();
+	}
+
+	/**
+	 * <code>int</code>の配列へ描画する<code>VGRaster</code>オブジェクトを構築します。
+	 *
+	 * @param pixels 描画先の画素
+	 * @param offset 左上の画素の位置
+	 * @param scan   行の間隔
+	 * @param width  描画先の幅
+	 * @param height 描画先の高さ
+	 * @param alpha  画素がアルファ値を持つときは<code>true</code>
+	 * @throws IllegalArgumentException 画素の配列に収まらない大きさが指定されたとき
+	 */
+	public VGRaster(int[] pixels, int offset, int scan, int width, int height, boolean alpha)
+	{
+		if (width < 0 || height < 0 || offset < 0 || scan < width
+				|| (height > 0 && offset + (long)(height - 1) * scan + width > pixels.length)) {
+			throw new IllegalArgumentException("raster " + width + "x" + height + " (offset " + offset + ", scan " + scan + ") does not fit in " + pixels.length);
+		}
+		m_pixels = pixels;
+		m_base   = offset;
+		m_scan   = scan;
+		m_width  = width;
+		m_height = height;
+		m_alpha  = alpha;
+		resetClip();
+	}
+
+	//----------------------------------------------------------
+	//  getter
+	//----------------------------------------------------------
+
+	/**
+	 * 描画先の幅を返します。
+	 *
+	 * @return 幅
+	 */
+	public int getWidth()
+	{
+		return m_width;
+	}
+
+	/**
+	 * 描画先の高さを返します。
+	 *
+	 * @return 高さ
+	 */
+	public int getHeight()
+	{
+		return m_height;
+	}
+
+	//----------------------------------------------------------
+	//  クリップ
+	//----------------------------------------------------------
+
+	/**
+	 * クリップ領域を設定します。<br>
+	 * 描画先の範囲からはみ出した部分は切り取られます。
+	 *
+	 * @param x 左上のX座標
+	 * @param y 左上のY座標
+	 * @param w 幅
+	 * @param h 高さ
+	 */
+	public void setClip(int x, int y, int w, int h)
+	{
+		m_clip_x1 = Math.max(x, 0);
+		m_clip_y1 = Math.max(y, 0);
+		m_clip_x2 = Math.max(Math.min(x + w, m_width), m_clip_x1);
+		m_clip_y2 = Math.max(Math.min(y + h, m_height), m_clip_y1);
+	}
+
+	/**
+	 * クリップ領域を描画先全体に戻します。
+	 */
+	public void resetClip()
+	{
+		m_clip_x1 = 0;
+		m_clip_y1 = 0;
+		m_clip_x2 = m_width;
+		m_clip_y2 = m_height;
+	}
+
+	//----------------------------------------------------------
+	//  描画
+	//----------------------------------------------------------
+
+	/**
+	 * クリップ領域を指定された色で塗りつぶします。
+	 *
+	 * @param argb ARGB形式の色
+	 */
+	public void fill(int argb)
+	{
+		for (int py=m_clip_y1; py < m_clip_y2; ++py) {
+			int di = m_base + py * m_scan;
+			Arrays.fill(m_pixels, di + m_clip_x1, di + m_clip_x2, argb);
+		}
+	}
+
+	/**
+	 * 元イメージの部分矩形を描画します。<br>
+	 * <br>
+	 * 透明度は1ビットとして扱い、アルファ値が128以上の画素だけを不透明にして書き込みます。
+	 * 描画する大きさが部分矩形と異なるときは最も近い画素で拡大縮小します。
+	 * 部分矩形が元イメージからはみ出しているときは<code>drawImage</code>と同じく何も描画しません。
+	 *
+	 * @param src  元イメージの画素
+	 * @param sx   部分矩形の左端
+	 * @param sy   部分矩形の上端
+	 * @param sw   部分矩形の幅
+	 * @param sh   部分矩形の高さ
+	 * @param x    描画先の左上のX座標
+	 * @param y    描画先の左上のY座標
+	 * @param w    描画する幅
+	 * @param h    描画する高さ
+	 * @param attr 描画属性
+	 */
+	void drawPixels(VGImagePixels src, int sx, int sy, int sw, int sh, int x, int y, int w, int h, int attr)
+	{
+		if (sx < 0 || sy < 0 || sx + sw > src.m_width || sy + sh > src.m_height) return;
+		int x1 = Math.max(x, m_clip_x1);
+		int y1 = Math.max(y, m_clip_y1);
+		int x2 = Math.min(x + w, m_clip_x2);
+		int y2 = Math.min(y + h, m_clip_y2);
+		if (x2 <= x1 || y2 <= y1) return;
+
+		int[] s = src.m_pixels;
+		int src_scan = src.m_width;
+		int[] d = m_pixels;
+		boolean flip_h = (attr & IVGImage.FLIP_HORIZONTAL) != 0;
+		boolean flip_v = (attr & IVGImage.FLIP_VERTICAL) != 0;
+		for (int py=y1; py < y2; ++py) {
+			int ty = flip_v ? y + h - 1 - py : py - y;
+			if (sh != h) ty = ((2 * ty + 1) * sh) / (2 * h);
+			int row = (sy + ty) * src_scan + sx;
+			int di = m_base + py * m_scan + x1;
+			if (sw == w) {
+				// 拡大縮小しないときは元イメージを1画素ずつ進める
+				int si = flip_h ? row + x + w - 1 - x1 : row + x1 - x;
+				int step = flip_h ? -1 : 1;
+				for (int px=x1; px < x2; ++px, ++di, si += step) {
+					int argb = s[si];
+					if (argb < 0) d[di] = argb | 0xff000000;
+				}
+			}
+			else {
+				for (int px=x1; px < x2; ++px, ++di) {
+					int tx = flip_h ? x + w - 1 - px : px - x;
+					int argb = s[row + ((2 * tx + 1) * sw) / (2 * w)];
+					if (argb < 0) d[di] = argb | 0xff000000;
+				}
+			}
+		}
+	}
+}
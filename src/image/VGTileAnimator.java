@@ -0,0 +1,215 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.util.Arrays;
+
+/**
+ * <code>VGTilemap</code>のアニメーションするタイル番号を、描画するときのタイル番号に置き換える表を管理します。<br>
+ * <br>
+ * アニメーションは最大<code>MAX_ANIMATIONS</code>個まで登録でき、それぞれに割り当てたスロット番号の
+ * ビットを立てたマスクで、描画済みのキャッシュがどのアニメーションを含んでいるかを表します。
+ */
+final class VGTileAnimator
+{
+	/**
+	 * 登録できるアニメーションの最大数
+	 */
+	static final int MAX_ANIMATIONS = 64;
+
+	/**
+	 * タイル番号から描画するタイル番号への表
+	 */
+	private int[] m_lookup = new int[0];
+	/**
+	 * タイル番号からスロット番号+1への表(0はアニメーションなし)
+	 */
+	private byte[] m_slots = new byte[0];
+	/**
+	 * 使用中のスロットのマスク
+	 */
+	private long m_used = 0;
+	/**
+	 * スロットごとのアニメーションするタイル番号
+	 */
+	private int[] m_codes = new int[MAX_ANIMATIONS];
+	/**
+	 * スロットごとのコマのタイル番号の配列
+	 */
+	private int[][] m_frames = new int[MAX_ANIMATIONS][];
+	/**
+	 * スロットごとのコマの表示時間の配列
+	 */
+	private int[][] m_durations = new int[MAX_ANIMATIONS][];
+	/**
+	 * スロットごとの1周の時間
+	 */
+	private int[] m_periods = new int[MAX_ANIMATIONS];
+	/**
+	 * スロットごとの表示中のコマ
+	 */
+	private int[] m_index = new int[MAX_ANIMATIONS];
+	/**
+	 * スロットごとの表示中のコマの経過時間
+	 */
+	private int[] m_elapsed = new int[MAX_ANIMATIONS];
+
+	//----------------------------------------------------------
+	//  登録
+	//----------------------------------------------------------
+
+	/**
+	 * タイル番号にアニメーションを割り当てます。<br>
+	 * すでに割り当てられているときは置き換えます。
+	 *
+	 * @param code      タイル番号
+	 * @param frames    コマのタイル番号の配列
+	 * @param durations コマの表示時間の配列
+	 */
+	void bind(int code, int[] frames, int[] durations)
+	{
+		if (code < 0 || code > 0xffff) {
+			throw new IllegalArgumentException("code: " + code);
+		}
+		if (frames.length == 0 || frames.length != durations.length) {
+			throw new IllegalArgumentException("frames: " + frames.length + ", durations: " + durations.length);
+		}
+		int period = 0;
+		for (int i=0; i < frames.length; ++i) {
+			if (frames[i] < 0 || frames[i] > 0xffff) {
+				throw new IllegalArgumentException("frame code: " + frames[i]);
+			}
+			if (durations[i] <= 0) {
+				throw new IllegalArgumentException("duration: " + durations[i]);
+			}
+			period += durations[i];
+		}
+
+		int slot = getSlot(code);
+		if (slot < 0) {
+			if (m_used == -1L) {
+				throw new IllegalStateException("too many animations (max " + MAX_ANIMATIONS + ")");
+			}
+			slot = Long.numberOfTrailingZeros(~m_used);
+			m_used |= 1L << slot;
+			if (code >= m_lookup.length) {
+				int old = m_lookup.length;
+				m_lookup = Arrays.copyOf(m_lookup, code + 1);
+				m_slots  = Arrays.copyOf(m_slots, code + 1);
+				for (int i=old; i < m_lookup.length; ++i) {
+					m_lookup[i] = i;
+				}
+			}
+			m_slots[code] = (byte)(slot + 1);
+			m_codes[slot] = code;
+		}
+		m_frames[slot] = frames.clone();
+		m_durations[slot] = durations.clone();
+		m_periods[slot] = period;
+		m_index[slot] = 0;
+		m_elapsed[slot] = 0;
+		m_lookup[code] = frames[0];
+	}
+
+	/**
+	 * タイル番号のアニメーションを解除します。
+	 *
+	 * @param code タイル番号
+	 * @return 解除したときは<code>true</code>
+	 */
+	boolean unbind(int code)
+	{
+		int slot = getSlot(code);
+		if (slot < 0) return false;
+		m_used &= ~(1L << slot);
+		m_slots[code] = 0;
+		m_lookup[code] = code;
+		m_frames[slot] = null;
+		m_durations[slot] = null;
+		return true;
+	}
+
+	/**
+	 * アニメーションが登録されているかを返します。
+	 *
+	 * @return 1つでも登録されていれば<code>true</code>
+	 */
+	boolean isEmpty()
+	{
+		return m_used == 0;
+	}
+
+	//----------------------------------------------------------
+	//  更新
+	//----------------------------------------------------------
+
+	/**
+	 * すべてのアニメーションの時間を進めます。<br>
+	 * 処理時間は登録されているアニメーションの数に比例します。
+	 *
+	 * @param ticks 進める時間
+	 * @return 表示するコマが変わったアニメーションのスロットのマスク
+	 */
+	long advance(int ticks)
+	{
+		long changed = 0;
+		for (long used=m_used; used != 0; used &= used - 1) {
+			int slot = Long.numberOfTrailingZeros(used);
+			int[] durations = m_durations[slot];
+			int index = m_index[slot];
+			int elapsed = m_elapsed[slot] + ticks % m_periods[slot];
+			while (elapsed >= durations[index]) {
+				elapsed -= durations[index];
+				if (++index >= durations.length) index = 0;
+			}
+			m_elapsed[slot] = elapsed;
+			if (index != m_index[slot]) {
+				m_index[slot] = index;
+				int frame = m_frames[slot][index];
+				int code = m_codes[slot];
+				if (m_lookup[code] != frame) {
+					m_lookup[code] = frame;
+					changed |= 1L << slot;
+				}
+			}
+		}
+		return changed;
+	}
+
+	//----------------------------------------------------------
+	//  参照
+	//----------------------------------------------------------
+
+	/**
+	 * 描画するタイル番号を返します。
+	 *
+	 * @param code タイル番号
+	 * @return 描画するタイル番号
+	 */
+	int resolve(int code)
+	{
+		return (code < m_lookup.length) ? m_lookup[code] : code;
+	}
+
+	/**
+	 * タイル番号に割り当てたアニメーションのスロットのマスクを返します。
+	 *
+	 * @param code タイル番号
+	 * @return スロットのビットだけを立てたマスク(アニメーションがないときは0)
+	 */
+	long maskOf(int code)
+	{
+		if (code >= m_slots.length || m_slots[code] == 0) return 0;
+		return 1L << (m_slots[code] - 1);
+	}
+
+	/**
+	 * タイル番号に割り当てたスロット番号を返します。
+	 *
+	 * @param code タイル番号
+	 * @return スロット番号(アニメーションがないときは-1)
+	 */
+	private int getSlot(int code)
+	{
+		if (code >= m_slots.length) return -1;
+		return m_slots[code] - 1;
+	}
+}
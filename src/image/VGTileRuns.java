@@ -0,0 +1,169 @@
+package com.github.isle_shimakura.videogame.image;
+
+/**
+ * <code>VGTilemap</code>の行ごとに、タイルが置かれている連続した範囲(ラン)を保持します。<br>
+ * <br>
+ * ランは行ごとに開始位置の順に並んだ[開始, 終了)の組で、隣り合うランは常に結合されています。
+ * 描画や当たり判定はランをたどることで空の位置を飛ばすことができます。
+ */
+final class VGTileRuns
+{
+	/**
+	 * 行ごとのランの配列(開始、終了の順に並べる)
+	 */
+	private int[][] m_runs;
+	/**
+	 * 行ごとのランの数
+	 */
+	private int[] m_counts;
+	/**
+	 * ランを組み立てる作業用の配列
+	 */
+	private int[] m_work = new int[16];
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * タイル情報からランを作成します。
+	 *
+	 * @param cells タイル情報
+	 */
+	VGTileRuns(VGTileStorage cells)
+	{
+		m_runs = new int[cells.m_height][];
+		m_counts = new int[cells.m_height];
+		for (int y=0; y < cells.m_height; ++y) {
+			m_runs[y] = new int[4];
+			update(cells, y, 0, cells.m_width);
+		}
+	}
+
+	//----------------------------------------------------------
+	//  更新
+	//----------------------------------------------------------
+
+	/**
+	 * 1行のうち指定された範囲のランをタイル情報から作り直します。<br>
+	 * 範囲外のランはそのまま残し、境界で隣り合うランは結合します。
+	 *
+	 * @param cells タイル情報
+	 * @param y     タイル単位のY座標
+	 * @param x1    範囲の左端のタイル単位のX座標
+	 * @param x2    範囲の右端のタイル単位のX座標(この列を含まない)
+	 */
+	void update(VGTileStorage cells, int y, int x1, int x2)
+	{
+		int[] runs = m_runs[y];
+		int count = m_counts[y];
+		// 作り直した結果のランの数は元のランの数と範囲の半分を足した数を超えない
+		int capacity = 2 * (count + (x2 - x1 + 1) / 2 + 1);
+		if (m_work.length < capacity) {
+			m_work = new int[Math.max(capacity, m_work.length * 2)];
+		}
+		int[] work = m_work;
+		int n = 0;
+
+		// 範囲より左の部分
+		int i = 0;
+		for (; i < count && runs[2 * i] < x1; ++i) {
+			work[n++] = runs[2 * i];
+			work[n++] = Math.min(runs[2 * i + 1], x1);
+		}
+		// 範囲内
+		for (int x=x1; x < x2; ++x) {
+			if (cells.get(x, y) == -1) continue;
+			if (n > 0 && work[n - 1] == x) {
+				work[n - 1] = x + 1;
+			}
+			else {
+				work[n++] = x;
+				work[n++] = x + 1;
+			}
+		}
+		// 範囲より右の部分(範囲をまたぐランは左の部分と右の部分に分かれる)
+		for (i=Math.max(i - 1, 0); i < count; ++i) {
+			int e = runs[2 * i + 1];
+			if (e <= x2) continue;
+			int s = Math.max(runs[2 * i], x2);
+			if (n > 0 && work[n - 1] == s) {
+				work[n - 1] = e;
+			}
+			else {
+				work[n++] = s;
+				work[n++] = e;
+			}
+		}
+
+		if (runs.length < n) {
+			runs = new int[Math.max(n, runs.length * 2)];
+			m_runs[y] = runs;
+		}
+		System.arraycopy(work, 0, runs, 0, n);
+		m_counts[y] = n / 2;
+	}
+
+	//----------------------------------------------------------
+	//  参照
+	//----------------------------------------------------------
+
+	/**
+	 * 行のランの数を返します。
+	 *
+	 * @param y タイル単位のY座標
+	 * @return ランの数
+	 */
+	int count(int y)
+	{
+		return m_counts[y];
+	}
+
+	/**
+	 * ランの開始位置を返します。
+	 *
+	 * @param y タイル単位のY座標
+	 * @param i ランの番号
+	 * @return タイル単位の開始位置
+	 */
+	int start(int y, int i)
+	{
+		return m_runs[y][2 * i];
+	}
+
+	/**
+	 * ランの終了位置を返します。
+	 *
+	 * @param y タイル単位のY座標
+	 * @param i ランの番号
+	 * @return タイル単位の終了位置(この列を含まない)
+	 */
+	int end(int y, int i)
+	{
+		return m_runs[y][2 * i + 1];
+	}
+
+	/**
+	 * 指定された位置を含むか、それより右にある最初のランの番号を返します。
+	 *
+	 * @param y タイル単位のY座標
+	 * @param x タイル単位のX座標
+	 * @return ランの番号(ないときはランの数)
+	 */
+	int find(int y, int x)
+	{
+		int[] runs = m_runs[y];
+		int lo = 0;
+		int hi = m_counts[y];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (runs[2 * mid + 1] <= x) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -0,0 +1,701 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <code>VGTilemap</code>のタイル情報を保持する領域です。<br>
+ * <br>
+ * タイル情報は上位16ビットに描画属性、下位16ビットにタイル番号を詰めた値で受け渡し、
+ * タイルがない位置は-1で表します。保持する形式は実装ごとに異なります。
+ */
+abstract class VGTileStorage
+{
+	/**
+	 * マップの幅(タイル単位)
+	 */
+	final int m_width;
+	/**
+	 * マップの高さ(タイル単位)
+	 */
+	final int m_height;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGTileStorage</code>オブジェクトを構築します。
+	 *
+	 * @param width  マップの幅(タイル単位)
+	 * @param height マップの高さ(タイル単位)
+	 */
+	VGTileStorage(int width, int height)
+	{
+		m_width  = width;
+		m_height = height;
+	}
+
+	/**
+	 * 指定された形式の<code>VGTileStorage</code>オブジェクトを作成します。
+	 *
+	 * @param type   <code>VGTilemap.STORAGE_*</code>のいずれか
+	 * @param width  マップの幅(タイル単位)
+	 * @param height マップの高さ(タイル単位)
+	 * @return 作成したオブジェクト
+	 */
+	static VGTileStorage create(int type, int width, int height)
+	{
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("map size: " + width + "x" + height);
+		}
+		switch (type) {
+		case VGTilemap.STORAGE_INT:
+			return new IntStorage(width, height);
+		case VGTilemap.STORAGE_SHORT:
+			return new ShortStorage(width, height);
+		case VGTilemap.STORAGE_BYTE:
+			return new ByteStorage(width, height);
+		case VGTilemap.STORAGE_SPARSE:
+			return new SparseStorage(width, height);
+		}
+		throw new IllegalArgumentException("storage: " + type);
+	}
+
+	//----------------------------------------------------------
+	//  アクセスメソッド
+	//----------------------------------------------------------
+
+	/**
+	 * タイル情報を返します。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @return タイル情報(タイルがないときは-1)
+	 */
+	abstract int get(int x, int y);
+
+	/**
+	 * タイル情報を設定します。
+	 *
+	 * @param x        タイル単位のX座標
+	 * @param y        タイル単位のY座標
+	 * @param codeattr タイル情報(タイルがないときは-1)
+	 * @throws IllegalArgumentException この形式で表せない値が指定されたとき
+	 */
+	abstract void set(int x, int y, int codeattr);
+
+	/**
+	 * 保持している領域の大きさを返します。
+	 *
+	 * @return 領域のバイト数の目安
+	 */
+	abstract long getMemorySize();
+
+	/**
+	 * 保持形式を返します。
+	 *
+	 * @return <code>VGTilemap.STORAGE_*</code>のいずれか
+	 */
+	abstract int getType();
+
+	/**
+	 * すべてのタイル番号と描画属性を表せる形式かを返します。
+	 *
+	 * @return <code>check</code>が例外を投げることがないときは<code>true</code>
+	 */
+	boolean isFullRange()
+	{
+		return true;
+	}
+
+	/**
+	 * タイル情報をこの形式で表せるかを調べます。<br>
+	 * 範囲をまとめて変更する前に、途中で失敗しないことを確かめるために使います。
+	 *
+	 * @param codeattr タイル情報
+	 * @throws IllegalArgumentException この形式で表せないとき
+	 */
+	void check(int codeattr)
+	{
+	}
+
+	/**
+	 * 1行の連続したタイル情報を配列に読み込みます。
+	 *
+	 * @param x   タイル単位のX座標
+	 * @param y   タイル単位のY座標
+	 * @param dst 読み込む配列
+	 * @param off 配列の開始位置
+	 * @param len タイルの数
+	 */
+	void getRow(int x, int y, int[] dst, int off, int len)
+	{
+		for (int i=0; i < len; ++i) {
+			dst[off + i] = get(x + i, y);
+		}
+	}
+
+	/**
+	 * 1行の連続したタイル情報を配列から設定します。
+	 *
+	 * @param x   タイル単位のX座標
+	 * @param y   タイル単位のY座標
+	 * @param src 設定する配列
+	 * @param off 配列の開始位置
+	 * @param len タイルの数
+	 */
+	void setRow(int x, int y, int[] src, int off, int len)
+	{
+		for (int i=0; i < len; ++i) {
+			set(x + i, y, src[off + i]);
+		}
+	}
+
+	/**
+	 * 1行の連続したタイル情報を同じ値で埋めます。
+	 *
+	 * @param x        タイル単位のX座標
+	 * @param y        タイル単位のY座標
+	 * @param len      タイルの数
+	 * @param codeattr タイル情報
+	 */
+	void fillRow(int x, int y, int len, int codeattr)
+	{
+		for (int i=0; i < len; ++i) {
+			set(x + i, y, codeattr);
+		}
+	}
+
+	/**
+	 * 同じ形式の領域どうしで1行の連続したタイル情報を複写します。<br>
+	 * 複写元と複写先が重なっていてもかまいません。
+	 *
+	 * @param x   複写元のタイル単位のX座標
+	 * @param y   複写元のタイル単位のY座標
+	 * @param dst 複写先の領域
+	 * @param dx  複写先のタイル単位のX座標
+	 * @param dy  複写先のタイル単位のY座標
+	 * @param len タイルの数
+	 * @return 複写したときは<code>true</code>、形式が異なり複写できないときは<code>false</code>
+	 */
+	boolean copyRow(int x, int y, VGTileStorage dst, int dx, int dy, int len)
+	{
+		return false;
+	}
+
+	/**
+	 * 表せない値が指定されたときの例外を作成します。
+	 *
+	 * @param codeattr タイル情報
+	 * @param limit    表せるタイル番号の最大値
+	 * @return 例外
+	 */
+	static IllegalArgumentException outOfRange(int codeattr, int limit)
+	{
+		return new IllegalArgumentException("tile " + (codeattr & 0xffff) + " attr " + (codeattr >>> 16)
+				+ " does not fit (code 0-" + limit + ", attr 0-3)");
+	}
+
+	//----------------------------------------------------------
+	//  実装
+	//----------------------------------------------------------
+
+	/**
+	 * タイル情報をそのまま<code>int</code>の1次元配列に保持します。
+	 */
+	static final class IntStorage extends VGTileStorage
+	{
+		/**
+		 * タイル情報の配列
+		 */
+		final int[] m_cells;
+
+		IntStorage(int width, int height)
+		{
+			super(width, height);
+			m_cells = new int[width * height];
+		}
+
+		@Override
+		int get(int x, int y)
+		{
+			return m_cells[y * m_width + x];
+		}
+
+		@Override
+		void set(int x, int y, int codeattr)
+		{
+			m_cells[y * m_width + x] = codeattr;
+		}
+
+		@Override
+		long getMemorySize()
+		{
+			return 4L * m_cells.length;
+		}
+
+		@Override
+		int getType()
+		{
+			return VGTilemap.STORAGE_INT;
+		}
+
+		@Override
+		void getRow(int x, int y, int[] dst, int off, int len)
+		{
+			System.arraycopy(m_cells, y * m_width + x, dst, off, len);
+		}
+
+		@Override
+		void setRow(int x, int y, int[] src, int off, int len)
+		{
+			System.arraycopy(src, off, m_cells, y * m_width + x, len);
+		}
+
+		@Override
+		void fillRow(int x, int y, int len, int codeattr)
+		{
+			int index = y * m_width + x;
+			Arrays.fill(m_cells, index, index + len, codeattr);
+		}
+
+		@Override
+		boolean copyRow(int x, int y, VGTileStorage dst, int dx, int dy, int len)
+		{
+			if (!(dst instanceof IntStorage)) return false;
+			System.arraycopy(m_cells, y * m_width + x, ((IntStorage)dst).m_cells, dy * dst.m_width + dx, len);
+			return true;
+		}
+	}
+
+	/**
+	 * 描画属性の下位2ビットとタイル番号の14ビットを<code>short</code>の1次元配列に保持します。<br>
+	 * タイル番号は0～16382が使えます。
+	 */
+	static final class ShortStorage extends VGTileStorage
+	{
+		/**
+		 * 表せるタイル番号の最大値
+		 */
+		static final int MAX_CODE = 0x3ffe;
+
+		/**
+		 * タイル情報の配列
+		 */
+		final short[] m_cells;
+
+		ShortStorage(int width, int height)
+		{
+			super(width, height);
+			m_cells = new short[width * height];
+		}
+
+		@Override
+		int get(int x, int y)
+		{
+			return decode(m_cells[y * m_width + x] & 0xffff);
+		}
+
+		@Override
+		void set(int x, int y, int codeattr)
+		{
+			m_cells[y * m_width + x] = (short)encode(codeattr);
+		}
+
+		/**
+		 * タイル情報を保持する形式に変換します。
+		 *
+		 * @param codeattr タイル情報
+		 * @return 変換した値
+		 */
+		static int encode(int codeattr)
+		{
+			if (codeattr == -1) return 0xffff;
+			int code = codeattr & 0xffff;
+			int attr = codeattr >>> 16;
+			if (code > MAX_CODE || attr > 3) {
+				throw outOfRange(codeattr, MAX_CODE);
+			}
+			return (attr << 14) | code;
+		}
+
+		/**
+		 * 保持している形式からタイル情報に変換します。
+		 *
+		 * @param v 保持している値(0～65535)
+		 * @return タイル情報
+		 */
+		static int decode(int v)
+		{
+			if (v == 0xffff) return -1;
+			return ((v >>> 14) << 16) | (v & 0x3fff);
+		}
+
+		@Override
+		long getMemorySize()
+		{
+			return 2L * m_cells.length;
+		}
+
+		@Override
+		int getType()
+		{
+			return VGTilemap.STORAGE_SHORT;
+		}
+
+		@Override
+		boolean isFullRange()
+		{
+			return false;
+		}
+
+		@Override
+		void check(int codeattr)
+		{
+			encode(codeattr);
+		}
+
+		@Override
+		void fillRow(int x, int y, int len, int codeattr)
+		{
+			int index = y * m_width + x;
+			Arrays.fill(m_cells, index, index + len, (short)encode(codeattr));
+		}
+
+		@Override
+		boolean copyRow(int x, int y, VGTileStorage dst, int dx, int dy, int len)
+		{
+			if (!(dst instanceof ShortStorage)) return false;
+			System.arraycopy(m_cells, y * m_width + x, ((ShortStorage)dst).m_cells, dy * dst.m_width + dx, len);
+			return true;
+		}
+	}
+
+	/**
+	 * 描画属性の下位2ビットとタイル番号の6ビットを<code>byte</code>の1次元配列に保持します。<br>
+	 * タイル番号は0～62が使えます。
+	 */
+	static final class ByteStorage extends VGTileStorage
+	{
+		/**
+		 * 表せるタイル番号の最大値
+		 */
+		static final int MAX_CODE = 0x3e;
+
+		/**
+		 * タイル情報の配列
+		 */
+		final byte[] m_cells;
+
+		ByteStorage(int width, int height)
+		{
+			super(width, height);
+			m_cells = new byte[width * height];
+		}
+
+		@Override
+		int get(int x, int y)
+		{
+			return decode(m_cells[y * m_width + x] & 0xff);
+		}
+
+		@Override
+		void set(int x, int y, int codeattr)
+		{
+			m_cells[y * m_width + x] = (byte)encode(codeattr);
+		}
+
+		/**
+		 * タイル情報を保持する形式に変換します。
+		 *
+		 * @param codeattr タイル情報
+		 * @return 変換した値
+		 */
+		static int encode(int codeattr)
+		{
+			if (codeattr == -1) return 0xff;
+			int code = codeattr & 0xffff;
+			int attr = codeattr >>> 16;
+			if (code > MAX_CODE || attr > 3) {
+				throw outOfRange(codeattr, MAX_CODE);
+			}
+			return (attr << 6) | code;
+		}
+
+		/**
+		 * 保持している形式からタイル情報に変換します。
+		 *
+		 * @param v 保持している値(0～255)
+		 * @return タイル情報
+		 */
+		static int decode(int v)
+		{
+			if (v == 0xff) return -1;
+			return ((v >>> 6) << 16) | (v & 0x3f);
+		}
+
+		@Override
+		long getMemorySize()
+		{
+			return m_cells.length;
+		}
+
+		@Override
+		int getType()
+		{
+			return VGTilemap.STORAGE_BYTE;
+		}
+
+		@Override
+		boolean isFullRange()
+		{
+			return false;
+		}
+
+		@Override
+		void check(int codeattr)
+		{
+			encode(codeattr);
+		}
+
+		@Override
+		void fillRow(int x, int y, int len, int codeattr)
+		{
+			int index = y * m_width + x;
+			Arrays.fill(m_cells, index, index + len, (byte)encode(codeattr));
+		}
+
+		@Override
+		boolean copyRow(int x, int y, VGTileStorage dst, int dx, int dy, int len)
+		{
+			if (!(dst instanceof ByteStorage)) return false;
+			System.arraycopy(m_cells, y * m_width + x, ((ByteStorage)dst).m_cells, dy * dst.m_width + dx, len);
+			return true;
+		}
+	}
+
+	/**
+	 * タイル情報を16x16タイルのブロックに分け、タイルが置かれたブロックだけを保持します。<br>
+	 * 初期状態ではすべての位置にタイルがありません。
+	 */
+	static final class SparseStorage extends VGTileStorage
+	{
+		/**
+		 * ブロックの幅と高さを表すシフト量
+		 */
+		static final int BLOCK_SHIFT = 4;
+		/**
+		 * ブロックの幅と高さ
+		 */
+		static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+		/**
+		 * ブロック内の座標を取り出すマスク
+		 */
+		static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+		/**
+		 * 横方向のブロックの数
+		 */
+		final int m_columns;
+		/**
+		 * ブロックの配列(タイルが置かれていないブロックは<code>null</code>)
+		 */
+		final int[][] m_blocks;
+		/**
+		 * 作成したブロックの数
+		 */
+		int m_block_count = 0;
+
+		SparseStorage(int width, int height)
+		{
+			super(width, height);
+			m_columns = (width + BLOCK_MASK) >> BLOCK_SHIFT;
+			m_blocks = new int[m_columns * ((height + BLOCK_MASK) >> BLOCK_SHIFT)][];
+		}
+
+		@Override
+		int get(int x, int y)
+		{
+			int[] block = m_blocks[(y >> BLOCK_SHIFT) * m_columns + (x >> BLOCK_SHIFT)];
+			if (block == null) return -1;
+			return block[((y & BLOCK_MASK) << BLOCK_SHIFT) | (x & BLOCK_MASK)];
+		}
+
+		@Override
+		void set(int x, int y, int codeattr)
+		{
+			int index = (y >> BLOCK_SHIFT) * m_columns + (x >> BLOCK_SHIFT);
+			int[] block = m_blocks[index];
+			if (block == null) {
+				if (codeattr == -1) return;
+				block = new int[BLOCK_SIZE * BLOCK_SIZE];
+				Arrays.fill(block, -1);
+				m_blocks[index] = block;
+				++m_block_count;
+			}
+			block[((y & BLOCK_MASK) << BLOCK_SHIFT) | (x & BLOCK_MASK)] = codeattr;
+		}
+
+		@Override
+		long getMemorySize()
+		{
+			return 4L * m_blocks.length + 4L * BLOCK_SIZE * BLOCK_SIZE * m_block_count;
+		}
+
+		@Override
+		int getType()
+		{
+			return VGTilemap.STORAGE_SPARSE;
+		}
+	}
+
+	/**
+	 * バッファ上に<code>int</code>、<code>short</code>、<code>byte</code>のいずれかの形式で並んだタイル情報を直接参照します。<br>
+	 * メモリマップされたファイルを読み込むときに使われます。
+	 * バッファには書き込まず、最初に変更されたときに元の保持形式の領域をヒープ上に作成して複製し、
+	 * 以後はその領域を使います。ファイルの形式が狭くても、元の保持形式で表せる値はすべて設定できます。
+	 */
+	static final class BufferStorage extends VGTileStorage
+	{
+		/**
+		 * タイル情報が並んだバッファ
+		 */
+		final ByteBuffer m_buffer;
+		/**
+		 * 1タイルあたりのバイト数(4、2、1のいずれか)
+		 */
+		final int m_cell_bytes;
+		/**
+		 * 変更されたときに複製する保持形式
+		 */
+		final int m_type;
+		/**
+		 * 変更されたときに複製した領域(複製していないときは<code>null</code>)
+		 */
+		VGTileStorage m_heap;
+
+		BufferStorage(int width, int height, ByteBuffer buffer, int cell_bytes, int type)
+		{
+			super(width, height);
+			m_buffer = buffer;
+			m_cell_bytes = cell_bytes;
+			// ファイルの形式より狭い保持形式には複製できない
+			if ((type == VGTilemap.STORAGE_BYTE && cell_bytes > 1) || (type == VGTilemap.STORAGE_SHORT && cell_bytes > 2)) {
+				type = VGTilemap.STORAGE_INT;
+			}
+			m_type = type;
+		}
+
+		@Override
+		int get(int x, int y)
+		{
+			if (m_heap != null) {
+				return m_heap.get(x, y);
+			}
+			int index = y * m_width + x;
+			switch (m_cell_bytes) {
+			case 1:
+				return ByteStorage.decode(m_buffer.get(index) & 0xff);
+			case 2:
+				return ShortStorage.decode(m_buffer.getShort(index << 1) & 0xffff);
+			default:
+				return m_buffer.getInt(index << 2);
+			}
+		}
+
+		@Override
+		void set(int x, int y, int codeattr)
+		{
+			writable().set(x, y, codeattr);
+		}
+
+		@Override
+		void getRow(int x, int y, int[] dst, int off, int len)
+		{
+			if (m_heap != null) {
+				m_heap.getRow(x, y, dst, off, len);
+			}
+			else {
+				super.getRow(x, y, dst, off, len);
+			}
+		}
+
+		@Override
+		void setRow(int x, int y, int[] src, int off, int len)
+		{
+			writable().setRow(x, y, src, off, len);
+		}
+
+		@Override
+		void fillRow(int x, int y, int len, int codeattr)
+		{
+			writable().fillRow(x, y, len, codeattr);
+		}
+
+		@Override
+		boolean copyRow(int x, int y, VGTileStorage dst, int dx, int dy, int len)
+		{
+			if (m_heap == null) return false;
+			if (dst instanceof BufferStorage) {
+				dst = ((BufferStorage)dst).writable();
+			}
+			return m_heap.copyRow(x, y, dst, dx, dy, len);
+		}
+
+		/**
+		 * 変更に使う領域を返します。<br>
+		 * 最初に呼ばれたときにバッファの内容を元の保持形式の領域に複製します。
+		 *
+		 * @return 複製した領域
+		 */
+		VGTileStorage writable()
+		{
+			if (m_heap == null) {
+				VGTileStorage heap = create(m_type, m_width, m_height);
+				int[] row = new int[m_width];
+				for (int y=0; y < m_height; ++y) {
+					getRow(0, y, row, 0, m_width);
+					heap.setRow(0, y, row, 0, m_width);
+				}
+				m_heap = heap;
+			}
+			return m_heap;
+		}
+
+		@Override
+		long getMemorySize()
+		{
+			if (m_heap != null) {
+				return m_heap.getMemorySize();
+			}
+			// マップされたページはヒープの外にある
+			return m_buffer.isDirect() ? 0 : m_buffer.capacity();
+		}
+
+		@Override
+		int getType()
+		{
+			return m_type;
+		}
+
+		@Override
+		boolean isFullRange()
+		{
+			return m_type == VGTilemap.STORAGE_INT || m_type == VGTilemap.STORAGE_SPARSE;
+		}
+
+		@Override
+		void check(int codeattr)
+		{
+			switch (m_type) {
+			case VGTilemap.STORAGE_SHORT:
+				ShortStorage.encode(codeattr);
+				break;
+			case VGTilemap.STORAGE_BYTE:
+				ByteStorage.encode(codeattr);
+				break;
+			}
+		}
+	}
+}
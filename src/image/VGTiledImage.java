@@ -6,7 +6,7 @@ import java.awt.Image;
 /**
  * タイル状に並べられたイメージをインデックス番号で管理します。
  */
-public final class VGTiledImage implements IVGImageArray
+public final class VGTiledImage implements IVGRasterImageArray
 {
 	/**
 	 * イメージオブジェクト
@@ -44,6 +44,18 @@ public final class VGTiledImage implements IVGImageArray
 	 * 省略時に選択されるインデックス番号
 	 */
 	private int m_index;
+	/**
+	 * 元イメージから取り込んだ画素(取り込む前は<code>null</code>)
+	 */
+	private VGImagePixels m_pixels;
+	/**
+	 * 反転した描画に反転した元イメージの複製を使うかどうか
+	 */
+	private boolean m_flip_cache;
+	/**
+	 * 元イメージを反転した複製(取得する前は<code>null</code>)
+	 */
+	private VGFlippedImages m_flipped;
 	
 
 	//----------------------------------------------------------
@@ -127,6 +139,28 @@ public final class VGTiledImage implements IVGImageArray
 		m_index = index;
 	}
 
+	/**
+	 * 反転した描画に、反転した元イメージの複製を使うかを設定します。
+	 *
+	 * @param enabled 使うときは<code>true</code>
+	 * @see VGImage#setFlipCache(boolean)
+	 * @see VGImage#flushCaches(Image)
+	 */
+	public void setFlipCache(boolean enabled)
+	{
+		m_flip_cache = enabled;
+	}
+
+	/**
+	 * 反転した描画に、反転した元イメージの複製を使うかを返します。
+	 *
+	 * @return 使うときは<code>true</code>
+	 */
+	public boolean isFlipCacheEnabled()
+	{
+		return m_flip_cache;
+	}
+
 	//----------------------------------------------------------
 	//  描画メソッド
 	//----------------------------------------------------------
@@ -142,6 +176,10 @@ public final class VGTiledImage implements IVGImageArray
 		int sy1 = m_src_height * (index / m_src_columns) + m_src_top;
 		int sx2 = sx1 + m_src_width;
 		int sy2 = sy1 + m_src_height;
+		if (m_flip_cache && (attr & (FLIP_HORIZONTAL | FLIP_VERTICAL)) != 0
+				&& getFlipped().paint(g, m_image, dx1, dy1, dx2 - dx1, dy2 - dy1, sx1, sy1, m_src_width, m_src_height, attr)) {
+			return;
+		}
 		if ((attr & FLIP_HORIZONTAL) != 0) {
 			int sx = sx1;
 			sx1 = sx2;
@@ -166,6 +204,10 @@ public final class VGTiledImage implements IVGImageArray
 		int sy1 = m_src_height * (index / m_src_columns) + m_src_top;
 		int sx2 = sx1 + m_src_width;
 		int sy2 = sy1 + m_src_height;
+		if (m_flip_cache && (attr & (FLIP_HORIZONTAL | FLIP_VERTICAL)) != 0
+				&& getFlipped().paint(g, m_image, dx1, dy1, dx2 - dx1, dy2 - dy1, sx1, sy1, m_src_width, m_src_height, attr)) {
+			return;
+		}
 		if ((attr & FLIP_HORIZONTAL) != 0) {
 			int sx = sx1;
 			sx1 = sx2;
@@ -190,4 +232,106 @@ public final class VGTiledImage implements IVGImageArray
 	{
 		paint(g, m_index, x, y, w, h, attr);
 	}
+
+	@Override
+	public void paint(VGRaster dst, int index, int x, int y, int attr)
+	{
+		dst.drawPixels(getPixels(), getSourceX(index), getSourceY(index), m_src_width, m_src_height, x, y, m_dst_width, m_dst_height, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int index, int x, int y, int w, int h, int attr)
+	{
+		dst.drawPixels(getPixels(), getSourceX(index), getSourceY(index), m_src_width, m_src_height, x, y, w, h, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int x, int y, int attr)
+	{
+		paint(dst, m_index, x, y, attr);
+	}
+
+	@Override
+	public void paint(VGRaster dst, int x, int y, int w, int h, int attr)
+	{
+		paint(dst, m_index, x, y, w, h, attr);
+	}
+
+	//----------------------------------------------------------
+	//  画素の参照
+	//----------------------------------------------------------
+
+	/**
+	 * 元イメージを反転した複製を返します。
+	 *
+	 * @return 反転した複製を保持するオブジェクト
+	 */
+	private VGFlippedImages getFlipped()
+	{
+		VGFlippedImages flipped = m_flipped;
+		if (flipped == null || flipped.m_flushed) {
+			flipped = VGFlippedImages.get(m_image);
+			m_flipped = flipped;
+		}
+		return flipped;
+	}
+
+	/**
+	 * 元イメージから取り込んだ画素を返します。<br>
+	 * 最初に呼ばれたときにイメージの読み込みを待って取り込みます。
+	 *
+	 * @return 元イメージの画素
+	 * @throws IllegalStateException イメージを取り込めなかったとき
+	 */
+	VGImagePixels getPixels()
+	{
+		VGImagePixels pixels = m_pixels;
+		if (pixels == null || pixels.m_flushed) {
+			pixels = VGImagePixels.get(m_image);
+			m_pixels = pixels;
+		}
+		return pixels;
+	}
+
+	/**
+	 * タイルの元イメージ上の左端のX座標を返します。
+	 *
+	 * @param index インデックス番号
+	 * @return X座標
+	 */
+	int getSourceX(int index)
+	{
+		return m_src_width * (index % m_src_columns) + m_src_left;
+	}
+
+	/**
+	 * タイルの元イメージ上の上端のY座標を返します。
+	 *
+	 * @param index インデックス番号
+	 * @return Y座標
+	 */
+	int getSourceY(int index)
+	{
+		return m_src_height * (index / m_src_columns) + m_src_top;
+	}
+
+	/**
+	 * タイルの元イメージ上の幅を返します。
+	 *
+	 * @return 幅
+	 */
+	int getSourceWidth()
+	{
+		return m_src_width;
+	}
+
+	/**
+	 * タイルの元イメージ上の高さを返します。
+	 *
+	 * @return 高さ
+	 */
+	int getSourceHeight()
+	{
+		return m_src_height;
+	}
 }
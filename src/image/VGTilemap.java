@@ -3,6 +3,9 @@ package com.github.isle_shimakura.videogame.image;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * イメージをタイル状に並べて大きなイメージを描画します。
@@ -24,9 +27,9 @@ public final class VGTilemap implements IVGImage
 	 */
 	private int m_height;
 	/**
-	 * 描画するタイルの情報の配列
+	 * 描画するタイルの情報
 	 */
-	private int[][] m_codeattr;
+	private VGTileStorage m_cells;
 	/**
 	 * タイルを描画するときの幅(ピクセル単位)
 	 */
@@ -46,6 +49,117 @@ public final class VGTilemap implements IVGImage
 	 */
 	private Rectangle rcBounds = new Rectangle();
 
+	/**
+	 * 描画前のクリップ領域を受け取る作業用の矩形
+	 */
+	private Rectangle rcClip = new Rectangle();
+
+	/**
+	 * 描画モード
+	 */
+	private int m_render_mode = RENDER_DIRECT;
+	/**
+	 * チャンクの幅(タイル単位)
+	 */
+	private int m_chunk_cols = DEFAULT_CHUNK_SIZE;
+	/**
+	 * チャンクの高さ(タイル単位)
+	 */
+	private int m_chunk_rows = DEFAULT_CHUNK_SIZE;
+	/**
+	 * 保持するチャンクのイメージの数の上限
+	 */
+	private int m_chunk_limit = DEFAULT_CHUNK_LIMIT;
+	/**
+	 * チャンクのキャッシュ
+	 */
+	private VGTilemapChunkCache m_chunk_cache;
+	/**
+	 * スクロール用の循環バッファ
+	 */
+	private VGTilemapScrollBuffer m_scroll_buffer;
+	/**
+	 * アニメーションするタイルの表(アニメーションがないときは<code>null</code>)
+	 */
+	private VGTileAnimator m_animator;
+	/**
+	 * フラグごとのタイル番号のビット集合(どのタイルにも設定されていないフラグは<code>null</code>)
+	 */
+	private long[][] m_flag_bits = new long[32][];
+	/**
+	 * 保持形式の異なるマップ間で複写するときの作業用の配列
+	 */
+	private int[] m_row_buffer;
+	/**
+	 * 行ごとのタイルが置かれている範囲の索引(使わないときは<code>null</code>)
+	 */
+	private VGTileRuns m_runs;
+
+	//----------------------------------------------------------
+	//  描画モード
+	//----------------------------------------------------------
+
+	/**
+	 * 描画のたびにすべてのタイルを描画するモード(デフォルト)
+	 */
+	public static final int RENDER_DIRECT = 0;
+	/**
+	 * あらかじめチャンクごとに描画したイメージを転送するモード
+	 */
+	public static final int RENDER_CHUNKED = 1;
+	/**
+	 * ビューポートより1タイル大きい循環バッファに描画し、スクロールで新しく見えた列と行だけを描き直すモード
+	 */
+	public static final int RENDER_SCROLL = 2;
+
+	/**
+	 * チャンクの幅と高さの省略値(タイル単位)
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16;
+
+	/**
+	 * 保持するチャンクのイメージの数の上限の省略値
+	 */
+	public static final int DEFAULT_CHUNK_LIMIT = 64;
+
+	//----------------------------------------------------------
+	//  タイル情報の保持形式
+	//----------------------------------------------------------
+
+	/**
+	 * タイル番号と描画属性をそのまま<code>int</code>の配列に保持する形式(デフォルト)<br>
+	 * 1タイルあたり4バイトを使用します。
+	 */
+	public static final int STORAGE_INT = 0;
+	/**
+	 * <code>short</code>の配列に保持する形式<br>
+	 * 1タイルあたり2バイトを使用します。タイル番号は0～16382、描画属性は0～3が使えます。
+	 */
+	public static final int STORAGE_SHORT = 1;
+	/**
+	 * <code>byte</code>の配列に保持する形式<br>
+	 * 1タイルあたり1バイトを使用します。タイル番号は0～62、描画属性は0～3が使えます。
+	 */
+	public static final int STORAGE_BYTE = 2;
+	/**
+	 * 16x16タイルのブロックごとに、タイルが置かれたブロックだけを保持する形式<br>
+	 * ほとんどが空のマップに向いています。ほかの形式と異なり、初期状態ではすべての位置にタイルがありません。
+	 */
+	public static final int STORAGE_SPARSE = 3;
+
+	//----------------------------------------------------------
+	//  タイルのフラグ
+	//----------------------------------------------------------
+
+	/**
+	 * 通り抜けられないタイルを表すフラグ
+	 */
+	public static final int FLAG_SOLID = 0x0001;
+	/**
+	 * タイルの矩形全体を塗りつぶす不透明なタイルを表すフラグ
+	 */
+	public static final int FLAG_OPAQUE = 0x0002;
+
 	//----------------------------------------------------------
 	//  コンストラクタ
 	//----------------------------------------------------------
@@ -72,13 +186,44 @@ public final class VGTilemap implements IVGImage
 	 * @param tile_height タイルの高さ(ピクセル単位)
 	 */
 	public VGTilemap(IVGImageArray tiles, int width, int height, int tile_width, int tile_height)
+	{
+		this(tiles, width, height, tile_width, tile_height, STORAGE_INT);
+	}
+
+	/**
+	 * 新しい<code>VGTilemap</code>オブジェクトを構築します。
+	 * 
+	 * @param tiles  タイルイメージ
+	 * @param width  マップの幅(タイル単位)
+	 * @param height マップの高さ(タイル単位)
+	 * @param tile_width  タイルの幅(ピクセル単位)
+	 * @param tile_height タイルの高さ(ピクセル単位)
+	 * @param storage タイル情報の保持形式(<code>STORAGE_*</code>のいずれか)
+	 */
+	public VGTilemap(IVGImageArray tiles, int width, int height, int tile_width, int tile_height, int storage)
+	{
+		this(tiles, VGTileStorage.create(storage, width, height), tile_width, tile_height);
+	}
+
+	/**
+	 * 作成済みのタイル情報を使う<code>VGTilemap</code>オブジェクトを構築します。
+	 * 
+	 * @param tiles  タイルイメージ
+	 * @param cells  タイル情報
+	 * @param tile_width  タイルの幅(ピクセル単位)
+	 * @param tile_height タイルの高さ(ピクセル単位)
+	 */
+	VGTilemap(IVGImageArray tiles, VGTileStorage cells, int tile_width, int tile_height)
 	{
 		m_tiles = tiles;
-		m_width  = width;
-		m_height = height;
-		m_codeattr = new int[height][width];
+		m_width  = cells.m_width;
+		m_height = cells.m_height;
+		m_cells = cells;
 		m_tile_width  = tile_width;
 		m_tile_height = tile_height;
+		if (cells instanceof VGTileStorage.SparseStorage) {
+			m_runs = new VGTileRuns(cells);
+		}
 	}
 
 	//----------------------------------------------------------
@@ -97,6 +242,171 @@ public final class VGTilemap implements IVGImage
 		return rcBounds.height;
 	}
 
+	/**
+	 * マップの幅を返します。
+	 *
+	 * @return マップの幅(タイル単位)
+	 */
+	public int getMapWidth()
+	{
+		return m_width;
+	}
+
+	/**
+	 * マップの高さを返します。
+	 *
+	 * @return マップの高さ(タイル単位)
+	 */
+	public int getMapHeight()
+	{
+		return m_height;
+	}
+
+	/**
+	 * タイルを描画するときの幅を返します。
+	 *
+	 * @return タイルの幅(ピクセル単位)
+	 */
+	public int getTileWidth()
+	{
+		return m_tile_width;
+	}
+
+	/**
+	 * タイルを描画するときの高さを返します。
+	 *
+	 * @return タイルの高さ(ピクセル単位)
+	 */
+	public int getTileHeight()
+	{
+		return m_tile_height;
+	}
+
+	//----------------------------------------------------------
+	//  描画モード
+	//----------------------------------------------------------
+
+	/**
+	 * 描画モードを設定します。<br>
+	 * <br>
+	 * <code>RENDER_CHUNKED</code>では、マップを固定サイズのチャンクに分けてイメージに描画しておき、
+	 * ビューポートをチャンクの転送で描画します。<code>setTile</code>で変更されたチャンクだけが描き直されます。<br>
+	 * <code>RENDER_SCROLL</code>では、ビューポートより1タイル大きい循環バッファを保持し、
+	 * スクロールで新しく見えた列と行だけを描き直して最大4回の転送で描画します。
+	 * 少しずつスクロールする場合に向いています。<br>
+	 * 別のモードに切り替えるとキャッシュしていたイメージは解放されます。
+	 *
+	 * @param mode <code>RENDER_DIRECT</code>、<code>RENDER_CHUNKED</code>、<code>RENDER_SCROLL</code>のいずれか
+	 */
+	public void setRenderMode(int mode)
+	{
+		if (mode != RENDER_DIRECT && mode != RENDER_CHUNKED && mode != RENDER_SCROLL) {
+			throw new IllegalArgumentException("mode: " + mode);
+		}
+		if (mode == m_render_mode) return;
+		m_render_mode = mode;
+		if (mode != RENDER_CHUNKED && m_chunk_cache != null) {
+			m_chunk_cache.release();
+			m_chunk_cache = null;
+		}
+		if (mode != RENDER_SCROLL && m_scroll_buffer != null) {
+			m_scroll_buffer.release();
+			m_scroll_buffer = null;
+		}
+	}
+
+	/**
+	 * 描画モードを返します。
+	 *
+	 * @return 描画モード
+	 */
+	public int getRenderMode()
+	{
+		return m_render_mode;
+	}
+
+	/**
+	 * <code>RENDER_CHUNKED</code>で使用するチャンクの大きさを設定します。<br>
+	 * 作成済みのチャンクは破棄されます。
+	 *
+	 * @param cols チャンクの幅(タイル単位)
+	 * @param rows チャンクの高さ(タイル単位)
+	 */
+	public void setChunkSize(int cols, int rows)
+	{
+		if (cols <= 0 || rows <= 0) {
+			throw new IllegalArgumentException("chunk size: " + cols + "x" + rows);
+		}
+		m_chunk_cols = cols;
+		m_chunk_rows = rows;
+		if (m_chunk_cache != null) {
+			m_chunk_cache.release();
+			m_chunk_cache = null;
+		}
+	}
+
+	/**
+	 * <code>RENDER_CHUNKED</code>で保持するチャンクのイメージの数の上限を設定します。<br>
+	 * 上限を超えると最も長く表示されていないチャンクから解放され、再び表示されたときに描き直されます。
+	 * 1回の描画で使うチャンクは上限を超えても保持されるため、ビューポートに入るチャンクの数より
+	 * 少し大きな値を設定してください。
+	 *
+	 * @param chunks チャンクの数
+	 */
+	public void setChunkCacheLimit(int chunks)
+	{
+		if (chunks <= 0) {
+			throw new IllegalArgumentException("chunks: " + chunks);
+		}
+		m_chunk_limit = chunks;
+		if (m_chunk_cache != null) {
+			m_chunk_cache.setLimit(chunks);
+		}
+	}
+
+	/**
+	 * <code>RENDER_CHUNKED</code>で保持するチャンクのイメージの数の上限を返します。
+	 *
+	 * @return チャンクの数
+	 */
+	public int getChunkCacheLimit()
+	{
+		return m_chunk_limit;
+	}
+
+	/**
+	 * タイルが置かれている範囲の索引を使うかを設定します。<br>
+	 * <br>
+	 * 索引は行ごとにタイルが連続して置かれている範囲(ラン)を保持し、タイルを変更するたびに更新されます。
+	 * <code>RENDER_DIRECT</code>での描画、チャンクやバッファの描き直し、当たり判定は
+	 * ランをたどって空の位置を飛ばすため、処理時間がビューポートの広さではなく置かれたタイルの数に比例します。
+	 * ほとんどが空の前景や装飾のレイヤーに向いています。<br>
+	 * <code>STORAGE_SPARSE</code>では最初から使う設定になっています。
+	 *
+	 * @param enabled 使うときは<code>true</code>
+	 */
+	public void setRunIndex(boolean enabled)
+	{
+		if (enabled) {
+			if (m_runs == null) {
+				m_runs = new VGTileRuns(m_cells);
+			}
+		}
+		else {
+			m_runs = null;
+		}
+	}
+
+	/**
+	 * タイルが置かれている範囲の索引を使っているかを返します。
+	 *
+	 * @return 使っているときは<code>true</code>
+	 */
+	public boolean isRunIndexEnabled()
+	{
+		return m_runs != null;
+	}
+
 	//----------------------------------------------------------
 	//
 	//----------------------------------------------------------
@@ -105,19 +415,741 @@ public final class VGTilemap implements IVGImage
 	 * タイルを設定します。<br>
 	 * <br>
 	 * タイル番号は下位16ビット(0～65535)だけが有効です。<br>
-	 * タイル番号に-1を設定するとそこにはタイルが描画されません。
+	 * タイル番号に-1を設定するとそこにはタイルが描画されません。<br>
+	 * <code>STORAGE_SHORT</code>、<code>STORAGE_BYTE</code>では保持できるタイル番号と描画属性の範囲が狭くなります。
 	 * 
 	 * @param x    タイル単位のX座標
 	 * @param y    タイル単位のY座標
 	 * @param code タイル番号
 	 * @param attr 描画属性
+	 * @throws IllegalArgumentException 保持形式で表せないタイル番号や描画属性が指定されたとき
 	 */
 	public void setTile(int x, int y, int code, int attr)
 	{
-		if (code == -1) {
-			m_codeattr[y][x] = -1;
+		checkBounds(x, y);
+		m_cells.set(x, y, packTile(code, attr));
+		cellsChanged(x, y, 1, 1);
+	}
+
+	/**
+	 * タイル番号と描画属性を<code>setTiles</code>、<code>getTiles</code>で使うタイル情報の値にまとめます。<br>
+	 * 上位16ビットが描画属性、下位16ビットがタイル番号になります。タイル番号が-1のときは-1を返します。
+	 *
+	 * @param code タイル番号
+	 * @param attr 描画属性
+	 * @return タイル情報
+	 */
+	public static int packTile(int code, int attr)
+	{
+		if (code == -1) return -1;
+		return (attr << 16) | (code & 0xffff);
+	}
+
+	/**
+	 * タイル番号を返します。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @return タイル番号(タイルがないときは-1)
+	 */
+	public int getTileCode(int x, int y)
+	{
+		checkBounds(x, y);
+		int codeattr = m_cells.get(x, y);
+		return (codeattr == -1) ? -1 : (codeattr & 0xffff);
+	}
+
+	/**
+	 * タイルの描画属性を返します。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @return 描画属性(タイルがないときは0)
+	 */
+	public int getTileAttr(int x, int y)
+	{
+		checkBounds(x, y);
+		int codeattr = m_cells.get(x, y);
+		return (codeattr == -1) ? 0 : (codeattr >>> 16);
+	}
+
+	/**
+	 * タイル情報を返します。<br>
+	 * 座標の範囲は調べません。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @return タイル情報(タイルがないときは-1)
+	 */
+	int getCodeAttr(int x, int y)
+	{
+		return m_cells.get(x, y);
+	}
+
+	/**
+	 * タイル情報の保持形式を返します。
+	 *
+	 * @return <code>STORAGE_*</code>のいずれか
+	 */
+	int getStorageType()
+	{
+		return m_cells.getType();
+	}
+
+	/**
+	 * 座標がマップの範囲内にあるかを調べます。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @throws IndexOutOfBoundsException 範囲外の座標が指定されたとき
+	 */
+	private void checkBounds(int x, int y)
+	{
+		if (x < 0 || y < 0 || x >= m_width || y >= m_height) {
+			throw new IndexOutOfBoundsException("(" + x + ", " + y + ") not in " + m_width + "x" + m_height);
+		}
+	}
+
+	/**
+	 * タイル情報の保持に使っている領域の大きさを返します。
+	 *
+	 * @return 領域のバイト数の目安
+	 */
+	public long getStorageSize()
+	{
+		return m_cells.getMemorySize();
+	}
+
+	//----------------------------------------------------------
+	//  範囲の操作
+	//----------------------------------------------------------
+
+	/**
+	 * 矩形範囲のタイルを配列から設定します。<br>
+	 * 配列には<code>packTile</code>でまとめたタイル情報を行ごとに並べます。
+	 *
+	 * @param x    範囲の左上のタイル単位のX座標
+	 * @param y    範囲の左上のタイル単位のY座標
+	 * @param w    幅(タイル単位)
+	 * @param h    高さ(タイル単位)
+	 * @param src  タイル情報の配列
+	 * @param off  配列の開始位置
+	 * @param scan 配列上の行の間隔
+	 * @throws IllegalArgumentException 保持形式で表せないタイル番号や描画属性が含まれているとき(マップは変更されません)
+	 */
+	public void setTiles(int x, int y, int w, int h, int[] src, int off, int scan)
+	{
+		checkBounds(x, y, w, h);
+		if (!m_cells.isFullRange()) {
+			// 途中で失敗して一部だけ変更されないよう、書き込む前にすべて調べる
+			for (int yy=0; yy < h; ++yy) {
+				for (int xx=0; xx < w; ++xx) {
+					m_cells.check(src[off + yy * scan + xx]);
+				}
+			}
+		}
+		for (int yy=0; yy < h; ++yy) {
+			m_cells.setRow(x, y + yy, src, off + yy * scan, w);
+		}
+		cellsChanged(x, y, w, h);
+	}
+
+	/**
+	 * 矩形範囲のタイルを配列に読み込みます。<br>
+	 * 配列には<code>packTile</code>と同じ形式のタイル情報が行ごとに並びます。
+	 *
+	 * @param x    範囲の左上のタイル単位のX座標
+	 * @param y    範囲の左上のタイル単位のY座標
+	 * @param w    幅(タイル単位)
+	 * @param h    高さ(タイル単位)
+	 * @param dst  タイル情報を読み込む配列
+	 * @param off  配列の開始位置
+	 * @param scan 配列上の行の間隔
+	 */
+	public void getTiles(int x, int y, int w, int h, int[] dst, int off, int scan)
+	{
+		checkBounds(x, y, w, h);
+		for (int yy=0; yy < h; ++yy) {
+			m_cells.getRow(x, y + yy, dst, off + yy * scan, w);
+		}
+	}
+
+	/**
+	 * 矩形範囲を同じタイルで埋めます。
+	 *
+	 * @param x    範囲の左上のタイル単位のX座標
+	 * @param y    範囲の左上のタイル単位のY座標
+	 * @param w    幅(タイル単位)
+	 * @param h    高さ(タイル単位)
+	 * @param code タイル番号(-1のときはタイルを消去)
+	 * @param attr 描画属性
+	 * @throws IllegalArgumentException 保持形式で表せないタイル番号や描画属性が指定されたとき(マップは変更されません)
+	 */
+	public void fillTiles(int x, int y, int w, int h, int code, int attr)
+	{
+		checkBounds(x, y, w, h);
+		int codeattr = packTile(code, attr);
+		m_cells.check(codeattr);
+		for (int yy=0; yy < h; ++yy) {
+			m_cells.fillRow(x, y + yy, w, codeattr);
+		}
+		cellsChanged(x, y, w, h);
+	}
+
+	/**
+	 * マップ内の矩形範囲を複写します。<br>
+	 * 複写元と複写先が重なっていてもかまいません。
+	 *
+	 * @param sx 複写元の左上のタイル単位のX座標
+	 * @param sy 複写元の左上のタイル単位のY座標
+	 * @param w  幅(タイル単位)
+	 * @param h  高さ(タイル単位)
+	 * @param dx 複写先の左上のタイル単位のX座標
+	 * @param dy 複写先の左上のタイル単位のY座標
+	 */
+	public void copyTiles(int sx, int sy, int w, int h, int dx, int dy)
+	{
+		copyTiles(sx, sy, w, h, this, dx, dy);
+	}
+
+	/**
+	 * 矩形範囲を別のマップへ複写します。<br>
+	 * 同じ保持形式のマップどうしでは配列のブロック転送で複写されます。
+	 *
+	 * @param sx  複写元の左上のタイル単位のX座標
+	 * @param sy  複写元の左上のタイル単位のY座標
+	 * @param w   幅(タイル単位)
+	 * @param h   高さ(タイル単位)
+	 * @param dst 複写先のマップ
+	 * @param dx  複写先の左上のタイル単位のX座標
+	 * @param dy  複写先の左上のタイル単位のY座標
+	 * @throws IllegalArgumentException 複写先の保持形式で表せないタイルが含まれているとき(マップは変更されません)
+	 */
+	public void copyTiles(int sx, int sy, int w, int h, VGTilemap dst, int dx, int dy)
+	{
+		checkBounds(sx, sy, w, h);
+		dst.checkBounds(dx, dy, w, h);
+		if (w == 0 || h == 0) return;
+		if (m_row_buffer == null || m_row_buffer.length < w) {
+			m_row_buffer = new int[Math.max(w, m_width)];
+		}
+		if (!dst.m_cells.isFullRange() && dst.m_cells.getType() != m_cells.getType()) {
+			// 途中で失敗して一部だけ変更されないよう、書き込む前にすべて調べる
+			for (int yy=0; yy < h; ++yy) {
+				m_cells.getRow(sx, sy + yy, m_row_buffer, 0, w);
+				for (int xx=0; xx < w; ++xx) {
+					dst.m_cells.check(m_row_buffer[xx]);
+				}
+			}
+		}
+		// 同じマップで下へ複写するときは下の行から複写する
+		boolean bottom_up = (dst == this && dy > sy);
+		for (int i=0; i < h; ++i) {
+			int yy = bottom_up ? h - 1 - i : i;
+			if (!m_cells.copyRow(sx, sy + yy, dst.m_cells, dx, dy + yy, w)) {
+				m_cells.getRow(sx, sy + yy, m_row_buffer, 0, w);
+				dst.m_cells.setRow(dx, dy + yy, m_row_buffer, 0, w);
+			}
+		}
+		dst.cellsChanged(dx, dy, w, h);
+	}
+
+	/**
+	 * マップ内の矩形範囲を移動します。<br>
+	 * 移動元のうち移動先と重ならない部分のタイルは消去されます。
+	 *
+	 * @param sx 移動元の左上のタイル単位のX座標
+	 * @param sy 移動元の左上のタイル単位のY座標
+	 * @param w  幅(タイル単位)
+	 * @param h  高さ(タイル単位)
+	 * @param dx 移動先の左上のタイル単位のX座標
+	 * @param dy 移動先の左上のタイル単位のY座標
+	 */
+	public void moveTiles(int sx, int sy, int w, int h, int dx, int dy)
+	{
+		moveTiles(sx, sy, w, h, this, dx, dy);
+	}
+
+	/**
+	 * 矩形範囲を別のマップへ移動します。<br>
+	 * 移動元のうち移動先と重ならない部分のタイルは消去されます。
+	 *
+	 * @param sx  移動元の左上のタイル単位のX座標
+	 * @param sy  移動元の左上のタイル単位のY座標
+	 * @param w   幅(タイル単位)
+	 * @param h   高さ(タイル単位)
+	 * @param dst 移動先のマップ
+	 * @param dx  移動先の左上のタイル単位のX座標
+	 * @param dy  移動先の左上のタイル単位のY座標
+	 * @throws IllegalArgumentException 移動先の保持形式で表せないタイルが含まれているとき
+	 */
+	public void moveTiles(int sx, int sy, int w, int h, VGTilemap dst, int dx, int dy)
+	{
+		copyTiles(sx, sy, w, h, dst, dx, dy);
+		for (int yy=sy; yy < sy + h; ++yy) {
+			if (dst != this || yy < dy || yy >= dy + h) {
+				m_cells.fillRow(sx, yy, w, -1);
+				continue;
+			}
+			// 移動先と重なる行は左右のはみ出した部分だけを消去する
+			int left  = Math.min(sx + w, dx);
+			int right = Math.max(sx, dx + w);
+			if (left > sx) {
+				m_cells.fillRow(sx, yy, left - sx, -1);
+			}
+			if (right < sx + w) {
+				m_cells.fillRow(right, yy, sx + w - right, -1);
+			}
+		}
+		cellsChanged(sx, sy, w, h);
+	}
+
+	/**
+	 * 矩形範囲がマップの範囲内にあるかを調べます。
+	 *
+	 * @param x 範囲の左上のタイル単位のX座標
+	 * @param y 範囲の左上のタイル単位のY座標
+	 * @param w 幅(タイル単位)
+	 * @param h 高さ(タイル単位)
+	 * @throws IndexOutOfBoundsException 範囲外にはみ出すとき
+	 */
+	private void checkBounds(int x, int y, int w, int h)
+	{
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x > m_width - w || y > m_height - h) {
+			throw new IndexOutOfBoundsException("(" + x + ", " + y + ") " + w + "x" + h + " not in " + m_width + "x" + m_height);
+		}
+	}
+
+	//----------------------------------------------------------
+	//  タイルの属性
+	//----------------------------------------------------------
+
+	/**
+	 * タイル番号のフラグを設定します。<br>
+	 * <br>
+	 * フラグはタイル番号ごとに32ビットまで持つことができ、<code>FLAG_SOLID</code>と
+	 * <code>FLAG_OPAQUE</code>以外のビットは自由に使うことができます。
+	 * フラグはフラグごとのビット集合に保持され、一度も設定されていないフラグは領域を使いません。<br>
+	 * 当たり判定はマップに設定されたタイル番号の<code>FLAG_SOLID</code>を、
+	 * <code>VGParallaxLayers</code>は描画するタイル番号の<code>FLAG_OPAQUE</code>を使います。
+	 *
+	 * @param code  タイル番号
+	 * @param flags フラグ
+	 */
+	public void setTileFlags(int code, int flags)
+	{
+		if (code < 0 || code > 0xffff) {
+			throw new IllegalArgumentException("code: " + code);
+		}
+		for (int bit=0; bit < 32; ++bit) {
+			long[] bits = m_flag_bits[bit];
+			if ((flags & (1 << bit)) != 0) {
+				if (bits == null) {
+					bits = new long[0x10000 >> 6];
+					m_flag_bits[bit] = bits;
+				}
+				bits[code >> 6] |= 1L << code;
+			}
+			else if (bits != null) {
+				bits[code >> 6] &= ~(1L << code);
+			}
+		}
+	}
+
+	/**
+	 * タイル番号のフラグを返します。
+	 *
+	 * @param code タイル番号
+	 * @return フラグ
+	 */
+	public int getTileFlags(int code)
+	{
+		if (code < 0 || code > 0xffff) return 0;
+		int flags = 0;
+		for (int bit=0; bit < 32; ++bit) {
+			long[] bits = m_flag_bits[bit];
+			if (bits != null && (bits[code >> 6] & (1L << code)) != 0) {
+				flags |= 1 << bit;
+			}
+		}
+		return flags;
+	}
+
+	/**
+	 * タイル番号に指定されたフラグが設定されているかを返します。
+	 *
+	 * @param code タイル番号
+	 * @param flag 調べるフラグ(1ビットだけを指定)
+	 * @return 設定されているときは<code>true</code>
+	 */
+	public boolean hasTileFlag(int code, int flag)
+	{
+		if (code < 0 || code > 0xffff || flag == 0) return false;
+		long[] bits = m_flag_bits[Integer.numberOfTrailingZeros(flag)];
+		return bits != null && (bits[code >> 6] & (1L << code)) != 0;
+	}
+
+	/**
+	 * タイル番号が不透明かどうかを設定します。<br>
+	 * <code>FLAG_OPAQUE</code>を設定・解除します。
+	 *
+	 * @param code   タイル番号
+	 * @param opaque 不透明なときは<code>true</code>
+	 */
+	public void setTileOpaque(int code, boolean opaque)
+	{
+		int flags = getTileFlags(code);
+		setTileFlags(code, opaque ? (flags | FLAG_OPAQUE) : (flags & ~FLAG_OPAQUE));
+	}
+
+	/**
+	 * タイル番号が不透明かどうかを返します。
+	 *
+	 * @param code タイル番号
+	 * @return 不透明なときは<code>true</code>
+	 */
+	public boolean isTileOpaque(int code)
+	{
+		return hasTileFlag(code, FLAG_OPAQUE);
+	}
+
+	//----------------------------------------------------------
+	//  当たり判定
+	//----------------------------------------------------------
+
+	/**
+	 * 指定された位置のタイルが<code>FLAG_SOLID</code>を持つかを返します。<br>
+	 * 座標は描画と同じくマップの端で折り返します。
+	 *
+	 * @param x X座標(ピクセル単位)
+	 * @param y Y座標(ピクセル単位)
+	 * @return 通り抜けられないときは<code>true</code>
+	 */
+	public boolean isSolid(int x, int y)
+	{
+		if (m_flag_bits[0] == null) return false;
+		return isSolidCell(Math.floorDiv(x, m_tile_width), Math.floorDiv(y, m_tile_height));
+	}
+
+	/**
+	 * 矩形が<code>FLAG_SOLID</code>を持つタイルと重なるかを返します。<br>
+	 * 矩形が掛かっているタイルだけを調べます。
+	 *
+	 * @param x 左上のX座標(ピクセル単位)
+	 * @param y 左上のY座標(ピクセル単位)
+	 * @param w 幅(ピクセル単位)
+	 * @param h 高さ(ピクセル単位)
+	 * @return 重なるときは<code>true</code>
+	 */
+	public boolean overlapsSolid(int x, int y, int w, int h)
+	{
+		if (m_flag_bits[0] == null || w <= 0 || h <= 0) return false;
+		return isSolidRange(Math.floorDiv(x, m_tile_width), Math.floorDiv(x + w - 1, m_tile_width),
+				Math.floorDiv(y, m_tile_height), Math.floorDiv(y + h - 1, m_tile_height));
+	}
+
+	/**
+	 * 矩形を横方向に動かしたときに、<code>FLAG_SOLID</code>を持つタイルに当たらずに動ける距離を返します。<br>
+	 * 移動前の矩形は通り抜けられないタイルと重なっていないものとし、
+	 * 移動で新しく掛かるタイルの列だけを進む向きに調べます。
+	 *
+	 * @param x  左上のX座標(ピクセル単位)
+	 * @param y  左上のY座標(ピクセル単位)
+	 * @param w  幅(ピクセル単位)
+	 * @param h  高さ(ピクセル単位)
+	 * @param dx 動かす距離
+	 * @return 動ける距離(<code>dx</code>と同じ符号で、絶対値は<code>dx</code>以下)
+	 */
+	public int moveX(int x, int y, int w, int h, int dx)
+	{
+		if (m_flag_bits[0] == null || dx == 0 || w <= 0 || h <= 0) return dx;
+		int iy1 = Math.floorDiv(y, m_tile_height);
+		int iy2 = Math.floorDiv(y + h - 1, m_tile_height);
+		if (dx > 0) {
+			int edge = x + w;
+			int ix2 = Math.floorDiv(edge + dx - 1, m_tile_width);
+			for (int ix=Math.floorDiv(edge - 1, m_tile_width) + 1; ix <= ix2; ++ix) {
+				if (isSolidRange(ix, ix, iy1, iy2)) {
+					return ix * m_tile_width - edge;
+				}
+			}
+		}
+		else {
+			int ix2 = Math.floorDiv(x + dx, m_tile_width);
+			for (int ix=Math.floorDiv(x, m_tile_width) - 1; ix >= ix2; --ix) {
+				if (isSolidRange(ix, ix, iy1, iy2)) {
+					return (ix + 1) * m_tile_width - x;
+				}
+			}
+		}
+		return dx;
+	}
+
+	/**
+	 * 矩形を縦方向に動かしたときに、<code>FLAG_SOLID</code>を持つタイルに当たらずに動ける距離を返します。
+	 *
+	 * @param x  左上のX座標(ピクセル単位)
+	 * @param y  左上のY座標(ピクセル単位)
+	 * @param w  幅(ピクセル単位)
+	 * @param h  高さ(ピクセル単位)
+	 * @param dy 動かす距離
+	 * @return 動ける距離(<code>dy</code>と同じ符号で、絶対値は<code>dy</code>以下)
+	 * @see #moveX(int, int, int, int, int)
+	 */
+	public int moveY(int x, int y, int w, int h, int dy)
+	{
+		if (m_flag_bits[0] == null || dy == 0 || w <= 0 || h <= 0) return dy;
+		int ix1 = Math.floorDiv(x, m_tile_width);
+		int ix2 = Math.floorDiv(x + w - 1, m_tile_width);
+		if (dy > 0) {
+			int edge = y + h;
+			int iy2 = Math.floorDiv(edge + dy - 1, m_tile_height);
+			for (int iy=Math.floorDiv(edge - 1, m_tile_height) + 1; iy <= iy2; ++iy) {
+				if (isSolidRange(ix1, ix2, iy, iy)) {
+					return iy * m_tile_height - edge;
+				}
+			}
+		}
+		else {
+			int iy2 = Math.floorDiv(y + dy, m_tile_height);
+			for (int iy=Math.floorDiv(y, m_tile_height) - 1; iy >= iy2; --iy) {
+				if (isSolidRange(ix1, ix2, iy, iy)) {
+					return (iy + 1) * m_tile_height - y;
+				}
+			}
+		}
+		return dy;
+	}
+
+	/**
+	 * 矩形を横、縦の順に動かし、<code>FLAG_SOLID</code>を持つタイルに当たったところで止めます。<br>
+	 * 壁に沿って滑るような動きになります。
+	 *
+	 * @param x      左上のX座標(ピクセル単位)
+	 * @param y      左上のY座標(ピクセル単位)
+	 * @param w      幅(ピクセル単位)
+	 * @param h      高さ(ピクセル単位)
+	 * @param dx     横方向に動かす距離
+	 * @param dy     縦方向に動かす距離
+	 * @param result 実際に動ける距離を受け取るオブジェクト
+	 * @return 横か縦のどちらかでタイルに当たったときは<code>true</code>
+	 */
+	public boolean sweep(int x, int y, int w, int h, int dx, int dy, Point result)
+	{
+		int mx = moveX(x, y, w, h, dx);
+		int my = moveY(x + mx, y, w, h, dy);
+		result.setLocation(mx, my);
+		return mx != dx || my != dy;
+	}
+
+	/**
+	 * 指定された位置のタイルが<code>FLAG_SOLID</code>を持つかを返します。
+	 *
+	 * @param ix タイル単位のX座標(折り返し前)
+	 * @param iy タイル単位のY座標(折り返し前)
+	 * @return 通り抜けられないときは<code>true</code>
+	 */
+	private boolean isSolidCell(int ix, int iy)
+	{
+		return isSolidCodeAttr(m_cells.get(Math.floorMod(ix, m_width), Math.floorMod(iy, m_height)));
+	}
+
+	/**
+	 * タイル情報のタイルが<code>FLAG_SOLID</code>を持つかを返します。
+	 *
+	 * @param codeattr タイル情報
+	 * @return 通り抜けられないときは<code>true</code>
+	 */
+	private boolean isSolidCodeAttr(int codeattr)
+	{
+		if (codeattr == -1) return false;
+		int code = codeattr & 0xffff;
+		// FLAG_SOLIDはビット0
+		return (m_flag_bits[0][code >> 6] & (1L << code)) != 0;
+	}
+
+	/**
+	 * 矩形範囲に<code>FLAG_SOLID</code>を持つタイルがあるかを返します。
+	 *
+	 * @param ix1 左端のタイル単位のX座標(折り返し前)
+	 * @param ix2 右端のタイル単位のX座標(折り返し前、この列を含む)
+	 * @param iy1 上端のタイル単位のY座標(折り返し前)
+	 * @param iy2 下端のタイル単位のY座標(折り返し前、この行を含む)
+	 * @return あるときは<code>true</code>
+	 */
+	private boolean isSolidRange(int ix1, int ix2, int iy1, int iy2)
+	{
+		if (m_runs != null) {
+			// 折り返した列の範囲を最大2つのマップ上の範囲に分けてランの中だけを調べる
+			int x1 = Math.floorMod(ix1, m_width);
+			int cols = ix2 - ix1 + 1;
+			for (int iy=iy1; iy <= iy2; ++iy) {
+				int y = Math.floorMod(iy, m_height);
+				if (cols >= m_width) {
+					if (isSolidRun(y, 0, m_width)) return true;
+				}
+				else if (x1 + cols <= m_width) {
+					if (isSolidRun(y, x1, x1 + cols)) return true;
+				}
+				else {
+					if (isSolidRun(y, x1, m_width) || isSolidRun(y, 0, x1 + cols - m_width)) return true;
+				}
+			}
+			return false;
+		}
+		for (int iy=iy1; iy <= iy2; ++iy) {
+			for (int ix=ix1; ix <= ix2; ++ix) {
+				if (isSolidCell(ix, iy)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 1行の範囲のうちランに含まれるタイルに<code>FLAG_SOLID</code>を持つタイルがあるかを返します。
+	 *
+	 * @param y  タイル単位のY座標
+	 * @param x1 左端のタイル単位のX座標
+	 * @param x2 右端のタイル単位のX座標(この列を含まない)
+	 * @return あるときは<code>true</code>
+	 */
+	private boolean isSolidRun(int y, int x1, int x2)
+	{
+		int count = m_runs.count(y);
+		for (int i=m_runs.find(y, x1); i < count; ++i) {
+			int start = m_runs.start(y, i);
+			if (start >= x2) break;
+			int end = Math.min(m_runs.end(y, i), x2);
+			for (int x=Math.max(start, x1); x < end; ++x) {
+				if (isSolidCodeAttr(m_cells.get(x, y))) return true;
+			}
+		}
+		return false;
+	}
+
+	//----------------------------------------------------------
+	//  タイルアニメーション
+	//----------------------------------------------------------
+
+	/**
+	 * タイル番号にアニメーションを割り当てます。<br>
+	 * <br>
+	 * マップ上のそのタイル番号の位置には、描画するときに表示中のコマのタイル番号が使われます。
+	 * 描画属性は各位置に設定されたものがそのまま使われます。
+	 * アニメーションは<code>advanceAnimations</code>で進めます。
+	 * すでに割り当てられているときは置き換えて最初のコマに戻します。
+	 *
+	 * @param code     タイル番号
+	 * @param frames   コマのタイル番号の配列
+	 * @param duration 各コマの表示時間(<code>advanceAnimations</code>に渡す単位)
+	 * @throws IllegalStateException 登録できるアニメーションの数(64)を超えたとき
+	 */
+	public void setAnimation(int code, int[] frames, int duration)
+	{
+		int[] durations = new int[frames.length];
+		Arrays.fill(durations, duration);
+		setAnimation(code, frames, durations);
+	}
+
+	/**
+	 * タイル番号にコマごとの表示時間を指定したアニメーションを割り当てます。
+	 *
+	 * @param code      タイル番号
+	 * @param frames    コマのタイル番号の配列
+	 * @param durations コマごとの表示時間の配列(<code>advanceAnimations</code>に渡す単位)
+	 * @throws IllegalStateException 登録できるアニメーションの数(64)を超えたとき
+	 * @see #setAnimation(int, int[], int)
+	 */
+	public void setAnimation(int code, int[] frames, int[] durations)
+	{
+		if (m_animator == null) {
+			m_animator = new VGTileAnimator();
+		}
+		m_animator.bind(code, frames, durations);
+		// 割り当て前に描画したキャッシュはどこにそのタイルがあるかを記録していない
+		invalidateCacheAll();
+	}
+
+	/**
+	 * タイル番号のアニメーションを解除します。
+	 *
+	 * @param code タイル番号
+	 */
+	public void removeAnimation(int code)
+	{
+		if (m_animator == null || !m_animator.unbind(code)) return;
+		if (m_animator.isEmpty()) {
+			m_animator = null;
+		}
+		invalidateCacheAll();
+	}
+
+	/**
+	 * すべてのアニメーションの時間を進めます。<br>
+	 * 処理時間はマップの大きさによらず、割り当てたアニメーションの数に比例します。
+	 * キャッシュは表示するコマが変わったタイルを含む部分だけが描き直されます。
+	 *
+	 * @param ticks 進める時間
+	 */
+	public void advanceAnimations(int ticks)
+	{
+		if (m_animator == null || ticks <= 0) return;
+		long changed = m_animator.advance(ticks);
+		if (changed == 0) return;
+		if (m_chunk_cache != null) {
+			m_chunk_cache.invalidateAnimations(changed);
+		}
+		if (m_scroll_buffer != null) {
+			m_scroll_buffer.invalidateAnimations(changed);
+		}
+	}
+
+	/**
+	 * 描画するタイル番号を返します。
+	 *
+	 * @param code マップに設定されたタイル番号
+	 * @return アニメーションを反映したタイル番号
+	 */
+	int resolveCode(int code)
+	{
+		return (m_animator == null) ? code : m_animator.resolve(code);
+	}
+
+	/**
+	 * キャッシュをすべて無効にします。
+	 */
+	private void invalidateCacheAll()
+	{
+		if (m_chunk_cache != null) {
+			m_chunk_cache.invalidateAll();
+		}
+		if (m_scroll_buffer != null) {
+			m_scroll_buffer.invalidateAll();
+		}
+	}
+
+	/**
+	 * 指定された範囲のタイルが変更されたときに呼び出します。<br>
+	 * 範囲のランを作り直し、範囲を描画したキャッシュを無効にします。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @param w 幅(タイル単位)
+	 * @param h 高さ(タイル単位)
+	 */
+	private void cellsChanged(int x, int y, int w, int h)
+	{
+		if (m_runs != null) {
+			for (int yy=y; yy < y + h; ++yy) {
+				m_runs.update(m_cells, yy, x, x + w);
+			}
+		}
+		if (m_chunk_cache != null) {
+			m_chunk_cache.invalidate(x, y, w, h);
+		}
+		if (m_scroll_buffer != null) {
+			m_scroll_buffer.invalidate(x, y, w, h);
 		}
-		m_codeattr[y][x] = (attr << 16) | (code & 0xffff);
 	}
 	
 	/**
@@ -172,6 +1204,24 @@ public final class VGTilemap implements IVGImage
 
 	@Override
 	public void paint(Graphics g, int x, int y, int w, int h, int attr)
+	{
+		paint(g, x, y, w, h, attr, null);
+	}
+
+	/**
+	 * 指定されたタイルを省いてイメージを描画します。<br>
+	 * <code>hidden</code>は<code>RENDER_DIRECT</code>のときだけ使われ、ビューポートに見えているタイルを
+	 * 反転前の左上から行ごとに並べた配列で、<code>true</code>の位置のタイルは描画されません。
+	 *
+	 * @param g      グラフィックコンテキスト
+	 * @param x      描画先の左上のX座標
+	 * @param y      描画先の左上のY座標
+	 * @param w      幅
+	 * @param h      高さ
+	 * @param attr   描画属性
+	 * @param hidden 描画しないタイルのフラグ(<code>null</code>のときはすべて描画)
+	 */
+	void paint(Graphics g, int x, int y, int w, int h, int attr, boolean[] hidden)
 	{
 		int scrollx = ptOrigin.x;
 		int scrolly = ptOrigin.y;
@@ -196,49 +1246,227 @@ public final class VGTilemap implements IVGImage
 			scrolly %= world_height;
 		}
 
+		// クリップ領域がないときは作業用の矩形が変更されない
+		rcClip.setBounds(0, 0, -1, -1);
+		g.getClipBounds(rcClip);
+		boolean clipped = rcClip.width >= 0;
+		int cx1 = x;
+		int cy1 = y;
+		int cx2 = x + w;
+		int cy2 = y + h;
+		if (clipped) {
+			cx1 = Math.max(cx1, rcClip.x);
+			cy1 = Math.max(cy1, rcClip.y);
+			cx2 = Math.min(cx2, rcClip.x + rcClip.width);
+			cy2 = Math.min(cy2, rcClip.y + rcClip.height);
+		}
+		if (cx2 <= cx1 || cy2 <= cy1) return;
+		// 既存のクリップ領域が描画範囲に収まっていればクリップを変更しない
+		boolean reclip = !clipped || cx1 != rcClip.x || cy1 != rcClip.y || cx2 != rcClip.x + rcClip.width || cy2 != rcClip.y + rcClip.height;
+		if (reclip) {
+			g.setClip(cx1, cy1, cx2 - cx1, cy2 - cy1);
+		}
+
+		switch (m_render_mode) {
+		case RENDER_CHUNKED:
+			if (m_chunk_cache == null) {
+				m_chunk_cache = new VGTilemapChunkCache(this, m_chunk_cols, m_chunk_rows, m_chunk_limit);
+			}
+			m_chunk_cache.paint(g, x, y, w, h, scrollx, scrolly, attr);
+			break;
+		case RENDER_SCROLL:
+			if (m_scroll_buffer == null) {
+				m_scroll_buffer = new VGTilemapScrollBuffer(this);
+			}
+			m_scroll_buffer.paint(g, x, y, w, h, ptOrigin.x, ptOrigin.y, attr);
+			break;
+		default:
+			paintDirect(g, x, y, w, h, scrollx, scrolly, attr, hidden);
+			break;
+		}
+
+		if (!reclip) {
+			return;
+		}
+		if (clipped) {
+			g.setClip(rcClip.x, rcClip.y, rcClip.width, rcClip.height);
+		}
+		else {
+			g.setClip(null);
+		}
+	}
+
+	/**
+	 * ビューポートに見えているタイルをすべて描画します。<br>
+	 * 反転属性が指定されたときはビューポートの幅と高さを軸に反転します。
+	 *
+	 * @param g       グラフィックコンテキスト
+	 * @param x       描画先の左上のX座標
+	 * @param y       描画先の左上のY座標
+	 * @param w       幅
+	 * @param h       高さ
+	 * @param scrollx 補正済みのスクロールX座標
+	 * @param scrolly 補正済みのスクロールY座標
+	 * @param attr    描画属性
+	 * @param hidden  描画しないタイルのフラグ(<code>null</code>のときはすべて描画)
+	 */
+	private void paintDirect(Graphics g, int x, int y, int w, int h, int scrollx, int scrolly, int attr, boolean[] hidden)
+	{
 		int ix0 = scrollx / m_tile_width;
 		int dx0 = -(scrollx % m_tile_width);
-		int xx_num = (w + m_tile_width) / m_tile_width;
+		int xx_num = (w - dx0 + m_tile_width - 1) / m_tile_width;
 		int dx_pitch = m_tile_width;
 		if ((attr & FLIP_HORIZONTAL) != 0) {
-			dx0 = (xx_num - 1) * m_tile_width - (m_tile_width + dx0);
+			dx0 = w - m_tile_width - dx0;
 			dx_pitch = -dx_pitch;
 		}
 
 		int iy0 = scrolly / m_tile_height;
 		int dy0 = -(scrolly % m_tile_height);
-		int yy_num = (h + m_tile_height) / m_tile_height;
+		int yy_num = (h - dy0 + m_tile_height - 1) / m_tile_height;
 		int dy_pitch = m_tile_height;
 		if ((attr & FLIP_VERTICAL) != 0) {
-			dy0 = (yy_num - 1) * m_tile_height - (m_tile_height + dy0);
+			dy0 = h - m_tile_height - dy0;
 			dy_pitch = -dy_pitch;
 		}
 
-		Rectangle clip_old = g.getClipBounds();
-		Rectangle clip_new = new Rectangle(x, y, w, h);
-		if (clip_old != null) {
-			clip_new = clip_new.intersection(clip_old);
-		}
-		g.setClip(clip_new);
-
 		int dy = dy0;
 		int iy = iy0;
+		int index = 0;
 		for (int yy=0; yy < yy_num; ++yy) {
-			int dx = dx0;
-			int ix = ix0;
-			for (int xx=0; xx < xx_num; ++xx) {
-				int codeattr = m_codeattr[iy][ix];
-				if (codeattr != -1) {
-					m_tiles.paint(g, (codeattr & 0xffff), x+dx, y+dy, m_tile_width, m_tile_height, ((codeattr >>> 16) ^ attr));
+			if (m_runs != null) {
+				paintRuns(g, iy, ix0, xx_num, x + dx0, dx_pitch, y + dy, attr, hidden, index);
+				index += xx_num;
+			}
+			else {
+				int dx = dx0;
+				int ix = ix0;
+				for (int xx=0; xx < xx_num; ++xx, ++index) {
+					int codeattr = m_cells.get(ix, iy);
+					if (codeattr != -1 && (hidden == null || !hidden[index])) {
+						m_tiles.paint(g, resolveCode(codeattr & 0xffff), x+dx, y+dy, m_tile_width, m_tile_height, ((codeattr >>> 16) ^ attr));
+					}
+					dx += dx_pitch;
+					if (++ix >= m_width) ix = 0;
 				}
-				dx += dx_pitch;
-				if (++ix >= m_width) ix = 0;
 			}
 			dy += dy_pitch;
 			if (++iy >= m_height) iy = 0;
 		}
-		
-		g.setClip(clip_old);
+	}
+
+	/**
+	 * ビューポートの1行のタイルをランをたどって描画します。<br>
+	 * 空の位置は調べずに飛ばし、マップの右端では左端へ折り返します。
+	 *
+	 * @param g        グラフィックコンテキスト
+	 * @param iy       タイル単位のY座標
+	 * @param ix0      行の最初のタイル単位のX座標
+	 * @param xx_num   行のタイルの数
+	 * @param px0      行の最初のタイルを描画するX座標
+	 * @param dx_pitch タイルの間隔(左右反転のときは負)
+	 * @param py       描画先のY座標
+	 * @param attr     描画属性
+	 * @param hidden   描画しないタイルのフラグ(<code>null</code>のときはすべて描画)
+	 * @param index    行の最初のタイルのフラグの位置
+	 */
+	private void paintRuns(Graphics g, int iy, int ix0, int xx_num, int px0, int dx_pitch, int py, int attr, boolean[] hidden, int index)
+	{
+		int count = m_runs.count(iy);
+		if (count == 0) return;
+		int i = m_runs.find(iy, ix0);
+		int ix = ix0;
+		int xx = 0;
+		while (xx < xx_num) {
+			if (i >= count) {
+				// 右側にランがなければ左端へ折り返す
+				xx += m_width - ix;
+				ix = 0;
+				i = 0;
+				continue;
+			}
+			int start = m_runs.start(iy, i);
+			if (start > ix) {
+				xx += start - ix;
+				ix = start;
+				if (xx >= xx_num) break;
+			}
+			int run_end = m_runs.end(iy, i);
+			int end = Math.min(run_end, ix + xx_num - xx);
+			for (; ix < end; ++ix, ++xx) {
+				if (hidden != null && hidden[index + xx]) continue;
+				int codeattr = m_cells.get(ix, iy);
+				m_tiles.paint(g, resolveCode(codeattr & 0xffff), px0 + xx * dx_pitch, py, m_tile_width, m_tile_height, ((codeattr >>> 16) ^ attr));
+			}
+			if (ix >= run_end) ++i;
+			if (ix >= m_width) {
+				ix = 0;
+				i = 0;
+			}
+		}
+	}
+
+	/**
+	 * 折り返さずにマップの一部のタイルを描画します。<br>
+	 * 全体の描画属性は適用されず、タイルごとの描画属性だけが使われます。
+	 *
+	 * @param g    グラフィックコンテキスト
+	 * @param ix   描画を開始するタイル単位のX座標
+	 * @param iy   描画を開始するタイル単位のY座標
+	 * @param cols 描画する幅(タイル単位)
+	 * @param rows 描画する高さ(タイル単位)
+	 * @param dx   描画先の左上のX座標
+	 * @param dy   描画先の左上のY座標
+	 * @return 描画したタイルに割り当てられたアニメーションのスロットのマスク
+	 */
+	long paintTiles(Graphics g, int ix, int iy, int cols, int rows, int dx, int dy)
+	{
+		long anim_mask = 0;
+		for (int yy=0; yy < rows; ++yy) {
+			int py = dy + yy * m_tile_height;
+			if (m_runs != null) {
+				// ランに含まれるタイルだけを描画する
+				int count = m_runs.count(iy + yy);
+				for (int i=m_runs.find(iy + yy, ix); i < count; ++i) {
+					int start = m_runs.start(iy + yy, i);
+					if (start >= ix + cols) break;
+					int end = Math.min(m_runs.end(iy + yy, i), ix + cols);
+					for (int xx=Math.max(start, ix) - ix; xx < end - ix; ++xx) {
+						anim_mask |= paintTile(g, m_cells.get(ix + xx, iy + yy), dx + xx * m_tile_width, py);
+					}
+				}
+				continue;
+			}
+			for (int xx=0; xx < cols; ++xx) {
+				int codeattr = m_cells.get(ix + xx, iy + yy);
+				if (codeattr != -1) {
+					anim_mask |= paintTile(g, codeattr, dx + xx * m_tile_width, py);
+				}
+			}
+		}
+		return anim_mask;
+	}
+
+	/**
+	 * タイルを1つ描画します。<br>
+	 * 全体の描画属性は適用されず、タイルごとの描画属性だけが使われます。
+	 *
+	 * @param g        グラフィックコンテキスト
+	 * @param codeattr タイル情報(-1以外)
+	 * @param px       描画先の左上のX座標
+	 * @param py       描画先の左上のY座標
+	 * @return タイルに割り当てられたアニメーションのスロットのマスク
+	 */
+	private long paintTile(Graphics g, int codeattr, int px, int py)
+	{
+		int code = codeattr & 0xffff;
+		long anim_mask = 0;
+		if (m_animator != null) {
+			anim_mask = m_animator.maskOf(code);
+			code = m_animator.resolve(code);
+		}
+		m_tiles.paint(g, code, px, py, m_tile_width, m_tile_height, (codeattr >>> 16));
+		return anim_mask;
 	}
 
 	@Override
@@ -258,4 +1486,106 @@ public final class VGTilemap implements IVGImage
 	{
 		paint(g, rcBounds.x, rcBounds.y, rcBounds.width, rcBounds.height, attr);
 	}
+
+	//----------------------------------------------------------
+	//  ソフトウェア描画
+	//----------------------------------------------------------
+
+	/**
+	 * <code>ForkJoinPool.commonPool()</code>を使ってイメージの画素へ直接描画します。
+	 *
+	 * @param dst  描画先のイメージ(<code>TYPE_INT_RGB</code>か<code>TYPE_INT_ARGB</code>)
+	 * @param x    描画先の左上のX座標
+	 * @param y    描画先の左上のY座標
+	 * @param w    幅
+	 * @param h    高さ
+	 * @param attr 描画属性
+	 * @see #rasterize(BufferedImage, int, int, int, int, int, ForkJoinPool)
+	 */
+	public void rasterize(BufferedImage dst, int x, int y, int w, int h, int attr)
+	{
+		rasterize(dst, x, y, w, h, attr, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * あらかじめ設定された位置と大きさの領域に、<code>ForkJoinPool.commonPool()</code>を使って
+	 * イメージの画素へ直接描画します。
+	 *
+	 * @param dst  描画先のイメージ(<code>TYPE_INT_RGB</code>か<code>TYPE_INT_ARGB</code>)
+	 * @param attr 描画属性
+	 */
+	public void rasterize(BufferedImage dst, int attr)
+	{
+		rasterize(dst, rcBounds.x, rcBounds.y, rcBounds.width, rcBounds.height, attr, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Java2Dを使わずにイメージの画素へ直接描画します。<br>
+	 * 描画範囲は描画先のイメージの大きさで切り取られます。
+	 * 描画先のイメージは画素の配列を直接参照するため、以後Java2Dによる高速化の対象から外れることがあります。
+	 *
+	 * @param dst  描画先のイメージ(<code>TYPE_INT_RGB</code>か<code>TYPE_INT_ARGB</code>)
+	 * @param x    描画先の左上のX座標
+	 * @param y    描画先の左上のY座標
+	 * @param w    幅
+	 * @param h    高さ
+	 * @param attr 描画属性
+	 * @param pool 描画に使うスレッドプール
+	 * @throws IllegalArgumentException 描画先の形式に対応していないとき
+	 * @throws IllegalStateException タイルイメージが<code>VGTiledImage</code>でないとき
+	 * @see #rasterize(VGRaster, int, int, int, int, int, ForkJoinPool)
+	 */
+	public void rasterize(BufferedImage dst, int x, int y, int w, int h, int attr, ForkJoinPool pool)
+	{
+		rasterize(new VGRaster(dst), x, y, w, h, attr, pool);
+	}
+
+	/**
+	 * Java2Dを使わずに画素へ直接描画します。<br>
+	 * <br>
+	 * 描画先を横長の帯に分け、<code>pool</code>のスレッドで並列に描画します。
+	 * <code>pool</code>が<code>null</code>のときは呼び出したスレッドだけで描画します。
+	 * 描画結果は<code>RENDER_DIRECT</code>の<code>paint</code>と同じで、反転属性とアルファ値に対応します。
+	 * 描画範囲は描画先のクリップ領域で切り取られます。<br>
+	 * タイルイメージは<code>VGTiledImage</code>である必要があり、元イメージの画素は最初の描画で取り込まれます。
+	 *
+	 * @param dst  描画先
+	 * @param x    描画先の左上のX座標
+	 * @param y    描画先の左上のY座標
+	 * @param w    幅
+	 * @param h    高さ
+	 * @param attr 描画属性
+	 * @param pool 描画に使うスレッドプール
+	 * @throws IllegalStateException タイルイメージが<code>VGTiledImage</code>でないとき
+	 */
+	public void rasterize(VGRaster dst, int x, int y, int w, int h, int attr, ForkJoinPool pool)
+	{
+		if (!(m_tiles instanceof VGTiledImage)) {
+			throw new IllegalStateException("rasterize requires VGTiledImage tiles");
+		}
+		int cx1 = Math.max(x, dst.m_clip_x1);
+		int cy1 = Math.max(y, dst.m_clip_y1);
+		int cx2 = Math.min(x + w, dst.m_clip_x2);
+		int cy2 = Math.min(y + h, dst.m_clip_y2);
+		if (cx2 <= cx1 || cy2 <= cy1) return;
+
+		VGTiledImage tiles = (VGTiledImage)m_tiles;
+		int scrollx = Math.floorMod(ptOrigin.x, m_tile_width  * m_width);
+		int scrolly = Math.floorMod(ptOrigin.y, m_tile_height * m_height);
+
+		// スレッドごとに2本程度の帯になるまで分割する
+		int rows = cy2 - cy1;
+		int band_rows = rows;
+		if (pool != null) {
+			band_rows = Math.max(8, (rows + pool.getParallelism() * 2 - 1) / (pool.getParallelism() * 2));
+		}
+		VGTilemapRasterizer task = new VGTilemapRasterizer(this, tiles, tiles.getPixels(), dst,
+				x, y, w, h, cx1, cx2, scrollx, scrolly, attr, band_rows, cy1, cy2);
+		if (pool == null || band_rows >= rows) {
+			task.invoke();
+		}
+		else {
+			pool.invoke(task);
+		}
+	}
 }
@@ -0,0 +1,396 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * <code>VGTilemap</code>を固定サイズのチャンクごとにイメージへ描画して保持します。<br>
+ * <br>
+ * チャンクは表示されたときに初めて作成・描画され、<code>setTile</code>で変更されたチャンクだけが
+ * 次の描画で描き直されます。ビューポートはチャンクを転送するだけで描画されます。<br>
+ * 保持するチャンクのイメージの数は上限を超えないよう、最も長く表示されていないものから解放されます。
+ * ただし1回の描画で使うチャンクは上限を超えても解放しません。
+ */
+final class VGTilemapChunkCache
+{
+	/**
+	 * 透明色
+	 */
+	private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+	/**
+	 * 対象のタイルマップ
+	 */
+	private VGTilemap m_tilemap;
+	/**
+	 * チャンクの幅(タイル単位)
+	 */
+	private int m_chunk_cols;
+	/**
+	 * チャンクの高さ(タイル単位)
+	 */
+	private int m_chunk_rows;
+	/**
+	 * 横方向のチャンクの数
+	 */
+	private int m_columns;
+	/**
+	 * 縦方向のチャンクの数
+	 */
+	private int m_rows;
+	/**
+	 * チャンクのイメージ(未作成のときは<code>null</code>)
+	 */
+	private BufferedImage[] m_images;
+	/**
+	 * 描き直しが必要なチャンクのフラグ
+	 */
+	private boolean[] m_dirty;
+	/**
+	 * チャンクに描画したタイルのアニメーションのスロットのマスク
+	 */
+	private long[] m_anim_masks;
+	/**
+	 * チャンクのイメージを作成したデバイスの構成
+	 */
+	private GraphicsConfiguration m_config;
+	/**
+	 * 保持するチャンクのイメージの数の上限
+	 */
+	private int m_limit;
+	/**
+	 * 保持しているチャンクのイメージの数
+	 */
+	private int m_live;
+	/**
+	 * チャンクを最後に描画に使った<code>paint</code>の回数
+	 */
+	private int[] m_stamps;
+	/**
+	 * 描画に使った順のリストで1つ前(古い側)のチャンクの番号(先頭は-1)
+	 */
+	private int[] m_lru_prev;
+	/**
+	 * 描画に使った順のリストで1つ後(新しい側)のチャンクの番号(末尾は-1)
+	 */
+	private int[] m_lru_next;
+	/**
+	 * 最も長く描画に使っていないチャンクの番号(ないときは-1)
+	 */
+	private int m_lru_head = -1;
+	/**
+	 * 最後に描画に使ったチャンクの番号(ないときは-1)
+	 */
+	private int m_lru_tail = -1;
+	/**
+	 * <code>paint</code>を呼び出した回数
+	 */
+	private int m_paint_count;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGTilemapChunkCache</code>オブジェクトを構築します。
+	 *
+	 * @param tilemap    対象のタイルマップ
+	 * @param chunk_cols チャンクの幅(タイル単位)
+	 * @param chunk_rows チャンクの高さ(タイル単位)
+	 * @param limit      保持するチャンクのイメージの数の上限
+	 */
+	VGTilemapChunkCache(VGTilemap tilemap, int chunk_cols, int chunk_rows, int limit)
+	{
+		m_tilemap = tilemap;
+		m_chunk_cols = chunk_cols;
+		m_chunk_rows = chunk_rows;
+		m_columns = (tilemap.getMapWidth()  + chunk_cols - 1) / chunk_cols;
+		m_rows    = (tilemap.getMapHeight() + chunk_rows - 1) / chunk_rows;
+		m_images = new BufferedImage[m_columns * m_rows];
+		m_dirty  = new boolean[m_columns * m_rows];
+		m_anim_masks = new long[m_columns * m_rows];
+		m_stamps   = new int[m_columns * m_rows];
+		m_lru_prev = new int[m_columns * m_rows];
+		m_lru_next = new int[m_columns * m_rows];
+		m_limit = limit;
+	}
+
+	/**
+	 * 保持するチャンクのイメージの数の上限を変更します。<br>
+	 * 上限を超えている分は次の描画で解放されます。
+	 *
+	 * @param limit 上限
+	 */
+	void setLimit(int limit)
+	{
+		m_limit = limit;
+	}
+
+	//----------------------------------------------------------
+	//  無効化
+	//----------------------------------------------------------
+
+	/**
+	 * 指定された範囲のタイルを含むチャンクを描き直すようにします。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @param w 幅(タイル単位)
+	 * @param h 高さ(タイル単位)
+	 */
+	void invalidate(int x, int y, int w, int h)
+	{
+		if (w <= 0 || h <= 0) return;
+		int cx1 = x / m_chunk_cols;
+		int cy1 = y / m_chunk_rows;
+		int cx2 = (x + w - 1) / m_chunk_cols;
+		int cy2 = (y + h - 1) / m_chunk_rows;
+		for (int cy=cy1; cy <= cy2; ++cy) {
+			for (int cx=cx1; cx <= cx2; ++cx) {
+				m_dirty[cy * m_columns + cx] = true;
+			}
+		}
+	}
+
+	/**
+	 * すべてのチャンクを描き直すようにします。
+	 */
+	void invalidateAll()
+	{
+		for (int i=0; i < m_dirty.length; ++i) {
+			m_dirty[i] = true;
+		}
+	}
+
+	/**
+	 * 表示するコマが変わったアニメーションのタイルを含むチャンクを描き直すようにします。
+	 *
+	 * @param changed 表示するコマが変わったアニメーションのスロットのマスク
+	 */
+	void invalidateAnimations(long changed)
+	{
+		for (int i=0; i < m_anim_masks.length; ++i) {
+			if ((m_anim_masks[i] & changed) != 0) {
+				m_dirty[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * チャンクのイメージをすべて解放します。
+	 */
+	void release()
+	{
+		for (int i=0; i < m_images.length; ++i) {
+			if (m_images[i] != null) {
+				m_images[i].flush();
+				m_images[i] = null;
+			}
+		}
+		m_live = 0;
+		m_lru_head = -1;
+		m_lru_tail = -1;
+		m_config = null;
+	}
+
+	//----------------------------------------------------------
+	//  上限の管理
+	//----------------------------------------------------------
+
+	/**
+	 * チャンクを描画に使った順のリストの末尾に移します。
+	 *
+	 * @param index チャンクの番号
+	 * @param linked すでにリストにあるときは<code>true</code>
+	 */
+	private void touch(int index, boolean linked)
+	{
+		m_stamps[index] = m_paint_count;
+		if (linked) {
+			if (index == m_lru_tail) return;
+			unlink(index);
+		}
+		m_lru_prev[index] = m_lru_tail;
+		m_lru_next[index] = -1;
+		if (m_lru_tail >= 0) {
+			m_lru_next[m_lru_tail] = index;
+		}
+		else {
+			m_lru_head = index;
+		}
+		m_lru_tail = index;
+	}
+
+	/**
+	 * チャンクを描画に使った順のリストから外します。
+	 *
+	 * @param index チャンクの番号
+	 */
+	private void unlink(int index)
+	{
+		int prev = m_lru_prev[index];
+		int next = m_lru_next[index];
+		if (prev >= 0) {
+			m_lru_next[prev] = next;
+		}
+		else {
+			m_lru_head = next;
+		}
+		if (next >= 0) {
+			m_lru_prev[next] = prev;
+		}
+		else {
+			m_lru_tail = prev;
+		}
+	}
+
+	/**
+	 * 上限に収まるまで、最も長く描画に使っていないチャンクのイメージを解放します。<br>
+	 * 現在の描画で使っているチャンクは解放しません。
+	 *
+	 * @param reserve これから作成するイメージの数
+	 */
+	private void evict(int reserve)
+	{
+		while (m_live + reserve > m_limit && m_lru_head >= 0 && m_stamps[m_lru_head] != m_paint_count) {
+			int index = m_lru_head;
+			unlink(index);
+			m_images[index].flush();
+			m_images[index] = null;
+			m_live --;
+		}
+	}
+
+	//----------------------------------------------------------
+	//  描画メソッド
+	//----------------------------------------------------------
+
+	/**
+	 * ビューポートをチャンクの転送で描画します。<br>
+	 * クリップ領域は呼び出し側で設定されているものとします。
+	 *
+	 * @param g       グラフィックコンテキスト
+	 * @param x       描画先の左上のX座標
+	 * @param y       描画先の左上のY座標
+	 * @param w       幅
+	 * @param h       高さ
+	 * @param scrollx 補正済みのスクロールX座標
+	 * @param scrolly 補正済みのスクロールY座標
+	 * @param attr    描画属性
+	 */
+	void paint(Graphics g, int x, int y, int w, int h, int scrollx, int scrolly, int attr)
+	{
+		GraphicsConfiguration gc = ((Graphics2D)g).getDeviceConfiguration();
+		if (gc != m_config) {
+			release();
+			m_config = gc;
+		}
+		m_paint_count ++;
+
+		boolean flip_h = (attr & IVGImage.FLIP_HORIZONTAL) != 0;
+		boolean flip_v = (attr & IVGImage.FLIP_VERTICAL) != 0;
+		int tw = m_tilemap.getTileWidth();
+		int th = m_tilemap.getTileHeight();
+		int chunk_w = m_chunk_cols * tw;
+		int chunk_h = m_chunk_rows * th;
+		int world_width  = m_tilemap.getMapWidth()  * tw;
+		int world_height = m_tilemap.getMapHeight() * th;
+
+		// 描画先を左上から順に埋めていき、マップの端に達したら先頭に戻る
+		int ay = 0;
+		int py = scrolly;
+		while (ay < h) {
+			int cy = py / chunk_h;
+			int ch = Math.min(chunk_h, world_height - cy * chunk_h);
+			int oy = py - cy * chunk_h;
+			int dy = ay - oy;
+			if (flip_v) {
+				dy = h - dy - ch;
+			}
+			int ax = 0;
+			int px = scrollx;
+			while (ax < w) {
+				int cx = px / chunk_w;
+				int cw = Math.min(chunk_w, world_width - cx * chunk_w);
+				int ox = px - cx * chunk_w;
+				int dx = ax - ox;
+				if (flip_h) {
+					dx = w - dx - cw;
+				}
+				BufferedImage image = getChunk(cx, cy, cw, ch);
+				if (!flip_h && !flip_v) {
+					g.drawImage(image, x + dx, y + dy, null);
+				}
+				else {
+					int sx1 = 0, sx2 = cw;
+					int sy1 = 0, sy2 = ch;
+					if (flip_h) {
+						sx1 = cw;
+						sx2 = 0;
+					}
+					if (flip_v) {
+						sy1 = ch;
+						sy2 = 0;
+					}
+					g.drawImage(image, x + dx, y + dy, x + dx + cw, y + dy + ch, sx1, sy1, sx2, sy2, null);
+				}
+				ax += cw - ox;
+				px += cw - ox;
+				if (px >= world_width) px = 0;
+			}
+			ay += ch - oy;
+			py += ch - oy;
+			if (py >= world_height) py = 0;
+		}
+		// 上限を下げたときなど、新しく作成しなかった分もここで解放する
+		evict(0);
+	}
+
+	/**
+	 * 描画済みのチャンクのイメージを返します。<br>
+	 * イメージがないときは作成し、変更されているときは描き直します。
+	 *
+	 * @param cx チャンク単位のX座標
+	 * @param cy チャンク単位のY座標
+	 * @param cw チャンクの幅(ピクセル単位)
+	 * @param ch チャンクの高さ(ピクセル単位)
+	 * @return チャンクのイメージ
+	 */
+	private BufferedImage getChunk(int cx, int cy, int cw, int ch)
+	{
+		int index = cy * m_columns + cx;
+		BufferedImage image = m_images[index];
+		if (image == null) {
+			evict(1);
+			image = m_config.createCompatibleImage(cw, ch, Transparency.TRANSLUCENT);
+			m_images[index] = image;
+			m_dirty[index] = true;
+			m_live ++;
+			touch(index, false);
+		}
+		else {
+			touch(index, true);
+		}
+		if (m_dirty[index]) {
+			m_dirty[index] = false;
+			Graphics2D cg = image.createGraphics();
+			try {
+				cg.setBackground(TRANSPARENT);
+				cg.clearRect(0, 0, cw, ch);
+				int ix = cx * m_chunk_cols;
+				int iy = cy * m_chunk_rows;
+				int cols = Math.min(m_chunk_cols, m_tilemap.getMapWidth()  - ix);
+				int rows = Math.min(m_chunk_rows, m_tilemap.getMapHeight() - iy);
+				m_anim_masks[index] = m_tilemap.paintTiles(cg, ix, iy, cols, rows, 0, 0);
+			}
+			finally {
+				cg.dispose();
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,184 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>VGTilemap</code>をバイナリ形式のファイルに書き込み、メモリマップで読み込みます。<br>
+ * <br>
+ * ファイルは24バイトのヘッダと、左上から行ごとに並んだタイル情報からなります。
+ * 数値はすべてビッグエンディアンです。
+ * <pre>
+ *  0  4バイト  識別子 "VGTM"
+ *  4  2バイト  バージョン(1)
+ *  6  1バイト  1タイルあたりのバイト数(4、2、1のいずれか)
+ *  7  1バイト  書き込んだマップの保持形式(<code>VGTilemap.STORAGE_*</code>のいずれか)
+ *  8  4バイト  マップの幅(タイル単位)
+ * 12  4バイト  マップの高さ(タイル単位)
+ * 16  4バイト  タイルの幅(ピクセル単位)
+ * 20  4バイト  タイルの高さ(ピクセル単位)
+ * 24  タイル情報
+ * </pre>
+ * タイル情報の形式は<code>VGTilemap.STORAGE_INT</code>、<code>STORAGE_SHORT</code>、
+ * <code>STORAGE_BYTE</code>の保持形式と同じです。<br>
+ * 読み込んだマップはファイルの内容を直接参照するため、大きなマップでもすぐに開くことができ、
+ * 同じファイルを開いた複数のプロセスでページが共有されます。<code>setTile</code>で変更すると
+ * その時点でタイル情報が書き込んだときの保持形式でヒープ上に複製され、ファイルには書き戻されません。
+ * タイル情報の形式は書き込んだときの内容に合わせて狭くなりますが、複製した後は元の保持形式で表せる値を設定できます。
+ */
+public final class VGTilemapFile
+{
+	/**
+	 * ファイルの識別子
+	 */
+	private static final int MAGIC = ('V' << 24) | ('G' << 16) | ('T' << 8) | 'M';
+	/**
+	 * ファイル形式のバージョン
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * ヘッダのバイト数
+	 */
+	private static final int HEADER_SIZE = 24;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * インスタンスは作成しません。
+	 */
+	private VGTilemapFile()
+	{
+	}
+
+	//----------------------------------------------------------
+	//  書き込み
+	//----------------------------------------------------------
+
+	/**
+	 * タイルマップをファイルに書き込みます。<br>
+	 * タイル情報はすべてのタイルを表せる最も小さい形式で書き込まれ、マップの保持形式はヘッダに記録されます。
+	 *
+	 * @param tilemap タイルマップ
+	 * @param file    書き込むファイル
+	 * @throws IOException 書き込みに失敗したとき
+	 */
+	public static void write(VGTilemap tilemap, File file) throws IOException
+	{
+		int width  = tilemap.getMapWidth();
+		int height = tilemap.getMapHeight();
+		int cell_bytes = 1;
+		for (int y=0; y < height && cell_bytes < 4; ++y) {
+			for (int x=0; x < width; ++x) {
+				int codeattr = tilemap.getCodeAttr(x, y);
+				if (codeattr == -1) continue;
+				int code = codeattr & 0xffff;
+				int attr = codeattr >>> 16;
+				if (attr > 3 || code > VGTileStorage.ShortStorage.MAX_CODE) {
+					cell_bytes = 4;
+					break;
+				}
+				if (code > VGTileStorage.ByteStorage.MAX_CODE) {
+					cell_bytes = 2;
+				}
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte(cell_bytes);
+			out.writeByte(tilemap.getStorageType());
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(tilemap.getTileWidth());
+			out.writeInt(tilemap.getTileHeight());
+			for (int y=0; y < height; ++y) {
+				for (int x=0; x < width; ++x) {
+					int codeattr = tilemap.getCodeAttr(x, y);
+					switch (cell_bytes) {
+					case 1:
+						out.writeByte(VGTileStorage.ByteStorage.encode(codeattr));
+						break;
+					case 2:
+						out.writeShort(VGTileStorage.ShortStorage.encode(codeattr));
+						break;
+					default:
+						out.writeInt(codeattr);
+						break;
+					}
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	//----------------------------------------------------------
+	//  読み込み
+	//----------------------------------------------------------
+
+	/**
+	 * ファイルをメモリマップしてタイルマップを作成します。<br>
+	 * タイルの大きさはファイルに記録された値が使われます。
+	 *
+	 * @param file  読み込むファイル
+	 * @param tiles タイルイメージ
+	 * @return 作成したタイルマップ
+	 * @throws IOException 読み込みに失敗したとき、またはファイルの形式が正しくないとき
+	 */
+	public static VGTilemap load(File file, IVGImageArray tiles) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException(file + ": not a tilemap file");
+			}
+			// ByteBufferで扱えるのは2GB未満まで
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + ": file too large (" + size + " bytes)");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException(file + ": not a tilemap file");
+			}
+			int version = buffer.getShort(4);
+			if (version != VERSION) {
+				throw new IOException(file + ": unsupported version " + version);
+			}
+			int cell_bytes = buffer.get(6);
+			int storage = buffer.get(7);
+			int width  = buffer.getInt(8);
+			int height = buffer.getInt(12);
+			int tile_width  = buffer.getInt(16);
+			int tile_height = buffer.getInt(20);
+			if (cell_bytes != 1 && cell_bytes != 2 && cell_bytes != 4) {
+				throw new IOException(file + ": unsupported cell size " + cell_bytes);
+			}
+			if (storage < VGTilemap.STORAGE_INT || storage > VGTilemap.STORAGE_SPARSE) {
+				throw new IOException(file + ": unsupported storage " + storage);
+			}
+			if (width <= 0 || height <= 0 || size < HEADER_SIZE + (long)width * height * cell_bytes) {
+				throw new IOException(file + ": truncated or invalid map size " + width + "x" + height);
+			}
+			buffer.position(HEADER_SIZE);
+			ByteBuffer cells = buffer.slice();
+			return new VGTilemap(tiles, new VGTileStorage.BufferStorage(width, height, cells, cell_bytes, storage), tile_width, tile_height);
+		}
+		finally {
+			// マップしたバッファはチャンネルを閉じても有効
+			raf.close();
+		}
+	}
+}
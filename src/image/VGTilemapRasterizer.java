@@ -0,0 +1,250 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <code>VGTilemap</code>のビューポートを<code>int</code>の配列の画素へ直接描画するタスクです。<br>
+ * <br>
+ * 描画先の行の範囲を帯に分割し、分割した帯はそれぞれ別のスレッドで描画されます。
+ * 帯どうしは描画先の画素が重ならないため同期は必要ありません。
+ */
+final class VGTilemapRasterizer extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 対象のタイルマップ
+	 */
+	private final VGTilemap m_tilemap;
+	/**
+	 * タイルイメージ
+	 */
+	private final VGTiledImage m_tiles;
+	/**
+	 * タイルイメージの画素
+	 */
+	private final VGImagePixels m_src;
+	/**
+	 * 描画先
+	 */
+	private final VGRaster m_dst;
+	/**
+	 * ビューポートの左上のX座標
+	 */
+	private final int m_x;
+	/**
+	 * ビューポートの左上のY座標
+	 */
+	private final int m_y;
+	/**
+	 * ビューポートの幅
+	 */
+	private final int m_w;
+	/**
+	 * ビューポートの高さ
+	 */
+	private final int m_h;
+	/**
+	 * 描画先のクリップ領域からはみ出さない左端のX座標
+	 */
+	private final int m_clip_x1;
+	/**
+	 * 描画先のクリップ領域からはみ出さない右端のX座標(この列を含まない)
+	 */
+	private final int m_clip_x2;
+	/**
+	 * 補正済みのスクロールX座標
+	 */
+	private final int m_scrollx;
+	/**
+	 * 補正済みのスクロールY座標
+	 */
+	private final int m_scrolly;
+	/**
+	 * 全体の描画属性
+	 */
+	private final int m_attr;
+	/**
+	 * これ以下の行数になるまで帯を分割する
+	 */
+	private final int m_band_rows;
+	/**
+	 * 描画する最初の行
+	 */
+	private final int m_row1;
+	/**
+	 * 描画する最後の行(この行を含まない)
+	 */
+	private final int m_row2;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGTilemapRasterizer</code>オブジェクトを構築します。
+	 */
+	VGTilemapRasterizer(VGTilemap tilemap, VGTiledImage tiles, VGImagePixels src, VGRaster dst,
+			int x, int y, int w, int h, int clip_x1, int clip_x2,
+			int scrollx, int scrolly, int attr, int band_rows, int row1, int row2)
+	{
+		m_tilemap = tilemap;
+		m_tiles = tiles;
+		m_src = src;
+		m_dst = dst;
+		m_x = x;
+		m_y = y;
+		m_w = w;
+		m_h = h;
+		m_clip_x1 = clip_x1;
+		m_clip_x2 = clip_x2;
+		m_scrollx = scrollx;
+		m_scrolly = scrolly;
+		m_attr = attr;
+		m_band_rows = band_rows;
+		m_row1 = row1;
+		m_row2 = row2;
+	}
+
+	/**
+	 * 行の範囲だけが異なるタスクを作成します。
+	 *
+	 * @param row1 描画する最初の行
+	 * @param row2 描画する最後の行(この行を含まない)
+	 * @return 作成したタスク
+	 */
+	private VGTilemapRasterizer band(int row1, int row2)
+	{
+		return new VGTilemapRasterizer(m_tilemap, m_tiles, m_src, m_dst,
+				m_x, m_y, m_w, m_h, m_clip_x1, m_clip_x2, m_scrollx, m_scrolly, m_attr, m_band_rows, row1, row2);
+	}
+
+	//----------------------------------------------------------
+	//  描画
+	//----------------------------------------------------------
+
+	@Override
+	protected void compute()
+	{
+		if (m_row2 - m_row1 > m_band_rows) {
+			int mid = (m_row1 + m_row2) >>> 1;
+			invokeAll(band(m_row1, mid), band(mid, m_row2));
+			return;
+		}
+		for (int py=m_row1; py < m_row2; ++py) {
+			rasterizeRow(py);
+		}
+	}
+
+	/**
+	 * 描画先の1行を描画します。<br>
+	 * 反転前のビューポート上の位置からタイルと画素を求め、反転属性に応じた向きに書き込みます。
+	 *
+	 * @param py 描画先のY座標
+	 */
+	private void rasterizeRow(int py)
+	{
+		int tw = m_tilemap.getTileWidth();
+		int th = m_tilemap.getTileHeight();
+		int map_width = m_tilemap.getMapWidth();
+		int world_width  = tw * map_width;
+		int world_height = th * m_tilemap.getMapHeight();
+		int sw = m_tiles.getSourceWidth();
+		int sh = m_tiles.getSourceHeight();
+		int[] src = m_src.m_pixels;
+		int src_scan   = m_src.m_width;
+		int src_height = m_src.m_height;
+		int[] dst = m_dst.m_pixels;
+		int dst_scan = m_dst.m_scan;
+		boolean dst_alpha = m_dst.m_alpha;
+
+		int vy = py - m_y;
+		int uy = ((m_attr & IVGImage.FLIP_VERTICAL) != 0) ? m_h - 1 - vy : vy;
+		int wy = (m_scrolly + uy) % world_height;
+		int iy = wy / th;
+		int ty = wy - iy * th;
+
+		// 描画先の列の範囲を反転前のビューポート上の範囲に直す
+		int ux1, ux2, dir, di;
+		if ((m_attr & IVGImage.FLIP_HORIZONTAL) != 0) {
+			ux1 = m_x + m_w - m_clip_x2;
+			ux2 = m_x + m_w - m_clip_x1;
+			dir = -1;
+			di = m_dst.m_base + py * dst_scan + m_clip_x2 - 1;
+		}
+		else {
+			ux1 = m_clip_x1 - m_x;
+			ux2 = m_clip_x2 - m_x;
+			dir = 1;
+			di = m_dst.m_base + py * dst_scan + m_clip_x1;
+		}
+
+		int wx = (m_scrollx + ux1) % world_width;
+		int ix = wx / tw;
+		int tx = wx - ix * tw;
+		int ux = ux1;
+		while (ux < ux2) {
+			int seg = Math.min(tw - tx, ux2 - ux);
+			int codeattr = m_tilemap.getCodeAttr(ix, iy);
+			if (codeattr != -1) {
+				int code = m_tilemap.resolveCode(codeattr & 0xffff);
+				int tattr = codeattr >>> 16;
+				int sx0 = m_tiles.getSourceX(code);
+				int sy0 = m_tiles.getSourceY(code);
+				// 元イメージからはみ出すタイルはdrawImageと同じく描画しない
+				if (sx0 >= 0 && sy0 >= 0 && sx0 + sw <= src_scan && sy0 + sh <= src_height) {
+					int ty2 = ((tattr & IVGImage.FLIP_VERTICAL) != 0) ? th - 1 - ty : ty;
+					int sy = (sh == th) ? ty2 : ((2 * ty2 + 1) * sh) / (2 * th);
+					int si = (sy0 + sy) * src_scan + sx0;
+					boolean flip_h = (tattr & IVGImage.FLIP_HORIZONTAL) != 0;
+					int d = di;
+					for (int k=0; k < seg; ++k, d += dir) {
+						int tx2 = flip_h ? tw - 1 - (tx + k) : tx + k;
+						int sx = (sw == tw) ? tx2 : ((2 * tx2 + 1) * sw) / (2 * tw);
+						int argb = src[si + sx];
+						int a = argb >>> 24;
+						if (a == 0xff) {
+							dst[d] = argb;
+						}
+						else if (a != 0) {
+							dst[d] = blend(dst[d], argb, dst_alpha);
+						}
+					}
+				}
+			}
+			di += seg * dir;
+			ux += seg;
+			tx = 0;
+			if (++ix >= map_width) ix = 0;
+		}
+	}
+
+	/**
+	 * 半透明の画素を重ねます(SrcOver)。
+	 *
+	 * @param dst       描画先の画素
+	 * @param src       重ねる画素(ARGB)
+	 * @param dst_alpha 描画先がアルファ値を持つかどうか
+	 * @return 重ねた画素
+	 */
+	private static int blend(int dst, int src, boolean dst_alpha)
+	{
+		int sa = src >>> 24;
+		int ia = 255 - sa;
+		int sr = (src >> 16) & 0xff, sg = (src >> 8) & 0xff, sb = src & 0xff;
+		int dr = (dst >> 16) & 0xff, dg = (dst >> 8) & 0xff, db = dst & 0xff;
+		if (!dst_alpha) {
+			int r = (sr * sa + dr * ia + 127) / 255;
+			int g = (sg * sa + dg * ia + 127) / 255;
+			int b = (sb * sa + db * ia + 127) / 255;
+			return 0xff000000 | (r << 16) | (g << 8) | b;
+		}
+		int da = (dst >>> 24) * ia / 255;
+		int oa = sa + da;
+		if (oa == 0) return 0;
+		int r = (sr * sa + dr * da) / oa;
+		int g = (sg * sa + dg * da) / oa;
+		int b = (sb * sa + db * da) / oa;
+		return (oa << 24) | (r << 16) | (g << 8) | b;
+	}
+}
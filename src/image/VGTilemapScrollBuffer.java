@@ -0,0 +1,354 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * <code>VGTilemap</code>のビューポートより1タイル大きい循環バッファを保持します。<br>
+ * <br>
+ * バッファにはスクロール座標を含むタイルの窓が描画されており、タイル単位の座標を
+ * バッファの列数・行数で割った余りの位置に置かれます。スクロールしたときは新しく見えた
+ * 列と行だけを描き直し、ビューポートへは最大4回の転送で描画します。
+ */
+final class VGTilemapScrollBuffer
+{
+	/**
+	 * 透明色
+	 */
+	private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+	/**
+	 * 対象のタイルマップ
+	 */
+	private VGTilemap m_tilemap;
+	/**
+	 * バッファのイメージ
+	 */
+	private BufferedImage m_image;
+	/**
+	 * バッファに描画するグラフィックコンテキスト
+	 */
+	private Graphics2D m_graphics;
+	/**
+	 * バッファのイメージを作成したデバイスの構成
+	 */
+	private GraphicsConfiguration m_config;
+	/**
+	 * バッファの列数
+	 */
+	private int m_cols;
+	/**
+	 * バッファの行数
+	 */
+	private int m_rows;
+	/**
+	 * バッファに描画されている窓の左端のタイル単位のX座標(折り返し前)
+	 */
+	private int m_tx;
+	/**
+	 * バッファに描画されている窓の上端のタイル単位のY座標(折り返し前)
+	 */
+	private int m_ty;
+	/**
+	 * バッファの内容が有効かどうか
+	 */
+	private boolean m_valid = false;
+	/**
+	 * 描き直しが必要なバッファ上の位置のフラグ
+	 */
+	private boolean[] m_dirty;
+	/**
+	 * 描き直しが必要な位置があるかどうか
+	 */
+	private boolean m_dirty_any = false;
+	/**
+	 * バッファ上の位置ごとの描画したタイルのアニメーションのスロット番号+1(0はアニメーションなし)
+	 */
+	private byte[] m_anim_slots;
+	/**
+	 * バッファの行ごとの描画したタイルのアニメーションのスロットのマスク
+	 */
+	private long[] m_row_masks;
+
+	//----------------------------------------------------------
+	//  コンストラクタ
+	//----------------------------------------------------------
+
+	/**
+	 * 新しい<code>VGTilemapScrollBuffer</code>オブジェクトを構築します。
+	 *
+	 * @param tilemap 対象のタイルマップ
+	 */
+	VGTilemapScrollBuffer(VGTilemap tilemap)
+	{
+		m_tilemap = tilemap;
+	}
+
+	//----------------------------------------------------------
+	//  無効化
+	//----------------------------------------------------------
+
+	/**
+	 * 指定された範囲のタイルが置かれているバッファ上の位置を描き直すようにします。
+	 *
+	 * @param x タイル単位のX座標
+	 * @param y タイル単位のY座標
+	 * @param w 幅(タイル単位)
+	 * @param h 高さ(タイル単位)
+	 */
+	void invalidate(int x, int y, int w, int h)
+	{
+		if (!m_valid || w <= 0 || h <= 0) return;
+		int map_width  = m_tilemap.getMapWidth();
+		int map_height = m_tilemap.getMapHeight();
+		// マップが窓より狭いときは同じタイルが窓の中に複数回現れる
+		for (int ty=m_ty + Math.floorMod(y - m_ty, map_height); ty < m_ty + m_rows; ty += map_height) {
+			for (int ry=0; ry < h && ty + ry < m_ty + m_rows; ++ry) {
+				int row = Math.floorMod(ty + ry, m_rows) * m_cols;
+				for (int tx=m_tx + Math.floorMod(x - m_tx, map_width); tx < m_tx + m_cols; tx += map_width) {
+					for (int rx=0; rx < w && tx + rx < m_tx + m_cols; ++rx) {
+						m_dirty[row + Math.floorMod(tx + rx, m_cols)] = true;
+						m_dirty_any = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 表示するコマが変わったアニメーションのタイルが置かれているバッファ上の位置を描き直すようにします。
+	 *
+	 * @param changed 表示するコマが変わったアニメーションのスロットのマスク
+	 */
+	void invalidateAnimations(long changed)
+	{
+		if (!m_valid) return;
+		for (int row=0; row < m_rows; ++row) {
+			if ((m_row_masks[row] & changed) == 0) continue;
+			for (int col=0; col < m_cols; ++col) {
+				int index = row * m_cols + col;
+				int slot = m_anim_slots[index];
+				if (slot != 0 && (changed & (1L << (slot - 1))) != 0) {
+					m_dirty[index] = true;
+					m_dirty_any = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * バッファ全体を描き直すようにします。
+	 */
+	void invalidateAll()
+	{
+		m_valid = false;
+	}
+
+	/**
+	 * バッファを解放します。
+	 */
+	void release()
+	{
+		if (m_graphics != null) {
+			m_graphics.dispose();
+			m_graphics = null;
+		}
+		if (m_image != null) {
+			m_image.flush();
+			m_image = null;
+		}
+		m_config = null;
+		m_valid = false;
+	}
+
+	//----------------------------------------------------------
+	//  描画メソッド
+	//----------------------------------------------------------
+
+	/**
+	 * ビューポートをバッファの転送で描画します。<br>
+	 * クリップ領域は呼び出し側で設定されているものとします。
+	 *
+	 * @param g       グラフィックコンテキスト
+	 * @param x       描画先の左上のX座標
+	 * @param y       描画先の左上のY座標
+	 * @param w       幅
+	 * @param h       高さ
+	 * @param originx 補正前のスクロールX座標
+	 * @param originy 補正前のスクロールY座標
+	 * @param attr    描画属性
+	 */
+	void paint(Graphics g, int x, int y, int w, int h, int originx, int originy, int attr)
+	{
+		int tw = m_tilemap.getTileWidth();
+		int th = m_tilemap.getTileHeight();
+		int cols = (w + tw - 1) / tw + 1;
+		int rows = (h + th - 1) / th + 1;
+		GraphicsConfiguration gc = ((Graphics2D)g).getDeviceConfiguration();
+		if (gc != m_config || cols != m_cols || rows != m_rows) {
+			release();
+			m_config = gc;
+			m_cols = cols;
+			m_rows = rows;
+			m_image = gc.createCompatibleImage(cols * tw, rows * th, Transparency.TRANSLUCENT);
+			m_graphics = m_image.createGraphics();
+			m_graphics.setBackground(TRANSPARENT);
+			m_dirty = new boolean[cols * rows];
+			m_anim_slots = new byte[cols * rows];
+			m_row_masks = new long[rows];
+		}
+
+		update(Math.floorDiv(originx, tw), Math.floorDiv(originy, th));
+
+		// ビューポートの左上はバッファ上の(bx, by)に対応し、右と下ははみ出した分が先頭に回り込む
+		int bw = m_cols * tw;
+		int bh = m_rows * th;
+		int bx = Math.floorMod(originx, bw);
+		int by = Math.floorMod(originy, bh);
+		boolean flip_h = (attr & IVGImage.FLIP_HORIZONTAL) != 0;
+		boolean flip_v = (attr & IVGImage.FLIP_VERTICAL) != 0;
+		for (int dy=-by; dy < h; dy += bh) {
+			for (int dx=-bx; dx < w; dx += bw) {
+				if (!flip_h && !flip_v) {
+					g.drawImage(m_image, x + dx, y + dy, null);
+					continue;
+				}
+				int px = flip_h ? w - dx - bw : dx;
+				int py = flip_v ? h - dy - bh : dy;
+				g.drawImage(m_image, x + px, y + py, x + px + bw, y + py + bh,
+						flip_h ? bw : 0, flip_v ? bh : 0, flip_h ? 0 : bw, flip_v ? 0 : bh, null);
+			}
+		}
+	}
+
+	/**
+	 * バッファの窓を指定された位置に移動し、新しく見えた列と行、変更された位置を描き直します。
+	 *
+	 * @param tx 窓の左端のタイル単位のX座標(折り返し前)
+	 * @param ty 窓の上端のタイル単位のY座標(折り返し前)
+	 */
+	private void update(int tx, int ty)
+	{
+		int tw = m_tilemap.getTileWidth();
+		int th = m_tilemap.getTileHeight();
+		if (!m_valid || Math.abs(tx - m_tx) >= m_cols || Math.abs(ty - m_ty) >= m_rows) {
+			m_tx = tx;
+			m_ty = ty;
+			m_graphics.clearRect(0, 0, m_cols * tw, m_rows * th);
+			for (int row=0; row < m_rows; ++row) {
+				paintRow(ty + row, false);
+			}
+			for (int i=0; i < m_dirty.length; ++i) {
+				m_dirty[i] = false;
+			}
+			m_dirty_any = false;
+			m_valid = true;
+			return;
+		}
+
+		// 窓を先に移動してから、はみ出した列と行の位置に新しいタイルを描く
+		int old_tx = m_tx;
+		int old_ty = m_ty;
+		m_tx = tx;
+		m_ty = ty;
+		if (tx > old_tx) {
+			for (int col=old_tx + m_cols; col < tx + m_cols; ++col) {
+				paintColumn(col, true);
+			}
+		}
+		else {
+			for (int col=tx; col < old_tx; ++col) {
+				paintColumn(col, true);
+			}
+		}
+		if (ty > old_ty) {
+			for (int row=old_ty + m_rows; row < ty + m_rows; ++row) {
+				paintRow(row, true);
+			}
+		}
+		else {
+			for (int row=ty; row < old_ty; ++row) {
+				paintRow(row, true);
+			}
+		}
+
+		if (m_dirty_any) {
+			m_dirty_any = false;
+			for (int row=0; row < m_rows; ++row) {
+				for (int col=0; col < m_cols; ++col) {
+					int index = row * m_cols + col;
+					if (!m_dirty[index]) continue;
+					m_dirty[index] = false;
+					// バッファ上の位置から窓の中のタイル座標を求める
+					int wx = m_tx + Math.floorMod(col - m_tx, m_cols);
+					int wy = m_ty + Math.floorMod(row - m_ty, m_rows);
+					m_graphics.clearRect(col * tw, row * th, tw, th);
+					paintTile(wx, wy);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 窓の中の1列を描き直します。
+	 *
+	 * @param tx    タイル単位のX座標(折り返し前)
+	 * @param clear 描画前に消去するかどうか
+	 */
+	private void paintColumn(int tx, boolean clear)
+	{
+		int col = Math.floorMod(tx, m_cols);
+		int tw = m_tilemap.getTileWidth();
+		if (clear) {
+			m_graphics.clearRect(col * tw, 0, tw, m_rows * m_tilemap.getTileHeight());
+		}
+		for (int row=0; row < m_rows; ++row) {
+			int ty = m_ty + row;
+			m_dirty[Math.floorMod(ty, m_rows) * m_cols + col] = false;
+			paintTile(tx, ty);
+		}
+	}
+
+	/**
+	 * 窓の中の1行を描き直します。
+	 *
+	 * @param ty    タイル単位のY座標(折り返し前)
+	 * @param clear 描画前に消去するかどうか
+	 */
+	private void paintRow(int ty, boolean clear)
+	{
+		int row = Math.floorMod(ty, m_rows);
+		int th = m_tilemap.getTileHeight();
+		m_row_masks[row] = 0;
+		if (clear) {
+			m_graphics.clearRect(0, row * th, m_cols * m_tilemap.getTileWidth(), th);
+		}
+		for (int col=0; col < m_cols; ++col) {
+			int tx = m_tx + col;
+			m_dirty[row * m_cols + Math.floorMod(tx, m_cols)] = false;
+			paintTile(tx, ty);
+		}
+	}
+
+	/**
+	 * 1つのタイルをバッファ上の位置に描画します。
+	 *
+	 * @param tx タイル単位のX座標(折り返し前)
+	 * @param ty タイル単位のY座標(折り返し前)
+	 */
+	private void paintTile(int tx, int ty)
+	{
+		int col = Math.floorMod(tx, m_cols);
+		int row = Math.floorMod(ty, m_rows);
+		long mask = m_tilemap.paintTiles(m_graphics,
+				Math.floorMod(tx, m_tilemap.getMapWidth()), Math.floorMod(ty, m_tilemap.getMapHeight()), 1, 1,
+				col * m_tilemap.getTileWidth(), row * m_tilemap.getTileHeight());
+		// 行のマスクは行全体を描き直すまで立てたままにする
+		m_anim_slots[row * m_cols + col] = (byte)((mask == 0) ? 0 : Long.numberOfTrailingZeros(mask) + 1);
+		m_row_masks[row] |= mask;
+	}
+}
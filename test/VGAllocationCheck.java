@@ -0,0 +1,137 @@
+package com.github.isle_shimakura.videogame;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import com.github.isle_shimakura.videogame.image.VGImage;
+import com.github.isle_shimakura.videogame.image.VGImageArray;
+import com.github.isle_shimakura.videogame.image.VGTilemap;
+
+/**
+ * キャンバスとタイルマップのフレームがメモリを割り当てないことを確認します。<br>
+ * <br>
+ * スクロールするタイルマップを描画する<code>VGStretchCanvas</code>を<code>VGHeadlessRunner</code>で実行し、
+ * <code>VGAllocationProbe</code>で1フレームごとの割り当て量を計測します。
+ * タイルマップの描画方法ごとに計測し、割り当てたフレームがあったときは<code>AssertionError</code>を投げて終了します。
+ */
+public final class VGAllocationCheck
+{
+	/**
+	 * 画面の幅
+	 */
+	private static final int WIDTH = 320;
+	/**
+	 * 画面の高さ
+	 */
+	private static final int HEIGHT = 240;
+	/**
+	 * タイルの大きさ
+	 */
+	private static final int TILE = 16;
+
+	/**
+	 * タイルマップをスクロールしながら描画するキャンバス
+	 */
+	@SuppressWarnings("serial")
+	private static final class TilemapCanvas extends VGStretchCanvas
+	{
+		/**
+		 * 描画するタイルマップ
+		 */
+		private final VGTilemap m_map;
+		/**
+		 * スクロール座標
+		 */
+		private int m_scroll;
+
+		/**
+		 * 新しい<code>TilemapCanvas</code>オブジェクトを構築します。
+		 *
+		 * @param mode タイルマップの描画方法
+		 */
+		TilemapCanvas(int mode)
+		{
+			super(WIDTH, HEIGHT);
+			m_map = new VGTilemap(createTiles(), 64, 64);
+			for (int y=0; y < m_map.getMapHeight(); ++y) {
+				for (int x=0; x < m_map.getMapWidth(); ++x) {
+					m_map.setTile(x, y, (x + y) % 4, 0);
+				}
+			}
+			m_map.setRenderMode(mode);
+		}
+
+		@Override
+		protected void frameUpdate(int skipped)
+		{
+			// チャンクの作成で割り当てないよう、一定の範囲を往復する
+			m_scroll = (m_scroll + 1) % (TILE * 8);
+			m_map.setOrigin(m_scroll, m_scroll / 2);
+		}
+
+		@Override
+		protected void frameStretchRender(Graphics g)
+		{
+			m_map.paint(g, 0, 0, WIDTH, HEIGHT, 0);
+		}
+	}
+
+	/**
+	 * 確認を実行します。
+	 *
+	 * @param args 使用しない
+	 */
+	public static void main(String[] args)
+	{
+		check("RENDER_DIRECT", VGTilemap.RENDER_DIRECT);
+		check("RENDER_CHUNKED", VGTilemap.RENDER_CHUNKED);
+		check("RENDER_SCROLL", VGTilemap.RENDER_SCROLL);
+		System.out.println("VGAllocationCheck: ok");
+	}
+
+	/**
+	 * 指定された描画方法でフレームを実行し、割り当てがないことを確認します。
+	 *
+	 * @param name 描画方法の名前
+	 * @param mode タイルマップの描画方法
+	 */
+	private static void check(String name, int mode)
+	{
+		VGHeadlessRunner runner = new VGHeadlessRunner(new TilemapCanvas(mode), WIDTH, HEIGHT);
+		try {
+			VGAllocationProbe probe = new VGAllocationProbe(runner);
+			// コンパイル前のコードは割り当てを行うことがあるため、JITコンパイルが落ち着くまで実行してから計測する
+			probe.measure(20000, 1000);
+			System.out.println(name + ": max " + probe.getMaxBytes() + " bytes/frame");
+			probe.assertAllocationFree();
+		}
+		finally {
+			runner.dispose();
+		}
+	}
+
+	/**
+	 * 単色のタイルを4つ並べたタイルの配列を作成します。
+	 *
+	 * @return タイルの配列
+	 */
+	private static VGImageArray createTiles()
+	{
+		BufferedImage sheet = new BufferedImage(TILE * 4, TILE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = sheet.createGraphics();
+		VGImage[] tiles = new VGImage[4];
+		try {
+			for (int i=0; i < tiles.length; ++i) {
+				g.setColor(new Color(0xff000000 | (i * 0x3f3f3f), true));
+				g.fillRect(TILE * i, 0, TILE, TILE);
+				tiles[i] = new VGImage(sheet, TILE * i, 0, TILE, TILE);
+			}
+		}
+		finally {
+			g.dispose();
+		}
+		return new VGImageArray(tiles);
+	}
+}
@@ -0,0 +1,76 @@
+package com.github.isle_shimakura.videogame.image;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 反転した複製が元イメージとともに破棄されることを確認します。<br>
+ * <br>
+ * 使い捨ての<code>VGImage</code>を反転して描画したあとでガベージコレクションを実行し、
+ * 元イメージがすべて回収されることを確認します。
+ * 回収されないイメージがあったときは<code>AssertionError</code>を投げて終了します。
+ */
+public final class VGFlippedImagesCheck
+{
+	/**
+	 * 描画する使い捨てのイメージの数
+	 */
+	private static final int IMAGES = 200;
+	/**
+	 * 使い捨てのイメージの大きさ
+	 */
+	private static final int SIZE = 512;
+
+	/**
+	 * 確認を実行します。
+	 *
+	 * @param args 使用しない
+	 * @throws InterruptedException ガベージコレクションを待っている間に割り込まれたとき
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		BufferedImage target = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = target.createGraphics();
+		List<WeakReference<BufferedImage>> refs = new ArrayList<WeakReference<BufferedImage>>(IMAGES);
+		try {
+			for (int i=0; i < IMAGES; ++i) {
+				refs.add(paintFlipped(g));
+			}
+		}
+		finally {
+			g.dispose();
+		}
+
+		int live = IMAGES;
+		for (int i=0; i < 20 && live > 0; ++i) {
+			System.gc();
+			Thread.sleep(50);
+			live = 0;
+			for (WeakReference<BufferedImage> ref : refs) {
+				if (ref.get() != null) ++live;
+			}
+		}
+		if (live > 0) {
+			throw new AssertionError(live + " of " + IMAGES + " images were not collected");
+		}
+		System.out.println("VGFlippedImagesCheck: ok");
+	}
+
+	/**
+	 * 使い捨てのイメージを作成し、反転した複製を使って描画します。
+	 *
+	 * @param g 描画先のグラフィックコンテキスト
+	 * @return 元イメージへの弱い参照
+	 */
+	private static WeakReference<BufferedImage> paintFlipped(Graphics2D g)
+	{
+		BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+		VGImage sprite = new VGImage(image, 0, 0, SIZE, SIZE);
+		sprite.setFlipCache(true);
+		sprite.paint(g, 0, 0, IVGImage.FLIP_HORIZONTAL);
+		return new WeakReference<BufferedImage>(image);
+	}
+}